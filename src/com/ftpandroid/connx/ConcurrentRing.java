@@ -0,0 +1,113 @@
+package com.ftpandroid.connx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring that keeps the most recent elements added,
+ * overwriting the oldest once full. Any number of threads may add
+ * without locking. Snapshots are taken without blocking writers;
+ * each slot carries the sequence number of its element, and a slot
+ * that is overwritten while being read is simply left out.
+ *
+ * @author eric
+ *
+ */
+public class ConcurrentRing {
+
+	private int mask;
+
+	private AtomicReferenceArray slots;
+
+	/**
+	 * Sequence number + 1 of the element in each slot, 0 if empty
+	 * and -1 while being written
+	 */
+	private AtomicLongArray published;
+
+	/**
+	 * Sequence number of the next element added
+	 */
+	private AtomicLong next = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity most elements kept, rounded up to a power of two
+	 */
+	public ConcurrentRing(int capacity){
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+		mask = size - 1;
+		slots = new AtomicReferenceArray(size);
+		published = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Add an element, overwriting the oldest if full
+	 *
+	 * @param element element to add
+	 */
+	public void add(Object element){
+		long seq = next.getAndIncrement();
+		int index = (int)seq & mask;
+		published.set(index, -1);
+		slots.set(index, element);
+		published.set(index, seq + 1);
+	}
+
+	/**
+	 * Copy the elements currently held, oldest first
+	 *
+	 * @return array of elements
+	 */
+	public Object[] snapshot(){
+		long end = next.get();
+		long start = Math.max(0, end - (mask + 1));
+		Object[] result = new Object[(int)(end - start)];
+		int count = 0;
+		for(long seq = start; seq < end; seq++){
+			int index = (int)seq & mask;
+			if(published.get(index) != seq + 1)
+				continue;
+			Object element = slots.get(index);
+			if(published.get(index) != seq + 1)
+				continue;
+			result[count++] = element;
+		}
+		if(count == result.length)
+			return result;
+		Object[] trimmed = new Object[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Remove all elements
+	 */
+	public void clear(){
+		for(int i = 0; i <= mask; i++){
+			published.set(i, 0);
+			slots.set(i, null);
+		}
+	}
+
+	/**
+	 * Total number of elements ever added, including those
+	 * since overwritten
+	 *
+	 * @return count
+	 */
+	public long getAddedCount(){
+		return next.get();
+	}
+
+	/**
+	 * @return most elements kept
+	 */
+	public int getCapacity(){
+		return mask + 1;
+	}
+}
@@ -0,0 +1,393 @@
+package com.ftpandroid.connx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.TreeSet;
+
+/**
+ * FIFO queue of single-line string records kept on disk, so that
+ * it survives restarts and can hold far more records than fit in
+ * memory. Records are appended to segment files of a fixed number
+ * of records each; only the segment being written and the segment
+ * being read are open. A record taken from the queue stays on disk
+ * until it is acknowledged, so records taken but not acknowledged
+ * when the process dies are returned again after a restart. Segments
+ * are deleted once every record in them has been acknowledged.
+ * <p>
+ * Records are numbered in the order they are added; the number of
+ * the oldest unacknowledged record is kept in a small head file.
+ *
+ * @author eric
+ *
+ */
+public class DiskQueue {
+
+	/**
+	 * Default records per segment file
+	 */
+	public final static int DEFAULT_SEGMENT_SIZE = 10000;
+
+	private final static String SEGMENT_SUFFIX = ".seg";
+
+	private final static String HEAD_FILE = "head";
+
+	private final static String ENCODING = "UTF-8";
+
+	private File dir;
+
+	private int segmentSize;
+
+	/**
+	 * Number of the oldest unacknowledged record
+	 */
+	private long head;
+
+	/**
+	 * Number of the next record to be taken
+	 */
+	private long readSeq;
+
+	/**
+	 * Number of the next record to be added
+	 */
+	private long tailSeq;
+
+	/**
+	 * Numbers of records taken but not yet acknowledged
+	 */
+	private TreeSet inFlight = new TreeSet();
+
+	private BufferedReader reader;
+
+	/**
+	 * Segment the reader is open on, -1 if none
+	 */
+	private long readerSegment = -1;
+
+	private FileOutputStream tailOut;
+
+	private Writer writer;
+
+	/**
+	 * Constructor. Opens the queue in the supplied directory, creating
+	 * it if necessary
+	 *
+	 * @param dir directory holding the queue's files
+	 * @param segmentSize records per segment file
+	 * @throws IOException
+	 */
+	public DiskQueue(File dir, int segmentSize) throws IOException{
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		if(!dir.exists() && !dir.mkdirs())
+			throw new IOException("Failed to create queue directory: " + dir.getAbsolutePath());
+		open();
+	}
+
+	/**
+	 * Constructor using the default segment size
+	 *
+	 * @param dir directory holding the queue's files
+	 * @throws IOException
+	 */
+	public DiskQueue(File dir) throws IOException{
+		this(dir, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Find the head and tail from the files on disk
+	 */
+	private void open() throws IOException{
+		long first = -1;
+		long last = -1;
+		String[] names = dir.list();
+		for(int i = 0; names != null && i < names.length; i++){
+			if(!names[i].endsWith(SEGMENT_SUFFIX))
+				continue;
+			try{
+				long segment = Long.parseLong(names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()));
+				if(first < 0 || segment < first)
+					first = segment;
+				if(segment > last)
+					last = segment;
+			}
+			catch(NumberFormatException ex){
+				// not one of ours
+			}
+		}
+		long savedHead = readHead();
+		if(last < 0){
+			// drained - carry on numbering from where it stopped, at the
+			// start of a segment so that numbers match segment positions
+			head = savedHead < 0 ? 0 : ((savedHead + segmentSize - 1) / segmentSize) * segmentSize;
+			readSeq = tailSeq = head;
+			return;
+		}
+		tailSeq = last * segmentSize + countRecords(segmentFile(last));
+		head = first * segmentSize;
+		if(savedHead >= 0)
+			head = Math.max(head, Math.min(savedHead, tailSeq));
+		readSeq = head;
+	}
+
+	/**
+	 * Read the head file
+	 *
+	 * @return head, or -1 if missing or corrupt
+	 */
+	private long readHead() throws IOException{
+		File headFile = new File(dir, HEAD_FILE);
+		if(!headFile.exists())
+			return -1;
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(headFile), ENCODING));
+		try{
+			String line = in.readLine();
+			return line != null ? Long.parseLong(line.trim()) : -1;
+		}
+		catch(NumberFormatException ex){
+			// corrupt head file - deliver from the oldest segment again
+			return -1;
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Count the records in a segment, truncating a record torn by a crash
+	 */
+	private int countRecords(File segment) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		try{
+			long length = raf.length();
+			long lastNewline = -1;
+			int count = 0;
+			byte[] buf = new byte[8192];
+			long pos = 0;
+			int n;
+			while((n = raf.read(buf)) > 0){
+				for(int i = 0; i < n; i++){
+					if(buf[i] == '\n'){
+						count++;
+						lastNewline = pos + i;
+					}
+				}
+				pos += n;
+			}
+			if(lastNewline + 1 < length)
+				raf.setLength(lastNewline + 1);
+			return count;
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+	private File segmentFile(long segment){
+		StringBuffer name = new StringBuffer(Long.toString(segment));
+		while(name.length() < 12)
+			name.insert(0, '0');
+		return new File(dir, name.append(SEGMENT_SUFFIX).toString());
+	}
+
+	/**
+	 * Add a record to the tail of the queue. The record is written
+	 * through to the operating system before returning; call
+	 * {@link #sync()} to force it to the device.
+	 *
+	 * @param record record to add, which must not contain line breaks
+	 * @return number of the record
+	 * @throws IOException
+	 */
+	public synchronized long add(String record) throws IOException{
+		if(record.indexOf('\n') >= 0 || record.indexOf('\r') >= 0)
+			throw new IllegalArgumentException("Record must be a single line");
+		if(writer == null || tailSeq % segmentSize == 0){
+			closeWriter();
+			tailOut = new FileOutputStream(segmentFile(tailSeq / segmentSize), true);
+			writer = new OutputStreamWriter(tailOut, ENCODING);
+		}
+		writer.write(record);
+		writer.write('\n');
+		writer.flush();
+		return tailSeq++;
+	}
+
+	/**
+	 * Take the record at the head of the queue. The record must be
+	 * acknowledged with {@link #ack(long)} once it has been dealt with.
+	 *
+	 * @return record, or null if the queue has nothing left to take
+	 * @throws IOException
+	 */
+	public synchronized Record poll() throws IOException{
+		if(readSeq >= tailSeq)
+			return null;
+		long segment = readSeq / segmentSize;
+		if(segment != readerSegment){
+			closeReader();
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(segmentFile(segment)), ENCODING));
+			readerSegment = segment;
+			for(long skip = segment * segmentSize; skip < readSeq; skip++)
+				reader.readLine();
+		}
+		String line = reader.readLine();
+		if(line == null)
+			throw new IOException("Queue segment truncated: " + segmentFile(segment).getAbsolutePath());
+		Record record = new Record(readSeq, line);
+		inFlight.add(new Long(readSeq));
+		readSeq++;
+		return record;
+	}
+
+	/**
+	 * Acknowledge that a record taken from the queue has been dealt with,
+	 * so it is not returned again after a restart
+	 *
+	 * @param seq number of the record
+	 * @throws IOException
+	 */
+	public synchronized void ack(long seq) throws IOException{
+		if(!inFlight.remove(new Long(seq)))
+			return;
+		long newHead = inFlight.isEmpty() ? readSeq : ((Long)inFlight.first()).longValue();
+		if(newHead <= head)
+			return;
+		long oldSegment = head / segmentSize;
+		head = newHead;
+		writeHead();
+		long headSegment = head / segmentSize;
+		for(long segment = oldSegment; segment < headSegment; segment++){
+			if(segment == readerSegment)
+				closeReader();
+			segmentFile(segment).delete();
+		}
+	}
+
+	/**
+	 * Replace the head file atomically
+	 */
+	private void writeHead() throws IOException{
+		File temp = new File(dir, HEAD_FILE + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			out.write((Long.toString(head) + "\n").getBytes(ENCODING));
+			out.getFD().sync();
+		}
+		finally{
+			out.close();
+		}
+		File headFile = new File(dir, HEAD_FILE);
+		if(!temp.renameTo(headFile)){
+			headFile.delete();
+			if(!temp.renameTo(headFile))
+				throw new IOException("Failed to replace " + headFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Force records added so far to the device
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException{
+		if(tailOut != null)
+			tailOut.getFD().sync();
+	}
+
+	/**
+	 * Number of records added but not yet taken
+	 *
+	 * @return count
+	 */
+	public synchronized long size(){
+		return tailSeq - readSeq;
+	}
+
+	/**
+	 * Number of records taken but not yet acknowledged
+	 *
+	 * @return count
+	 */
+	public synchronized int getInFlightCount(){
+		return inFlight.size();
+	}
+
+	/**
+	 * Get the directory holding the queue's files
+	 *
+	 * @return directory
+	 */
+	public File getDirectory(){
+		return dir;
+	}
+
+	/**
+	 * Close the queue's files. Unacknowledged records will be returned
+	 * again when the queue is next opened.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException{
+		closeReader();
+		closeWriter();
+	}
+
+	private void closeReader() throws IOException{
+		if(reader != null){
+			reader.close();
+			reader = null;
+			readerSegment = -1;
+		}
+	}
+
+	private void closeWriter() throws IOException{
+		if(writer != null){
+			writer.flush();
+			tailOut.getFD().sync();
+			writer.close();
+			writer = null;
+			tailOut = null;
+		}
+	}
+
+	/**
+	 * Record taken from a queue
+	 */
+	public static class Record {
+
+		private long seq;
+
+		private String data;
+
+		Record(long seq, String data){
+			this.seq = seq;
+			this.data = data;
+		}
+
+		/**
+		 * Number of the record, used to acknowledge it
+		 *
+		 * @return number
+		 */
+		public long getSeq(){
+			return seq;
+		}
+
+		/**
+		 * The record as added
+		 *
+		 * @return record
+		 */
+		public String getData(){
+			return data;
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package com.ftpandroid.connx;
+
+/**
+ * Finds the fields of a line, recording where each starts and ends
+ * rather than copying them out. Numbers can be parsed and fields
+ * compared in place, so a field only becomes a String if it is wanted
+ * as one. A tokenizer is reused line after line and allocates nothing
+ * once its arrays are big enough; it is not thread-safe.
+ *
+ * @author eric
+ *
+ */
+public class FieldTokenizer {
+
+	private final static int INITIAL_FIELDS = 16;
+
+	/**
+	 * Separator, if not whitespace
+	 */
+	private char separator;
+
+	private boolean whitespace;
+
+	private CharSequence text;
+
+	private int[] starts = new int[INITIAL_FIELDS];
+
+	private int[] ends = new int[INITIAL_FIELDS];
+
+	private int count = 0;
+
+	/**
+	 * Create a tokenizer for fields separated by whitespace
+	 */
+	public FieldTokenizer(){
+		whitespace = true;
+	}
+
+	/**
+	 * Create a tokenizer for fields separated by a character. Empty
+	 * fields are skipped.
+	 *
+	 * @param separator separator character
+	 */
+	public FieldTokenizer(char separator){
+		this.separator = separator;
+		whitespace = false;
+	}
+
+	/**
+	 * Find the fields of a line, replacing those of the previous line
+	 *
+	 * @param text line to tokenize
+	 * @return number of fields
+	 */
+	public int tokenize(CharSequence text){
+		this.text = text;
+		count = 0;
+		int len = text.length();
+		int i = 0;
+		while(i < len){
+			while(i < len && isSeparator(text.charAt(i)))
+				i++;
+			if(i == len)
+				break;
+			int start = i;
+			while(i < len && !isSeparator(text.charAt(i)))
+				i++;
+			if(count == starts.length){
+				starts = grow(starts);
+				ends = grow(ends);
+			}
+			starts[count] = start;
+			ends[count++] = i;
+		}
+		return count;
+	}
+
+	private boolean isSeparator(char ch){
+		return whitespace ? Character.isWhitespace(ch) : ch == separator;
+	}
+
+	private static int[] grow(int[] array){
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Get the number of fields found
+	 *
+	 * @return count
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * Get the offset of the start of a field in the line
+	 *
+	 * @param field index of field
+	 * @return offset
+	 */
+	public int getStart(int field){
+		check(field);
+		return starts[field];
+	}
+
+	/**
+	 * Get the offset just past the end of a field in the line
+	 *
+	 * @param field index of field
+	 * @return offset
+	 */
+	public int getEnd(int field){
+		check(field);
+		return ends[field];
+	}
+
+	/**
+	 * Get the length of a field
+	 *
+	 * @param field index of field
+	 * @return length
+	 */
+	public int getLength(int field){
+		check(field);
+		return ends[field] - starts[field];
+	}
+
+	/**
+	 * Get the first character of a field
+	 *
+	 * @param field index of field
+	 * @return character
+	 */
+	public char getFirstChar(int field){
+		check(field);
+		return text.charAt(starts[field]);
+	}
+
+	/**
+	 * Get the last character of a field
+	 *
+	 * @param field index of field
+	 * @return character
+	 */
+	public char getLastChar(int field){
+		check(field);
+		return text.charAt(ends[field] - 1);
+	}
+
+	/**
+	 * Get a field as a String
+	 *
+	 * @param field index of field
+	 * @return field
+	 */
+	public String getField(int field){
+		check(field);
+		return text.subSequence(starts[field], ends[field]).toString();
+	}
+
+	/**
+	 * Get the line from the start of a field to the end, e.g. a name
+	 * that may contain separators
+	 *
+	 * @param field index of field
+	 * @return rest of the line
+	 */
+	public String getRemainder(int field){
+		check(field);
+		return text.subSequence(starts[field], text.length()).toString();
+	}
+
+	/**
+	 * Is a field equal to a string?
+	 *
+	 * @param field index of field
+	 * @param value string to compare with
+	 * @return true if equal
+	 */
+	public boolean fieldEquals(int field, String value){
+		return regionMatches(field, value, false);
+	}
+
+	/**
+	 * Is a field equal to a string, ignoring case?
+	 *
+	 * @param field index of field
+	 * @param value string to compare with
+	 * @return true if equal
+	 */
+	public boolean fieldEqualsIgnoreCase(int field, String value){
+		return regionMatches(field, value, true);
+	}
+
+	private boolean regionMatches(int field, String value, boolean ignoreCase){
+		check(field);
+		int len = ends[field] - starts[field];
+		if(len != value.length())
+			return false;
+		for(int i = 0; i < len; i++){
+			char a = text.charAt(starts[field] + i);
+			char b = value.charAt(i);
+			if(a != b && (!ignoreCase || Character.toUpperCase(a) != Character.toUpperCase(b)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Find a character within a field
+	 *
+	 * @param field index of field
+	 * @param ch character to find
+	 * @return offset in the line, or -1 if not in the field
+	 */
+	public int indexOf(int field, char ch){
+		check(field);
+		for(int i = starts[field]; i < ends[field]; i++){
+			if(text.charAt(i) == ch)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Is a field all digits? False if there is no such field.
+	 *
+	 * @param field index of field
+	 * @return true if all digits
+	 */
+	public boolean isNumeric(int field){
+		if(field < 0 || field >= count)
+			return false;
+		for(int i = starts[field]; i < ends[field]; i++){
+			if(!Character.isDigit(text.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse a field as a number
+	 *
+	 * @param field index of field
+	 * @return value
+	 * @throws NumberFormatException if not a number
+	 */
+	public long parseLong(int field){
+		check(field);
+		return parseLong(text, starts[field], ends[field], (char)0);
+	}
+
+	/**
+	 * Parse a field as a number, skipping a character such as a
+	 * thousands separator
+	 *
+	 * @param field index of field
+	 * @param ignore character to skip
+	 * @return value
+	 * @throws NumberFormatException if not a number
+	 */
+	public long parseLong(int field, char ignore){
+		check(field);
+		return parseLong(text, starts[field], ends[field], ignore);
+	}
+
+	/**
+	 * Parse a field as a number
+	 *
+	 * @param field index of field
+	 * @return value
+	 * @throws NumberFormatException if not a number or too big
+	 */
+	public int parseInt(int field){
+		long value = parseLong(field);
+		if(value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)
+			throw new NumberFormatException("Out of range: " + getField(field));
+		return (int)value;
+	}
+
+	/**
+	 * Parse part of a string as a decimal number, with an optional
+	 * leading sign
+	 *
+	 * @param text string holding the number
+	 * @param start offset of the number
+	 * @param end offset just past the number
+	 * @param ignore character to skip, or 0
+	 * @return value
+	 * @throws NumberFormatException if not a number
+	 */
+	public static long parseLong(CharSequence text, int start, int end, char ignore){
+		boolean negative = false;
+		int i = start;
+		if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')){
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+		long value = 0;
+		int digits = 0;
+		for(; i < end; i++){
+			char ch = text.charAt(i);
+			if(ch == ignore && ignore != 0)
+				continue;
+			if(ch < '0' || ch > '9' || value > (Long.MAX_VALUE - (ch - '0')) / 10)
+				throw new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+			value = value * 10 + (ch - '0');
+			digits++;
+		}
+		if(digits == 0)
+			throw new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Get the fields as Strings
+	 *
+	 * @return fields
+	 */
+	public String[] toArray(){
+		String[] fields = new String[count];
+		for(int i = 0; i < count; i++)
+			fields[i] = text.subSequence(starts[i], ends[i]).toString();
+		return fields;
+	}
+
+	/**
+	 * Get a copy of the field offsets, e.g. to decode fields later
+	 *
+	 * @return start and end offset of each field in turn
+	 */
+	public int[] getBounds(){
+		int[] bounds = new int[count * 2];
+		for(int i = 0; i < count; i++){
+			bounds[2*i] = starts[i];
+			bounds[2*i+1] = ends[i];
+		}
+		return bounds;
+	}
+
+	private void check(int field){
+		if(field < 0 || field >= count)
+			throw new ArrayIndexOutOfBoundsException(field);
+	}
+}
@@ -0,0 +1,185 @@
+package com.ftpandroid.connx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in nanoseconds. Each
+ * power of two is split into 8 sub-buckets, so a recorded value is
+ * accurate to within 12.5%. Recording is a single atomic increment
+ * and never allocates or locks. Histograms can be merged, which is
+ * how per-host and per-command views are combined.
+ *
+ * @author eric
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Sub-buckets per power of two (as a shift)
+	 */
+	private final static int SUB_BUCKET_BITS = 3;
+
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Enough buckets for any positive long
+	 */
+	private final static int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private AtomicLong total = new AtomicLong();
+
+	private AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency
+	 *
+	 * @param nanos latency in nanoseconds. Negative values are ignored
+	 */
+	public void record(long nanos){
+		if(nanos < 0)
+			return;
+		counts.incrementAndGet(bucketIndex(nanos));
+		total.addAndGet(nanos);
+		long current = max.get();
+		while(nanos > current && !max.compareAndSet(current, nanos))
+			current = max.get();
+	}
+
+	/**
+	 * Add all the values recorded in another histogram to this one
+	 *
+	 * @param other histogram to merge in
+	 */
+	public void merge(LatencyHistogram other){
+		for(int i = 0; i < BUCKET_COUNT; i++){
+			long c = other.counts.get(i);
+			if(c > 0)
+				counts.addAndGet(i, c);
+		}
+		total.addAndGet(other.total.get());
+		long otherMax = other.max.get();
+		long current = max.get();
+		while(otherMax > current && !max.compareAndSet(current, otherMax))
+			current = max.get();
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Number of values recorded
+	 *
+	 * @return count
+	 */
+	public long getCount(){
+		long count = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Sum of all values recorded, in nanoseconds
+	 *
+	 * @return total
+	 */
+	public long getTotal(){
+		return total.get();
+	}
+
+	/**
+	 * Largest value recorded, in nanoseconds
+	 *
+	 * @return maximum
+	 */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * Mean of the values recorded, in nanoseconds
+	 *
+	 * @return mean, or 0 if nothing recorded
+	 */
+	public long getMean(){
+		long count = getCount();
+		return count == 0 ? 0 : total.get() / count;
+	}
+
+	/**
+	 * Get the value at the supplied percentile. The result is the upper
+	 * bound of the bucket the percentile falls in.
+	 *
+	 * @param percentile value between 0 and 100
+	 * @return latency in nanoseconds
+	 */
+	public long getPercentile(double percentile){
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++){
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if(count == 0)
+			return 0;
+		long target = (long)Math.ceil((percentile / 100.0) * count);
+		if(target < 1)
+			target = 1;
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++){
+			seen += snapshot[i];
+			if(seen >= target)
+				return Math.min(bucketUpperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Work out which bucket a value belongs in
+	 *
+	 * @param value value to place
+	 * @return bucket index
+	 */
+	static int bucketIndex(long value){
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Largest value that falls in a bucket
+	 *
+	 * @param index bucket index
+	 * @return upper bound
+	 */
+	static long bucketUpperBound(int index){
+		if(index < SUB_BUCKETS)
+			return index;
+		int msb = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		long lower = (1L << msb) | (sub << (msb - SUB_BUCKET_BITS));
+		return lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public String toString(){
+		StringBuffer buf = new StringBuffer();
+		buf.append("count=").append(getCount()).
+			append(",mean=").append(getMean()).
+			append(",p50=").append(getPercentile(50)).
+			append(",p99=").append(getPercentile(99)).
+			append(",max=").append(getMax());
+		return buf.toString();
+	}
+}
@@ -0,0 +1,129 @@
+package com.ftpandroid.connx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the rate of events, e.g. bytes or commands, as an
+ * exponentially weighted moving average per second. Marking only
+ * adds to a {@link StripedCounter}; the average is brought up to
+ * date when it is read, a tick at a time, so no timer thread is
+ * needed.
+ *
+ * @author eric
+ *
+ */
+public class RateMeter {
+
+	/**
+	 * Interval between ticks in nanoseconds
+	 */
+	private final static long TICK_NANOS = 5000000000L;
+
+	private StripedCounter count = new StripedCounter();
+
+	/**
+	 * Smoothing factor applied at each tick
+	 */
+	private double alpha;
+
+	/**
+	 * Current average, in events per tick interval
+	 */
+	private volatile double rate = 0.0;
+
+	private volatile boolean initialized = false;
+
+	/**
+	 * Count as at the last tick
+	 */
+	private long lastCount = 0;
+
+	private AtomicLong lastTick = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Create a meter averaging over one minute
+	 */
+	public RateMeter(){
+		this(60);
+	}
+
+	/**
+	 * Create a meter
+	 *
+	 * @param periodSeconds period averaged over, in seconds
+	 */
+	public RateMeter(int periodSeconds){
+		alpha = 1.0 - Math.exp(-(TICK_NANOS / 1000000000.0) / periodSeconds);
+	}
+
+	/**
+	 * Record events
+	 *
+	 * @param n number of events
+	 */
+	public void mark(long n){
+		count.add(n);
+	}
+
+	/**
+	 * Total events recorded
+	 *
+	 * @return count
+	 */
+	public long getCount(){
+		return count.sum();
+	}
+
+	/**
+	 * Moving average rate
+	 *
+	 * @return events per second
+	 */
+	public double getRate(){
+		tickIfNecessary();
+		return rate * 1000000000.0 / TICK_NANOS;
+	}
+
+	/**
+	 * Set the meter back to zero
+	 */
+	public synchronized void reset(){
+		count.reset();
+		lastCount = 0;
+		rate = 0.0;
+		initialized = false;
+		lastTick.set(System.nanoTime());
+	}
+
+	private void tickIfNecessary(){
+		long old = lastTick.get();
+		long now = System.nanoTime();
+		long age = now - old;
+		if(age < TICK_NANOS)
+			return;
+		long newTick = now - age % TICK_NANOS;
+		if(!lastTick.compareAndSet(old, newTick))
+			return;
+		long ticks = age / TICK_NANOS;
+		synchronized(this){
+			long current = count.sum();
+			double instant = current - lastCount;
+			lastCount = current;
+			double r = rate;
+			if(!initialized){
+				r = instant;
+				initialized = true;
+			}
+			else
+				r += alpha * (instant - r);
+			// no events were counted in any further ticks, so just decay
+			if(ticks > 1)
+				r *= Math.pow(1.0 - alpha, ticks - 1);
+			rate = r;
+		}
+	}
+
+	public String toString(){
+		return Double.toString(getRate());
+	}
+}
@@ -0,0 +1,108 @@
+package com.ftpandroid.connx;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Adler-32 checksum whose state can be restored from a previously
+ * obtained value, so that a checksum of a partly transferred file can
+ * be saved and carried on from later. Gives the same values as
+ * java.util.zip.Adler32, which has no way to restore its state.
+ *
+ * @author eric
+ *
+ */
+public class RollingChecksum implements Checksum {
+
+	private final static int MOD_ADLER = 65521;
+
+	/**
+	 * Most bytes that can be summed before reducing without overflow
+	 */
+	private final static int NMAX = 5552;
+
+	private long a = 1;
+
+	private long b = 0;
+
+	/**
+	 * Create a checksum of no bytes
+	 */
+	public RollingChecksum(){
+	}
+
+	/**
+	 * Create a checksum carrying on from a saved value
+	 *
+	 * @param value value returned by {@link #getValue()}
+	 */
+	public RollingChecksum(long value){
+		setValue(value);
+	}
+
+	/**
+	 * Restore the checksum to a saved value
+	 *
+	 * @param value value returned by {@link #getValue()}
+	 */
+	public void setValue(long value){
+		a = value & 0xffff;
+		b = (value >>> 16) & 0xffff;
+	}
+
+	public long getValue(){
+		return (b << 16) | a;
+	}
+
+	public void reset(){
+		a = 1;
+		b = 0;
+	}
+
+	public void update(int value){
+		a = (a + (value & 0xff)) % MOD_ADLER;
+		b = (b + a) % MOD_ADLER;
+	}
+
+	public void update(byte[] buf, int off, int len){
+		while(len > 0){
+			int n = Math.min(len, NMAX);
+			len -= n;
+			while(n-- > 0){
+				a += buf[off++] & 0xff;
+				b += a;
+			}
+			a %= MOD_ADLER;
+			b %= MOD_ADLER;
+		}
+	}
+
+	/**
+	 * Checksum the first bytes of a file
+	 *
+	 * @param path  path of file
+	 * @param length number of bytes to include
+	 * @return checksum value
+	 * @throws IOException if the file can't be read or is too short
+	 */
+	public static long checksum(String path, long length) throws IOException{
+		RollingChecksum sum = new RollingChecksum();
+		InputStream in = new FileInputStream(path);
+		try{
+			byte[] buf = new byte[65536];
+			long remaining = length;
+			while(remaining > 0){
+				int count = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+				if(count < 0)
+					throw new IOException("File shorter than " + length + " bytes: " + path);
+				sum.update(buf, 0, count);
+				remaining -= count;
+			}
+		}finally{
+			in.close();
+		}
+		return sum.getValue();
+	}
+}
@@ -6,9 +6,6 @@ package com.ftpandroid.connx;
  *
  */
 public class StringUtils {
-	final private static int MAX_FIELDS = 100;
-	
-	private static StringUtils utils = new StringUtils();
 	
 	/**
 	 * Replace alla occurrences from in text with to 
@@ -38,42 +35,16 @@ public class StringUtils {
 	}
 	
 	/**
-	 * Splits string consisting of fields separeted by whitespace into an
-	 * array of strings.
+	 * Splits string consisting of fields separeted by a character into an
+	 * array of strings. Empty fields are skipped.
 	 * @param str string to split
 	 * @return array of fields
+	 * @see FieldTokenizer
 	 */
 	public static String[] split(String str, char token){
-		return split(str, utils.new CharSplitter(token));
-	}
-	
-	/**
-	 * Splits string consist of fields seprareted by whitespace into array of strings
-	 * @param str string to plit
-	 * @return array
-	 */
-	private static String[] split(String str, Splitter splitter){
-		String[] fields = new String[MAX_FIELDS];
-		int pos = 0;
-		StringBuffer field = new StringBuffer();
-		for(int i =0; i< str.length(); i++){
-			char ch = str.charAt(i);
-			if(!splitter.isSeparator(ch))
-				field.append(ch);
-			else{
-				if(field.length()>0){
-					fields[pos++] = field.toString();
-					field.setLength(0);
-				}
-			}
-		}
-		//pick up
-		if(field.length()>0){
-			fields[pos++] = field.toString();
-		}
-		String[] result = new String[pos];
-		System.arraycopy(fields,  0, result, 0, pos);
-		return result;
+		FieldTokenizer tokenizer = new FieldTokenizer(token);
+		tokenizer.tokenize(str);
+		return tokenizer.toArray();
 	}
 	
 	public interface Splitter{
@@ -0,0 +1,81 @@
+package com.ftpandroid.connx;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter whose updates are spread over several cells, chosen by
+ * thread, so that threads updating it rarely contend on the same
+ * cache line. Reading sums the cells and never blocks writers.
+ * This covers the same ground as LongAdder, which Android lacks.
+ *
+ * @author eric
+ *
+ */
+public class StripedCounter {
+
+	/**
+	 * Number of stripes, a power of two
+	 */
+	private final static int STRIPES = 8;
+
+	/**
+	 * Distance between used cells, so that each sits on its own
+	 * 64 byte cache line
+	 */
+	private final static int PADDING = 8;
+
+	private AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Add to the counter
+	 *
+	 * @param delta amount to add
+	 */
+	public void add(long delta){
+		cells.addAndGet(cellIndex(), delta);
+	}
+
+	/**
+	 * Add one to the counter
+	 */
+	public void increment(){
+		cells.incrementAndGet(cellIndex());
+	}
+
+	/**
+	 * Subtract one from the counter
+	 */
+	public void decrement(){
+		cells.decrementAndGet(cellIndex());
+	}
+
+	/**
+	 * Current value. Updates made concurrently with this call
+	 * may or may not be included.
+	 *
+	 * @return sum of all cells
+	 */
+	public long sum(){
+		long sum = 0;
+		for(int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+
+	/**
+	 * Set the counter back to zero
+	 */
+	public void reset(){
+		for(int i = 0; i < STRIPES; i++)
+			cells.set(i * PADDING, 0);
+	}
+
+	private static int cellIndex(){
+		long id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 3)) & (STRIPES - 1)) * PADDING;
+	}
+
+	public String toString(){
+		return Long.toString(sum());
+	}
+}
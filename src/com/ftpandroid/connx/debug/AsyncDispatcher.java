@@ -0,0 +1,183 @@
+package com.ftpandroid.connx.debug;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ftpandroid.connx.LatencyHistogram;
+
+/**
+ * Moves formatting and appender output off the logging threads.
+ * Producers queue raw {@link LogEvent}s; a single daemon thread formats
+ * them with its own date formatter and writes them to the appenders
+ * in batches, flushing file appenders once per batch.
+ * 
+ * @author eric
+ *
+ */
+class AsyncDispatcher implements Runnable {
+
+	/**
+	 * Most events written between flushes
+	 */
+	private final static int BATCH_SIZE = 256;
+
+	/**
+	 * Longest the consumer sleeps when idle, in nanoseconds
+	 */
+	private final static long IDLE_PARK_NANOS = 50000000L;
+
+	/**
+	 * How long a blocked producer waits between attempts, in nanoseconds
+	 */
+	private final static long BLOCKED_PARK_NANOS = 100000L;
+
+	private LogEventQueue queue;
+
+	private OverflowPolicy policy;
+
+	private Thread consumer;
+
+	private volatile boolean running = true;
+
+	/**
+	 * True while the consumer is parked waiting for events
+	 */
+	private volatile boolean waiting = false;
+
+	private AtomicLong dropped = new AtomicLong();
+
+	private LatencyHistogram enqueueLatency = new LatencyHistogram();
+
+	/**
+	 * Formatter, only used by the consumer thread
+	 */
+	private SimpleDateFormat format = new SimpleDateFormat(Logger.TIMESTAMP_FORMAT);
+
+	private Date ts = new Date();
+
+	/**
+	 * Constructor. Starts the consumer thread
+	 * 
+	 * @param capacity most events queued
+	 * @param policy   what to do when the queue is full
+	 */
+	AsyncDispatcher(int capacity, OverflowPolicy policy){
+		this.queue = new LogEventQueue(capacity);
+		this.policy = policy;
+		consumer = new Thread(this, "Logger-async");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Queue an event for output
+	 * 
+	 * @param event event to queue
+	 * @return false if not queued because the dispatcher has stopped,
+	 *         in which case the caller should log it directly
+	 */
+	boolean enqueue(LogEvent event){
+		if(!running)
+			return false;
+		long start = System.nanoTime();
+		try{
+			while(!queue.offer(event)){
+				if(!running)
+					return false;
+				if(policy == OverflowPolicy.DROP){
+					dropped.incrementAndGet();
+					return true;
+				}
+				wakeConsumer();
+				LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+			}
+			if(waiting)
+				wakeConsumer();
+			return true;
+		}finally{
+			enqueueLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	private void wakeConsumer(){
+		LockSupport.unpark(consumer);
+	}
+
+	public void run(){
+		while(running || !queue.isEmpty()){
+			int count = 0;
+			LogEvent event;
+			while(count < BATCH_SIZE && (event = queue.poll()) != null){
+				write(event);
+				count++;
+			}
+			if(count > 0){
+				Logger.flushAppenders();
+				continue;
+			}
+			waiting = true;
+			if(running && queue.isEmpty())
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			waiting = false;
+		}
+		Logger.flushAppenders();
+	}
+
+	private void write(LogEvent event){
+		try{
+			ts.setTime(event.time);
+			String stamp = format.format(ts);
+			Logger.writeToAppenders(event.logger.format(event.level, event.message, 
+					event.throwable, stamp, event.threadName), event.throwable);
+		}catch(Throwable t){
+			System.err.println("Failed to write log event: " + t.getMessage());
+		}
+	}
+
+	/**
+	 * Stop the consumer once everything queued has been written
+	 * 
+	 * @param timeoutMillis longest to wait for the queue to drain
+	 */
+	void stop(long timeoutMillis){
+		running = false;
+		wakeConsumer();
+		if(Thread.currentThread() == consumer)
+			return;
+		try{
+			consumer.join(timeoutMillis);
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of events dropped because the queue was full
+	 */
+	long getDroppedCount(){
+		return dropped.get();
+	}
+
+	/**
+	 * @return histogram of the time taken to enqueue events
+	 */
+	LatencyHistogram getEnqueueLatency(){
+		return enqueueLatency;
+	}
+
+	/**
+	 * @return overflow policy
+	 */
+	OverflowPolicy getPolicy(){
+		return policy;
+	}
+
+	/**
+	 * @return capacity of the queue
+	 */
+	int getCapacity(){
+		return queue.capacity();
+	}
+}
@@ -1,6 +1,7 @@
 package com.ftpandroid.connx.debug;
 
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -11,6 +12,16 @@ public class FileAppender implements Appender {
 	
 	protected boolean closed = false;
 	
+	/**
+	 * Writer to the file
+	 */
+	protected PrintWriter log;
+	
+	/**
+	 * If true, flush after every message
+	 */
+	protected boolean immediateFlush = true;
+	
 	/**
 	 * Constructor
 	 * 
@@ -25,7 +36,7 @@ public class FileAppender implements Appender {
 	
 
 	protected synchronized void open() throws IOException{
-		log = new PrintWriter(new FileWriter(file, true), true);
+		log = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
 		closed = false;
 	}
 	
@@ -34,14 +45,48 @@ public class FileAppender implements Appender {
 	 * @param msg message to log
 	 */
 	public synchronized void log(String msg){
-		if(!closed)
+		if(!closed){
 			log.println(msg);
+			if(immediateFlush)
+				log.flush();
+		}
 	}
 	
 	public synchronized void log(Throwable t){
-		if(!closed)
+		if(!closed){
 			t.printStackTrace(log);
-			Log.println();
+			log.println();
+			if(immediateFlush)
+				log.flush();
+		}
+	}
+	
+	/**
+	 * Write out any buffered messages
+	 */
+	public synchronized void flush(){
+		if(!closed)
+			log.flush();
+	}
+	
+	/**
+	 * Set whether every message is flushed as it is logged. Switching
+	 * this off is worthwhile with asynchronous logging, which flushes
+	 * once per batch.
+	 * 
+	 * @param immediateFlush true to flush every message
+	 */
+	public synchronized void setImmediateFlush(boolean immediateFlush){
+		this.immediateFlush = immediateFlush;
+		if(immediateFlush)
+			flush();
+	}
+	
+	/**
+	 * @return true if every message is flushed as it is logged
+	 */
+	public synchronized boolean isImmediateFlush(){
+		return immediateFlush;
 	}
 	
 	public synchronized void close(){
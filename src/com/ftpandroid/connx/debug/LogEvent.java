@@ -0,0 +1,34 @@
+package com.ftpandroid.connx.debug;
+
+/**
+ * Unformatted log event, as queued by asynchronous logging
+ * 
+ * @author eric
+ *
+ */
+class LogEvent {
+
+	Logger logger;
+
+	Level level;
+
+	String message;
+
+	Throwable throwable;
+
+	long time;
+
+	/**
+	 * Name of the logging thread, null if thread names aren't logged
+	 */
+	String threadName;
+
+	LogEvent(Logger logger, Level level, String message, Throwable throwable, long time, String threadName){
+		this.logger = logger;
+		this.level = level;
+		this.message = message;
+		this.throwable = throwable;
+		this.time = time;
+		this.threadName = threadName;
+	}
+}
@@ -0,0 +1,104 @@
+package com.ftpandroid.connx.debug;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer.
+ * Each slot carries a sequence number: producers claim a position
+ * with a CAS on the tail and publish by advancing the slot's sequence,
+ * and the consumer only reads slots whose sequence shows they have
+ * been published.
+ * 
+ * @author eric
+ *
+ */
+class LogEventQueue {
+
+	private int mask;
+
+	private AtomicReferenceArray slots;
+
+	private AtomicLongArray sequences;
+
+	/**
+	 * Next position to be claimed by a producer
+	 */
+	private AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Next position to be read. Only the consumer writes this
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity maximum events held, rounded up to a power of two
+	 */
+	LogEventQueue(int capacity){
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+		mask = size - 1;
+		slots = new AtomicReferenceArray(size);
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)
+			sequences.set(i, i);
+	}
+
+	/**
+	 * Add an event if there is room
+	 * 
+	 * @param event event to add
+	 * @return false if the queue is full
+	 */
+	boolean offer(LogEvent event){
+		while(true){
+			long pos = tail.get();
+			int index = (int)pos & mask;
+			long diff = sequences.get(index) - pos;
+			if(diff == 0){
+				if(tail.compareAndSet(pos, pos + 1)){
+					slots.set(index, event);
+					sequences.set(index, pos + 1);
+					return true;
+				}
+			}
+			else if(diff < 0)
+				return false;
+		}
+	}
+
+	/**
+	 * Remove the oldest event. Must only be called by the consumer
+	 * 
+	 * @return event, or null if none is ready
+	 */
+	LogEvent poll(){
+		long pos = head;
+		int index = (int)pos & mask;
+		if(sequences.get(index) != pos + 1)
+			return null;
+		LogEvent event = (LogEvent)slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, pos + mask + 1);
+		head = pos + 1;
+		return event;
+	}
+
+	/**
+	 * @return true if no events are waiting
+	 */
+	boolean isEmpty(){
+		return tail.get() == head;
+	}
+
+	/**
+	 * @return capacity of the queue
+	 */
+	int capacity(){
+		return mask + 1;
+	}
+}
@@ -11,20 +11,33 @@ import java.util.Hashtable;
 import java.util.Vector;
 
 import com.ftpandroid.*;
+import com.ftpandroid.connx.LatencyHistogram;
 
 public class Logger {
 
 	private static Level globalLevel;
 	
+	/**
+	 * Integer value of globalLevel, read without locking by isEnabledFor()
+	 */
+	private static volatile int threshold;
+	
 	private static boolean logThreadNames = false;
 	
-	private SimpleDateFormat format = new SimpleDateFormat("dd MM yyyy HH:mm:ss");
+	final static String TIMESTAMP_FORMAT = "dd MM yyyy HH:mm:ss";
+	
+	/**
+	 * Default number of events queued in asynchronous mode
+	 */
+	final public static int DEFAULT_ASYNC_CAPACITY = 8192;
+	
+	private SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
 	
 	private static Hashtable loggers = new Hashtable(10);
 	
 	private static Vector appenders = new Vector(2);
 	
-	private boolean useLog4j = false;
+	private volatile boolean useLog4j = false;
 	
 	private boolean logThreadName = false;
 	
@@ -46,6 +59,11 @@ public class Logger {
 	
 	private static String prefix;
 	
+	/**
+	 * Dispatcher used in asynchronous mode, null if logging synchronously
+	 */
+	private static volatile AsyncDispatcher dispatcher = null;
+	
 	static{
 		String level = Level.OFF.toString();
 		try{
@@ -64,6 +82,7 @@ public class Logger {
 		globalLevel = Level.getLevel(level);
 		if(globalLevel == null)
 			globalLevel = Level.OFF;
+		threshold = globalLevel.getLevel();
 	}
 	
 	private Logger(String claps, boolean uselog4j){
@@ -125,6 +144,7 @@ public class Logger {
     */
    public static synchronized void setLevel(Level level) {
        globalLevel = level;
+       threshold = level.getLevel();
    }
    
    public static Logger getLogger(Class claps) {
@@ -198,10 +218,80 @@ public class Logger {
       appenders.removeAllElements();
   }
   
+  /**
+   * Switch asynchronous logging on or off. When on, logging threads
+   * only queue events, and a background thread formats and writes
+   * them to the appenders, flushing once per batch. File appenders
+   * should then have immediate flush switched off. Uses the default 
+   * capacity and blocks when the queue is full.
+   * 
+   * @param async  true to log asynchronously
+   */
+  public static synchronized void setAsync(boolean async) {
+      if (async)
+          setAsync(DEFAULT_ASYNC_CAPACITY, OverflowPolicy.BLOCK);
+      else
+          stopAsync();
+  }
+  
+  /**
+   * Switch asynchronous logging on, replacing any current setup
+   * once its queued events have been written
+   * 
+   * @param capacity  most events queued, rounded up to a power of two
+   * @param policy    drop or block when the queue is full
+   */
+  public static synchronized void setAsync(int capacity, OverflowPolicy policy) {
+      stopAsync();
+      dispatcher = new AsyncDispatcher(capacity, policy);
+  }
+  
+  /**
+   * Is asynchronous logging on?
+   * 
+   * @return true if on
+   */
+  public static boolean isAsync() {
+      return dispatcher != null;
+  }
+  
+  /**
+   * Get the number of events dropped because the asynchronous
+   * queue was full
+   * 
+   * @return dropped count, 0 if not asynchronous
+   */
+  public static long getAsyncDroppedCount() {
+      AsyncDispatcher async = dispatcher;
+      return async != null ? async.getDroppedCount() : 0;
+  }
+  
+  /**
+   * Get the time taken by logging threads to queue events,
+   * including any time blocked on a full queue
+   * 
+   * @return histogram in nanoseconds, or null if not asynchronous
+   */
+  public static LatencyHistogram getAsyncEnqueueLatency() {
+      AsyncDispatcher async = dispatcher;
+      return async != null ? async.getEnqueueLatency() : null;
+  }
+  
+  /**
+   * Write out queued events and stop the background thread
+   */
+  private static void stopAsync() {
+      AsyncDispatcher async = dispatcher;
+      dispatcher = null;
+      if (async != null)
+          async.stop(5000);
+  }
+  
   /**
    * Close all appenders
    */
   public static synchronized void shutdown() {
+      stopAsync();
       for (int i = 0; i < appenders.size(); i++) {
           Appender a = (Appender)appenders.elementAt(i);
           a.close();
@@ -234,13 +324,21 @@ public class Logger {
    * @param message   message to log
    * @param t         throwable object
    */
-  public synchronized void log(Level level, String message, Throwable t) {
+  public void log(Level level, String message, Throwable t) {
   	if (isEnabledFor(level))
   	{
+  	    AsyncDispatcher async = dispatcher;
+  	    if (async != null && !useLog4j) {
+  	        String threadName = (logThreadNames || logThreadName) ? Thread.currentThread().getName() : null;
+  	        if (async.enqueue(new LogEvent(this, level, message, t, System.currentTimeMillis(), threadName)))
+  	            return;
+  	    }
+  	    synchronized (this) {
 	        if (useLog4j)
 	            log4jLog(level, message, t);
 	        else
 	            ourLog(level, message, t);
+  	    }
   	}
   }
   
@@ -324,10 +422,25 @@ public class Logger {
   private void ourLog(Level level, String message, Throwable t) {
       ts.setTime(System.currentTimeMillis());
       String stamp = format.format(ts);
+      String threadName = (logThreadNames || logThreadName) ? Thread.currentThread().getName() : null;
+      writeToAppenders(format(level, message, t, stamp, threadName), t);
+  }
+  
+  /**
+   * Format a log message
+   * 
+   * @param level       log level
+   * @param message     message to log
+   * @param t           throwable object
+   * @param stamp       formatted timestamp
+   * @param threadName  name of logging thread, or null to omit
+   * @return formatted message
+   */
+  String format(Level level, String message, Throwable t, String stamp, String threadName) {
       StringBuffer buf = new StringBuffer(level.toString());
       buf.append(" [");
-      if (logThreadNames || logThreadName)
-          buf.append(Thread.currentThread().getName()).append("_");
+      if (threadName != null)
+          buf.append(threadName).append("_");
       buf.append(claps).append("] ").append(stamp).
       append(" : ").append(message);
       if (t != null) {
@@ -339,8 +452,19 @@ public class Logger {
           pw.println();
           buf.append(sw.toString());
       }
+      return buf.toString();
+  }
+  
+  /**
+   * Write a formatted message to the appenders, or to stdout
+   * if there are none
+   * 
+   * @param text   formatted message
+   * @param t      throwable object
+   */
+  static void writeToAppenders(String text, Throwable t) {
       if (appenders.size() == 0) { // by default to stdout
-          System.out.println(buf.toString());
+          System.out.println(text);
           while (t != null) {
               t.printStackTrace(System.out);
               if (t instanceof BaseIOException) {
@@ -355,20 +479,32 @@ public class Logger {
       else {
           for (int i = 0; i < appenders.size(); i++) {
               Appender a = (Appender)appenders.elementAt(i);
-              a.log(buf.toString());
-              while (t != null) {
-                  a.log(t);
-                  if (t instanceof BaseIOException) {
-                  	t = ((BaseIOException)t).getInnerThrowable();
-                  	if (t!=null)
+              a.log(text);
+              Throwable cause = t;
+              while (cause != null) {
+                  a.log(cause);
+                  if (cause instanceof BaseIOException) {
+                  	cause = ((BaseIOException)cause).getInnerThrowable();
+                  	if (cause!=null)
                   		a.log("CAUSED BY:");
                   }
                   else
-                  	t = null;
+                  	cause = null;
               }
           }
       }
   }
+  
+  /**
+   * Flush any appenders that buffer their output
+   */
+  static void flushAppenders() {
+      for (int i = 0; i < appenders.size(); i++) {
+          Object a = appenders.elementAt(i);
+          if (a instanceof FileAppender)
+              ((FileAppender)a).flush();
+      }
+  }
       
   /**
    * Log an info level message
@@ -574,6 +710,115 @@ public class Logger {
   		log(Level.DEBUG, MessageFormat.format(message, new Object[]{arg0, arg1, arg2, arg3, arg4}), null);
   }
 
+  /**
+   * Logs by substituting in the arguments at the locations marked in the message
+   * argument by {#}, for any number of arguments. The message is only formatted
+   * if debug is enabled.
+   * @param message Message containing "substitution marks"
+   * @param args arguments to be substituted at the marked locations.
+   */
+  public void debug(String message, Object[] args)
+  {
+  	if (isDebugEnabled())
+  		log(Level.DEBUG, MessageFormat.format(message, args), null);
+  }
+  
+  /**
+   * Log an info level message, substituting the argument at {0}. 
+   * Only formatted if info is enabled.
+   * @param message Message containing "substitution marks"
+   * @param arg argument to be substituted at the marked location.
+   */
+  public void info(String message, Object arg)
+  {
+  	if (isInfoEnabled())
+  		log(Level.INFO, MessageFormat.format(message, new Object[]{arg}), null);
+  }
+  
+  /**
+   * Log an info level message, substituting the arguments at {0} and {1}.
+   * @param message Message containing "substitution marks"
+   * @param arg0 argument to be substituted at the marked location.
+   * @param arg1 argument to be substituted at the marked location.
+   */
+  public void info(String message, Object arg0, Object arg1)
+  {
+  	if (isInfoEnabled())
+  		log(Level.INFO, MessageFormat.format(message, new Object[]{arg0, arg1}), null);
+  }
+  
+  /**
+   * Log an info level message, substituting the arguments at {0}, {1} and {2}.
+   * @param message Message containing "substitution marks"
+   * @param arg0 argument to be substituted at the marked location.
+   * @param arg1 argument to be substituted at the marked location.
+   * @param arg2 argument to be substituted at the marked location.
+   */
+  public void info(String message, Object arg0, Object arg1, Object arg2)
+  {
+  	if (isInfoEnabled())
+  		log(Level.INFO, MessageFormat.format(message, new Object[]{arg0, arg1, arg2}), null);
+  }
+  
+  /**
+   * Log an info level message, substituting any number of arguments.
+   * @param message Message containing "substitution marks"
+   * @param args arguments to be substituted at the marked locations.
+   */
+  public void info(String message, Object[] args)
+  {
+  	if (isInfoEnabled())
+  		log(Level.INFO, MessageFormat.format(message, args), null);
+  }
+  
+  /**
+   * Log a warning level message, substituting the argument at {0}.
+   * Only formatted if warnings are enabled.
+   * @param message Message containing "substitution marks"
+   * @param arg argument to be substituted at the marked location.
+   */
+  public void warn(String message, Object arg)
+  {
+  	if (isWarnEnabled())
+  		log(Level.WARN, MessageFormat.format(message, new Object[]{arg}), null);
+  }
+  
+  /**
+   * Log a warning level message, substituting the arguments at {0} and {1}.
+   * @param message Message containing "substitution marks"
+   * @param arg0 argument to be substituted at the marked location.
+   * @param arg1 argument to be substituted at the marked location.
+   */
+  public void warn(String message, Object arg0, Object arg1)
+  {
+  	if (isWarnEnabled())
+  		log(Level.WARN, MessageFormat.format(message, new Object[]{arg0, arg1}), null);
+  }
+  
+  /**
+   * Log a warning level message, substituting the arguments at {0}, {1} and {2}.
+   * @param message Message containing "substitution marks"
+   * @param arg0 argument to be substituted at the marked location.
+   * @param arg1 argument to be substituted at the marked location.
+   * @param arg2 argument to be substituted at the marked location.
+   */
+  public void warn(String message, Object arg0, Object arg1, Object arg2)
+  {
+  	if (isWarnEnabled())
+  		log(Level.WARN, MessageFormat.format(message, new Object[]{arg0, arg1, arg2}), null);
+  }
+  
+  /**
+   * Log a warning level message, substituting any number of arguments.
+   * @param message Message containing "substitution marks"
+   * @param args arguments to be substituted at the marked locations.
+   */
+  public void warn(String message, Object[] args)
+  {
+  	if (isWarnEnabled())
+  		log(Level.WARN, MessageFormat.format(message, args), null);
+  }
+
   /**
    * Log a debug level message
    * 
@@ -590,12 +835,14 @@ public class Logger {
    * @param level   level to test for
    * @return true   if enabled
    */
-  public synchronized boolean isEnabledFor(Level level) {
+  public boolean isEnabledFor(Level level) {
   	if (useLog4j) {
-  		return log4jIsEnabledFor(level);
+  	    synchronized (this) {
+  	        return log4jIsEnabledFor(level);
+  	    }
       }
   	else 
-  		return globalLevel.isGreaterOrEqual(level);
+  		return threshold >= level.getLevel();
   }
   
   /**
@@ -615,4 +862,13 @@ public class Logger {
   public boolean isInfoEnabled()  {
       return isEnabledFor(Level.INFO);
   }
+  
+  /**
+   * Is logging enabled for the supplied level?
+   * 
+   * @return true if enabled
+   */
+  public boolean isWarnEnabled()  {
+      return isEnabledFor(Level.WARN);
+  }
 }
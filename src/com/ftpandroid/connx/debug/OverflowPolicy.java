@@ -0,0 +1,30 @@
+package com.ftpandroid.connx.debug;
+
+/**
+ * What asynchronous logging does when its queue is full
+ * 
+ * @author eric
+ *
+ */
+public class OverflowPolicy {
+
+	/**
+	 * Discard the event and count it as dropped
+	 */
+	final public static OverflowPolicy DROP = new OverflowPolicy("DROP");
+
+	/**
+	 * Wait until the consumer makes room
+	 */
+	final public static OverflowPolicy BLOCK = new OverflowPolicy("BLOCK");
+
+	private String policy;
+
+	private OverflowPolicy(String policy){
+		this.policy = policy;
+	}
+
+	public String toString(){
+		return policy;
+	}
+}
@@ -0,0 +1,102 @@
+package com.ftpandroid.connx.debug;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import com.ftpandroid.connx.ConcurrentRing;
+
+/**
+ * Appender that keeps only the most recent log lines in memory, so
+ * that unlike {@link MemoryAppender} its footprint is fixed however
+ * long the process runs. Logging does not lock; the text is only
+ * assembled when asked for.
+ *
+ * @author eric
+ *
+ */
+public class RingMemoryAppender implements Appender {
+
+	/**
+	 * Default number of lines kept
+	 */
+	public final static int DEFAULT_CAPACITY = 2048;
+
+	private static String LINE_SEP = System.getProperty("line.separator");
+
+	private ConcurrentRing lines;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity most lines kept
+	 */
+	public RingMemoryAppender(int capacity){
+		lines = new ConcurrentRing(capacity);
+	}
+
+	public RingMemoryAppender(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public void close(){
+		closed = true;
+	}
+
+	public void log(String msg){
+		if(!closed)
+			lines.add(msg);
+	}
+
+	public void log(Throwable t){
+		if(!closed){
+			StringWriter sw = new StringWriter();
+			t.printStackTrace(new PrintWriter(sw));
+			lines.add(sw.toString());
+		}
+	}
+
+	/**
+	 * Get the lines currently held, oldest first
+	 *
+	 * @return array of lines
+	 */
+	public String[] getLines(){
+		Object[] snapshot = lines.snapshot();
+		String[] result = new String[snapshot.length];
+		System.arraycopy(snapshot, 0, result, 0, snapshot.length);
+		return result;
+	}
+
+	/**
+	 * Number of lines that have been overwritten
+	 *
+	 * @return count of lines lost
+	 */
+	public long getOverwrittenCount(){
+		return Math.max(0, lines.getAddedCount() - lines.getCapacity());
+	}
+
+	/**
+	 * Remove all lines
+	 */
+	public void clear(){
+		lines.clear();
+	}
+
+	public void print(PrintStream stream){
+		Object[] snapshot = lines.snapshot();
+		for(int i = 0; i < snapshot.length; i++)
+			stream.println(snapshot[i]);
+	}
+
+	public String toString(){
+		Object[] snapshot = lines.snapshot();
+		StringBuffer buf = new StringBuffer();
+		for(int i = 0; i < snapshot.length; i++)
+			buf.append(snapshot[i]).append(LINE_SEP);
+		return buf.toString();
+	}
+}
@@ -40,7 +40,8 @@ public class RollingFileAppender extends FileAppender {
 		if(!closed){
 			checkForRollover();
 			log.println(msg);
-			log.flush();
+			if(immediateFlush)
+				log.flush();
 			thresholdBytesWritten += msg.length();
 		}
 	}
@@ -53,7 +54,8 @@ public class RollingFileAppender extends FileAppender {
 			if(!closed){
 				checkForRollover();
 				log.println(msg);
-				log.flush();
+				if(immediateFlush)
+					log.flush();
 				thresholdBytesWritten += msg.length();
 			}
 		}
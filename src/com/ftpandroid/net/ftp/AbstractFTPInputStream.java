@@ -19,6 +19,11 @@ abstract public class AbstractFTPInputStream extends FileTransferInputStream {
      * The input stream from the FTP server
      */
     protected BufferedInputStream in;
+    
+    /**
+     * True while counted as an active transfer
+     */
+    private boolean active = false;
 
         
     /**
@@ -47,6 +52,7 @@ abstract public class AbstractFTPInputStream extends FileTransferInputStream {
      * @throws IOException
      */
     protected void start(boolean firstTime) throws IOException {
+        transferStarted();
         try {
             if (pos > 0)
                 client.resumeNextDownload(pos);
@@ -60,9 +66,11 @@ abstract public class AbstractFTPInputStream extends FileTransferInputStream {
 
         } 
         catch (FTPException ex) {
+            transferEnded();
             throw new IOException(ex.getMessage());
         }
         catch (IOException ex) {
+            transferEnded();
             try {
                 client.validateTransferOnError(ex);
             }
@@ -92,23 +100,29 @@ abstract public class AbstractFTPInputStream extends FileTransferInputStream {
         if (!closed) {
             closed = true;
             
-            client.forceResumeOff();
-    
-            // close streams
-            client.closeDataSocket(in);
-            
-            if (monitor != null)
-                monitor.bytesTransferred(pos);  
-    
-            // log bytes transferred
-            log.debug("Transferred " + pos + " bytes from remote host");
-            
-            // read the reply - may be a 426 as we could have closed early
             try {
-                client.readReply();
+                client.forceResumeOff();
+        
+                // close streams
+                client.closeDataSocket(in);
+                
+                if (monitor != null)
+                    monitor.bytesTransferred(pos);  
+        
+                // log bytes transferred
+                if (log.isDebugEnabled())
+                    log.debug("Transferred " + pos + " bytes from remote host");
+                
+                // read the reply - may be a 426 as we could have closed early
+                try {
+                    client.readReply();
+                }
+                catch (FTPException ex) {
+                    throw new IOException(ex.getMessage());
+                }
             }
-            catch (FTPException ex) {
-                throw new IOException(ex.getMessage());
+            finally {
+                transferEnded();
             }
             
             // don't know if it is truly complete for whole file but our transfer is
@@ -117,4 +131,22 @@ abstract public class AbstractFTPInputStream extends FileTransferInputStream {
         }
     }
     
+    /**
+     * Count the stream as an active transfer until it is closed, so 
+     * that the control channel is left alone, e.g. by keep-alives
+     */
+    private void transferStarted() {
+        if (!active) {
+            active = true;
+            client.getTransferStatistics().transferStarted();
+        }
+    }
+    
+    private void transferEnded() {
+        if (active) {
+            active = false;
+            client.getTransferStatistics().transferEnded();
+        }
+    }
+    
 }
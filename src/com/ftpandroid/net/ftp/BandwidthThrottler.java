@@ -7,7 +7,7 @@ public class BandwidthThrottler {
     private static Logger log = Logger.getLogger("BandwidthThrottler");
     private long lastTime = 0;
     private long lastBytes = 0;
-    private int thresholdBytesPerSec = -1;
+    private volatile int thresholdBytesPerSec = -1;
     
     public BandwidthThrottler(int thresholdBytesPerSec) {
         this.thresholdBytesPerSec = thresholdBytesPerSec;
@@ -29,12 +29,13 @@ public class BandwidthThrottler {
             return;
         
         double rate = ((double)diffBytes/(double)diffTime)*1000.0;
-        if (log.isDebugEnabled())
+        boolean debug = log.isDebugEnabled();
+        if (debug)
             log.debug("rate= " + rate);
         
-        while (rate > thresholdBytesPerSec) {
+        while (thresholdBytesPerSec > 0 && rate > thresholdBytesPerSec) {
             try {
-                if (log.isDebugEnabled())
+                if (debug)
                     log.debug("Sleeping to decrease transfer rate (rate = " + rate + " bytes/s");
                 Thread.sleep(100);
             }
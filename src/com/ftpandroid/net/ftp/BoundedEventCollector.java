@@ -0,0 +1,121 @@
+package com.ftpandroid.net.ftp;
+
+import com.ftpandroid.connx.ConcurrentRing;
+
+/**
+ *  An {@link EventCollector} that keeps only the most recent events,
+ *  in structured form, so its memory use is fixed however long the
+ *  client runs. Recording an event doesn't lock, and the text log is
+ *  only built when {@link #getLog()} is called.
+ *
+ *  @author      Eric
+ */
+public class BoundedEventCollector extends EventCollector {
+    
+    /**
+     * Default number of events kept
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    /**
+     * Recent events
+     */
+    private ConcurrentRing events;
+    
+    /**
+     * Constructor, keeping the default number of events
+     */
+    public BoundedEventCollector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param capacity  most events kept, rounded up to a power of two
+     */
+    public BoundedEventCollector(int capacity) {
+        events = new ConcurrentRing(capacity);
+    }
+    
+    /**
+     * Get the events currently held, oldest first
+     * 
+     * @return array of events
+     */
+    public FTPEvent[] getEvents() {
+        Object[] snapshot = events.snapshot();
+        FTPEvent[] result = new FTPEvent[snapshot.length];
+        System.arraycopy(snapshot, 0, result, 0, snapshot.length);
+        return result;
+    }
+    
+    /**
+     * Get the number of events that have been overwritten
+     * 
+     * @return count of events lost
+     */
+    public long getOverwrittenCount() {
+        return Math.max(0, events.getAddedCount() - events.getCapacity());
+    }
+
+    /**
+     * Get the log of messages
+     * 
+     * @return  message log as a string
+     */
+    public String getLog() {
+        Object[] snapshot = events.snapshot();
+        boolean includeConnId = isLogConnectionIdentifiers();
+        StringBuffer buf = new StringBuffer(snapshot.length * 40);
+        for (int i = 0; i < snapshot.length; i++)
+            ((FTPEvent)snapshot[i]).appendTo(buf, includeConnId);
+        return buf.toString();
+    }
+    
+    /**
+     * Clear the log of all messages
+     */
+    public void clearLog() {
+        events.clear();
+    }
+
+    public void commandSent(String connId, String cmd) {
+        if (isLogCommands())
+            events.add(new FTPEvent(FTPEventType.COMMAND, connId, cmd, 0));
+    }
+
+    public void replyReceived(String connId, String reply) {
+        if (isLogCommands())
+            events.add(new FTPEvent(FTPEventType.REPLY, connId, reply, 0));
+    }
+
+    public void downloadStarted(String connId, String remoteFilename) {
+        if (isLogTransferStartComplete())
+            events.add(new FTPEvent(FTPEventType.DOWNLOAD_STARTED, connId, remoteFilename, 0));
+    }
+
+    public void downloadCompleted(String connId, String remoteFilename) {
+        if (isLogTransferStartComplete())
+            events.add(new FTPEvent(FTPEventType.DOWNLOAD_COMPLETED, connId, remoteFilename, 0));
+    }
+
+    public void uploadStarted(String connId, String remoteFilename) {
+        if (isLogTransferStartComplete())
+            events.add(new FTPEvent(FTPEventType.UPLOAD_STARTED, connId, remoteFilename, 0));
+    }
+
+    public void uploadCompleted(String connId, String remoteFilename) {
+        if (isLogTransferStartComplete())
+            events.add(new FTPEvent(FTPEventType.UPLOAD_COMPLETED, connId, remoteFilename, 0));
+    }
+
+    public void bytesTransferred(String connId, String remoteFilename, long count) {
+        if (isLogTransferProgress())
+            events.add(new FTPEvent(FTPEventType.PROGRESS, connId, remoteFilename, count));
+    }
+    
+    public String toString() {
+        return getLog();
+    }
+}
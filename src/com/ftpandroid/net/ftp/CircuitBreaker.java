@@ -0,0 +1,111 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Tracks consecutive failures against a host. Once the threshold is
+ *  reached the breaker opens and attempts fail fast. After the open
+ *  timeout it is half-open and lets a single probe through; the probe
+ *  succeeding closes the breaker, and failing opens it again.
+ *
+ *  @author      Eric
+ */
+public class CircuitBreaker {
+    
+    /**
+     * Attempts are allowed
+     */
+    public static final int CLOSED = 0;
+    
+    /**
+     * Attempts fail fast
+     */
+    public static final int OPEN = 1;
+    
+    /**
+     * A single probe is allowed
+     */
+    public static final int HALF_OPEN = 2;
+    
+    private int failureThreshold;
+    
+    private long openTimeout;
+    
+    private int state = CLOSED;
+    
+    private int consecutiveFailures = 0;
+    
+    /**
+     * Time the breaker last opened, or the last probe was let through
+     */
+    private long since;
+    
+    /**
+     * Constructor
+     * 
+     * @param failureThreshold   consecutive failures that open the breaker
+     * @param openTimeout        milliseconds to stay open before probing
+     */
+    public CircuitBreaker(int failureThreshold, long openTimeout) {
+        this.failureThreshold = failureThreshold;
+        this.openTimeout = openTimeout;
+    }
+    
+    /**
+     * Should an attempt go ahead? In the half-open state the first
+     * caller is let through as the probe. If the probe's outcome is 
+     * never recorded another is let through after the open timeout.
+     * 
+     * @return true if allowed
+     */
+    public synchronized boolean allowRequest() {
+        if (state == CLOSED)
+            return true;
+        long now = System.currentTimeMillis();
+        if (now - since < openTimeout)
+            return false;
+        state = HALF_OPEN;
+        since = now;
+        return true;
+    }
+    
+    /**
+     * Record a successful attempt, closing the breaker
+     */
+    public synchronized void recordSuccess() {
+        state = CLOSED;
+        consecutiveFailures = 0;
+    }
+    
+    /**
+     * Record a failed attempt
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = OPEN;
+            since = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Get the state of the breaker
+     * 
+     * @return CLOSED, OPEN or HALF_OPEN
+     */
+    public synchronized int getState() {
+        return state;
+    }
+    
+    /**
+     * Get the number of consecutive failures recorded
+     * 
+     * @return failures
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+    
+    public String toString() {
+        int current = getState();
+        return current == CLOSED ? "Closed" : (current == OPEN ? "Open" : "HalfOpen");
+    }
+}
@@ -0,0 +1,464 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ *  Memory-efficient store for very large directory listings. Entries
+ *  are held column by column - timestamps and sizes in primitive arrays,
+ *  owner, group, permissions and path as indexes into a dictionary of
+ *  distinct values, and the directory and link flags as bitsets - rather
+ *  than as an FTPFile and two Dates each. The raw listing lines can
+ *  optionally be dropped.
+ *  <p>
+ *  A listing is filled by passing it as the callback to
+ *  {@link FTPClient#dirDetails(String, DirectoryListCallback)}, so that
+ *  the FTPFile for each line can be discarded straight away, or from an
+ *  existing array. Entries are read back through lightweight read-only
+ *  FTPFile views.
+ *
+ *  @author      Eric
+ */
+public class CompactListing implements DirectoryListCallback {
+
+    /**
+     * Stored in place of a null timestamp
+     */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Keep the raw lines?
+     */
+    private boolean keepRaw;
+
+    private int count = 0;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    private long[] sizes = new long[INITIAL_CAPACITY];
+
+    private long[] modifiedTimes = new long[INITIAL_CAPACITY];
+
+    private long[] createdTimes = new long[INITIAL_CAPACITY];
+
+    private int[] linkCounts = new int[INITIAL_CAPACITY];
+
+    private int[] ownerIds = new int[INITIAL_CAPACITY];
+
+    private int[] groupIds = new int[INITIAL_CAPACITY];
+
+    private int[] permissionIds = new int[INITIAL_CAPACITY];
+
+    private int[] pathIds = new int[INITIAL_CAPACITY];
+
+    /**
+     * Raw lines, null if not kept
+     */
+    private String[] raws;
+
+    private BitSet dirs = new BitSet();
+
+    private BitSet links = new BitSet();
+
+    /**
+     * Linked names keyed by entry index, as few entries have one
+     */
+    private Hashtable linkedNames = new Hashtable();
+
+    /**
+     * Distinct owners, groups, permissions and paths. A listing
+     * typically has only a handful of each, whatever its size.
+     */
+    private Dictionary dictionary = new Dictionary();
+
+    /**
+     * Constructor
+     *
+     * @param keepRaw   true to keep the raw listing lines
+     */
+    public CompactListing(boolean keepRaw) {
+        this.keepRaw = keepRaw;
+        if (keepRaw)
+            raws = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Constructor that drops the raw listing lines
+     */
+    public CompactListing() {
+        this(false);
+    }
+
+    /**
+     * Build a compact listing from parsed entries
+     *
+     * @param files     entries
+     * @param keepRaw   true to keep the raw listing lines
+     * @return listing
+     */
+    public static CompactListing fromFiles(FTPFile[] files, boolean keepRaw) {
+        CompactListing listing = new CompactListing(keepRaw);
+        for (int i = 0; i < files.length; i++)
+            listing.add(files[i]);
+        listing.trimToSize();
+        return listing;
+    }
+
+    /**
+     * Add entries as they are listed
+     */
+    public void listDirectoryEntry(DirectoryListArgument arg) {
+        add(arg.getEntry());
+    }
+
+    /**
+     * Add an entry
+     *
+     * @param file  entry to add
+     */
+    public synchronized void add(FTPFile file) {
+        if (count == names.length)
+            resize(count * 2);
+        int i = count++;
+        names[i] = file.getName();
+        sizes[i] = file.size();
+        modifiedTimes[i] = toMillis(file.lastModified());
+        createdTimes[i] = toMillis(file.created());
+        linkCounts[i] = file.getLinkCount();
+        ownerIds[i] = dictionary.indexOf(file.getOwner());
+        groupIds[i] = dictionary.indexOf(file.getGroup());
+        permissionIds[i] = dictionary.indexOf(file.getPermissions());
+        pathIds[i] = dictionary.indexOf(file.getPath());
+        if (keepRaw)
+            raws[i] = file.getRaw();
+        if (file.isDir())
+            dirs.set(i);
+        if (file.isLink())
+            links.set(i);
+        if (file.getLinkedName() != null)
+            linkedNames.put(new Integer(i), file.getLinkedName());
+    }
+
+    /**
+     * Release unused capacity once the listing is complete
+     */
+    public synchronized void trimToSize() {
+        if (count < names.length)
+            resize(count);
+    }
+
+    private void resize(int capacity) {
+        names = (String[])copy(names, new String[capacity]);
+        sizes = (long[])copy(sizes, new long[capacity]);
+        modifiedTimes = (long[])copy(modifiedTimes, new long[capacity]);
+        createdTimes = (long[])copy(createdTimes, new long[capacity]);
+        linkCounts = (int[])copy(linkCounts, new int[capacity]);
+        ownerIds = (int[])copy(ownerIds, new int[capacity]);
+        groupIds = (int[])copy(groupIds, new int[capacity]);
+        permissionIds = (int[])copy(permissionIds, new int[capacity]);
+        pathIds = (int[])copy(pathIds, new int[capacity]);
+        if (keepRaw)
+            raws = (String[])copy(raws, new String[capacity]);
+    }
+
+    private Object copy(Object from, Object to) {
+        System.arraycopy(from, 0, to, 0, count);
+        return to;
+    }
+
+    private static long toMillis(Date date) {
+        return date != null ? date.getTime() : NO_TIME;
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Are the raw listing lines kept?
+     *
+     * @return true if kept
+     */
+    public boolean isRawKept() {
+        return keepRaw;
+    }
+
+    /**
+     * Get a read-only view of an entry. The view holds no copy of the
+     * entry's data.
+     *
+     * @param index  index of entry
+     * @return view
+     */
+    public FTPFile get(int index) {
+        if (index < 0 || index >= getCount())
+            throw new IndexOutOfBoundsException("Index: " + index + ", count: " + getCount());
+        return new Entry(index);
+    }
+
+    /**
+     * Get the name of an entry without creating a view
+     *
+     * @param index  index of entry
+     * @return name
+     */
+    public synchronized String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Get the size of an entry without creating a view
+     *
+     * @param index  index of entry
+     * @return size
+     */
+    public synchronized long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * Get the last modified time of an entry without creating a view
+     *
+     * @param index  index of entry
+     * @return time in ms since the epoch, or -1 if not known
+     */
+    public synchronized long getLastModified(int index) {
+        return modifiedTimes[index] == NO_TIME ? -1 : modifiedTimes[index];
+    }
+
+    /**
+     * Is an entry a directory?
+     *
+     * @param index  index of entry
+     * @return true if a directory
+     */
+    public synchronized boolean isDir(int index) {
+        return dirs.get(index);
+    }
+
+    /**
+     * Get full, independent copies of all the entries
+     *
+     * @return array of entries
+     */
+    public synchronized FTPFile[] toArray() {
+        FTPFile[] files = new FTPFile[count];
+        for (int i = 0; i < count; i++) {
+            FTPFile file = new FTPFile(keepRaw ? raws[i] : null);
+            file.setName(names[i]);
+            file.setSize(sizes[i]);
+            file.setLastModified(toDate(modifiedTimes[i]));
+            file.setCreated(toDate(createdTimes[i]));
+            file.setLinkCount(linkCounts[i]);
+            file.setOwner(dictionary.get(ownerIds[i]));
+            file.setGroup(dictionary.get(groupIds[i]));
+            file.setPermissions(dictionary.get(permissionIds[i]));
+            file.setPath(dictionary.get(pathIds[i]));
+            file.setDir(dirs.get(i));
+            file.setLink(links.get(i));
+            file.setLinkedName((String)linkedNames.get(new Integer(i)));
+            files[i] = file;
+        }
+        return files;
+    }
+
+    private static Date toDate(long millis) {
+        return millis == NO_TIME ? null : new Date(millis);
+    }
+
+    /**
+     * Distinct string values, each stored once
+     */
+    private static class Dictionary {
+
+        private Hashtable indexes = new Hashtable();
+
+        private Vector values = new Vector();
+
+        /**
+         * Get the index of a value, adding it if new
+         *
+         * @return index, or -1 for null
+         */
+        int indexOf(String value) {
+            if (value == null)
+                return -1;
+            Integer index = (Integer)indexes.get(value);
+            if (index == null) {
+                index = new Integer(values.size());
+                indexes.put(value, index);
+                values.addElement(value);
+            }
+            return index.intValue();
+        }
+
+        String get(int index) {
+            return index < 0 ? null : (String)values.elementAt(index);
+        }
+    }
+
+    /**
+     * Read-only view of an entry
+     */
+    private class Entry extends FTPFile {
+
+        private int index;
+
+        Entry(int index) {
+            super(null);
+            this.index = index;
+        }
+
+        public String getName() {
+            synchronized (CompactListing.this) {
+                return names[index];
+            }
+        }
+
+        public long size() {
+            synchronized (CompactListing.this) {
+                return sizes[index];
+            }
+        }
+
+        public Date lastModified() {
+            synchronized (CompactListing.this) {
+                return toDate(modifiedTimes[index]);
+            }
+        }
+
+        public Date created() {
+            synchronized (CompactListing.this) {
+                return toDate(createdTimes[index]);
+            }
+        }
+
+        public boolean isDir() {
+            synchronized (CompactListing.this) {
+                return dirs.get(index);
+            }
+        }
+
+        public boolean isLink() {
+            synchronized (CompactListing.this) {
+                return links.get(index);
+            }
+        }
+
+        public int getLinkCount() {
+            synchronized (CompactListing.this) {
+                return linkCounts[index];
+            }
+        }
+
+        public String getOwner() {
+            synchronized (CompactListing.this) {
+                return dictionary.get(ownerIds[index]);
+            }
+        }
+
+        public String getGroup() {
+            synchronized (CompactListing.this) {
+                return dictionary.get(groupIds[index]);
+            }
+        }
+
+        public String getPermissions() {
+            synchronized (CompactListing.this) {
+                return dictionary.get(permissionIds[index]);
+            }
+        }
+
+        public String getPath() {
+            synchronized (CompactListing.this) {
+                return dictionary.get(pathIds[index]);
+            }
+        }
+
+        public String getRaw() {
+            synchronized (CompactListing.this) {
+                return keepRaw ? raws[index] : null;
+            }
+        }
+
+        public String getLinkedName() {
+            return (String)linkedNames.get(new Integer(index));
+        }
+
+        public String getLinkedname() {
+            return getLinkedName();
+        }
+
+        public void setLastModified(Date date) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setCreated(Date date) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setName(String name) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setSize(long size) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setGroup(String group) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setDir(boolean isDir) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setLink(boolean isLink) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setLinkedName(String linkedname) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setOwner(String owner) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setPermissions(String permissions) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setLinkCount(int linkCount) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public void setPath(String path) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        public String toString() {
+            StringBuffer buf = new StringBuffer();
+            buf.append("Name=").append(getName()).append(",").
+                append("Size=").append(size()).append(",").
+                append("Permissions=").append(getPermissions()).append(",").
+                append("Owner=").append(getOwner()).append(",").
+                append("Group=").append(getGroup()).append(",").
+                append("Is link=").append(isLink()).append(",").
+                append("Link count=").append(getLinkCount()).append(".").
+                append("Is dir=").append(isDir()).append(",").
+                append("Linked name=").append(getLinkedName()).append(",").
+                append("Last modified=").append(lastModified());
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Hashtable;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Finds what has changed in directories that are listed repeatedly.
+ *  A {@link DirectorySnapshot} is kept per directory, and each new
+ *  listing is compared with it as it streams in, so only the entries
+ *  that were created, modified or deleted are passed to the listener
+ *  and no array of the whole listing is built.
+ *  <p>
+ *  The first poll of a directory records its contents without
+ *  reporting them, unless {@link #setReportInitial(boolean)} is set.
+ *  If a listing fails part way through, creations and modifications
+ *  already reported stand but no deletions are reported for that poll.
+ *
+ *  @author      Eric
+ */
+public class DirectoryChangeDetector {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("DirectoryChangeDetector");
+
+    /**
+     * Snapshots keyed by directory
+     */
+    private Hashtable snapshots = new Hashtable();
+
+    /**
+     * Report the entries found by the first poll as created?
+     */
+    private boolean reportInitial = false;
+
+    /**
+     * Set whether the entries found by the first poll of a directory
+     * are reported as created
+     *
+     * @param reportInitial   true to report them
+     */
+    public void setReportInitial(boolean reportInitial) {
+        this.reportInitial = reportInitial;
+    }
+
+    /**
+     * Are the entries found by the first poll reported?
+     *
+     * @return true if reported
+     */
+    public boolean isReportInitial() {
+        return reportInitial;
+    }
+
+    /**
+     * List a directory and report the changes since it was last polled.
+     * The client must not be used by another thread meanwhile.
+     *
+     * @param client     connected client
+     * @param directory  directory to list
+     * @param listener   told of each change
+     * @return  number of changes found
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public int poll(FTPClient client, String directory, DirectoryChangeListener listener)
+        throws IOException, FTPException, ParseException {
+
+        DirectorySnapshot snapshot;
+        boolean initial = false;
+        synchronized (snapshots) {
+            snapshot = (DirectorySnapshot)snapshots.get(directory);
+            if (snapshot == null) {
+                snapshot = new DirectorySnapshot();
+                initial = true;
+            }
+        }
+        Comparer comparer = new Comparer(directory, snapshot,
+                initial && !reportInitial ? null : listener);
+        synchronized (snapshot) {
+            boolean complete = false;
+            try {
+                client.dirDetails(directory, comparer);
+                complete = true;
+            }
+            finally {
+                if (!complete)
+                    snapshot.clearSeen();
+            }
+            String[] deleted = snapshot.removeUnseen();
+            for (int i = 0; i < deleted.length; i++)
+                listener.entryDeleted(directory, deleted[i]);
+            comparer.changes += deleted.length;
+        }
+        if (initial) {
+            synchronized (snapshots) {
+                snapshots.put(directory, snapshot);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Polled " + directory + ": " + snapshot.getCount() + " entries, "
+                    + comparer.changes + " changes");
+        return initial && !reportInitial ? 0 : comparer.changes;
+    }
+
+    /**
+     * Get the snapshot held for a directory
+     *
+     * @param directory   directory polled
+     * @return snapshot, or null if not yet polled
+     */
+    public DirectorySnapshot getSnapshot(String directory) {
+        return (DirectorySnapshot)snapshots.get(directory);
+    }
+
+    /**
+     * Forget a directory, so that the next poll records it afresh
+     *
+     * @param directory   directory polled
+     */
+    public void reset(String directory) {
+        snapshots.remove(directory);
+    }
+
+    /**
+     * Forget all directories
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    /**
+     * Compares each listed entry with the snapshot
+     */
+    private static class Comparer implements DirectoryListCallback {
+
+        private String directory;
+
+        private DirectorySnapshot snapshot;
+
+        /**
+         * Null while recording a first poll
+         */
+        private DirectoryChangeListener listener;
+
+        private int changes = 0;
+
+        Comparer(String directory, DirectorySnapshot snapshot, DirectoryChangeListener listener) {
+            this.directory = directory;
+            this.snapshot = snapshot;
+            this.listener = listener;
+        }
+
+        public void listDirectoryEntry(DirectoryListArgument arg) {
+            FTPFile file = arg.getEntry();
+            String name = file.getName();
+            if (name == null || name.equals(".") || name.equals(".."))
+                return;
+            int result = snapshot.update(file);
+            if (result == DirectorySnapshot.UNCHANGED)
+                return;
+            changes++;
+            if (listener == null)
+                return;
+            if (result == DirectorySnapshot.CREATED)
+                listener.entryCreated(directory, file);
+            else
+                listener.entryModified(directory, file);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Notified of the changes a {@link DirectoryChangeDetector} finds
+ *  between successive listings of a directory
+ *
+ *  @author      Eric
+ */
+public interface DirectoryChangeListener {
+
+    /**
+     * Notify that an entry has appeared
+     *
+     * @param directory   directory polled
+     * @param file        new entry
+     */
+    public void entryCreated(String directory, FTPFile file);
+
+    /**
+     * Notify that an entry's size or modification time has changed
+     *
+     * @param directory   directory polled
+     * @param file        changed entry
+     */
+    public void entryModified(String directory, FTPFile file);
+
+    /**
+     * Notify that an entry has gone
+     *
+     * @param directory   directory polled
+     * @param name        name of the entry
+     */
+    public void entryDeleted(String directory, String name);
+}
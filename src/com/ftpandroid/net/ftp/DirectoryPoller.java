@@ -0,0 +1,265 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.Vector;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Polls a set of directories from a background thread, passing the
+ *  changes found by a {@link DirectoryChangeDetector} to a listener.
+ *  Each directory has its own interval, which halves when a poll finds
+ *  changes and grows while polls find none, so busy directories are
+ *  polled often and quiet ones rarely.
+ *  <p>
+ *  All directories are listed with the one client, while holding its
+ *  lock. Code using the client from other threads must synchronize on
+ *  it too.
+ *
+ *  @author      Eric
+ */
+public class DirectoryPoller {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("DirectoryPoller");
+
+    /**
+     * Default shortest interval, in ms
+     */
+    public static final long DEFAULT_MIN_INTERVAL = 2000;
+
+    /**
+     * Default longest interval, in ms
+     */
+    public static final long DEFAULT_MAX_INTERVAL = 120000;
+
+    /**
+     * Growth of the interval after a quiet poll
+     */
+    private static final double GROWTH = 1.5;
+
+    private FTPClient client;
+
+    private DirectoryChangeListener listener;
+
+    private DirectoryChangeDetector detector = new DirectoryChangeDetector();
+
+    private long minInterval = DEFAULT_MIN_INTERVAL;
+
+    private long maxInterval = DEFAULT_MAX_INTERVAL;
+
+    /**
+     * Polled directories
+     */
+    private Vector directories = new Vector();
+
+    private Thread thread;
+
+    private volatile boolean running = false;
+
+    private long pollCount = 0;
+
+    private long failureCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param client     connected client to list with
+     * @param listener   told of the changes found
+     */
+    public DirectoryPoller(FTPClient client, DirectoryChangeListener listener) {
+        this.client = client;
+        this.listener = listener;
+    }
+
+    /**
+     * Get the detector, e.g. to inspect its snapshots
+     *
+     * @return detector
+     */
+    public DirectoryChangeDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Start polling a directory. It is first polled straight away.
+     *
+     * @param directory   directory to poll
+     */
+    public synchronized void addDirectory(String directory) {
+        for (int i = 0; i < directories.size(); i++) {
+            if (((PolledDirectory)directories.elementAt(i)).name.equals(directory))
+                return;
+        }
+        directories.addElement(new PolledDirectory(directory, minInterval));
+        notify();
+    }
+
+    /**
+     * Stop polling a directory
+     *
+     * @param directory   directory polled
+     */
+    public synchronized void removeDirectory(String directory) {
+        for (int i = 0; i < directories.size(); i++) {
+            if (((PolledDirectory)directories.elementAt(i)).name.equals(directory)) {
+                directories.removeElementAt(i);
+                detector.reset(directory);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start the background thread
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "DirectoryPoller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread, waiting for a poll in progress
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            stopping = thread;
+            thread = null;
+        }
+        if (stopping != null)
+            stopping.join();
+    }
+
+    private void runLoop() {
+        while (running) {
+            PolledDirectory[] current;
+            synchronized (this) {
+                current = new PolledDirectory[directories.size()];
+                directories.copyInto(current);
+            }
+            long nextDue = System.currentTimeMillis() + maxInterval;
+            for (int i = 0; i < current.length && running; i++) {
+                if (current[i].due <= System.currentTimeMillis())
+                    poll(current[i]);
+                if (current[i].due < nextDue)
+                    nextDue = current[i].due;
+            }
+            synchronized (this) {
+                long sleep = nextDue - System.currentTimeMillis();
+                if (running && sleep > 0) {
+                    try {
+                        wait(sleep);
+                    }
+                    catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Poll a directory and adjust its interval
+     */
+    private void poll(PolledDirectory directory) {
+        try {
+            int changes;
+            synchronized (client) {
+                changes = detector.poll(client, directory.name, listener);
+            }
+            synchronized (this) {
+                pollCount++;
+                if (changes > 0)
+                    directory.interval = Math.max(minInterval, directory.interval / 2);
+                else
+                    directory.interval = Math.min(maxInterval, (long)(directory.interval * GROWTH));
+            }
+        }
+        catch (Exception ex) {
+            log.warn("Failed to poll " + directory.name + ": " + ex.getMessage());
+            synchronized (this) {
+                failureCount++;
+                directory.interval = maxInterval;
+            }
+        }
+        directory.due = System.currentTimeMillis() + directory.interval;
+    }
+
+    /**
+     * Get the current interval for a directory
+     *
+     * @param directory   directory polled
+     * @return interval in ms, or -1 if the directory is not polled
+     */
+    public synchronized long getInterval(String directory) {
+        for (int i = 0; i < directories.size(); i++) {
+            PolledDirectory polled = (PolledDirectory)directories.elementAt(i);
+            if (polled.name.equals(directory))
+                return polled.interval;
+        }
+        return -1;
+    }
+
+    /**
+     * Set the range the intervals may adapt within
+     *
+     * @param minInterval  shortest interval in ms
+     * @param maxInterval  longest interval in ms
+     */
+    public synchronized void setIntervalRange(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Get the number of successful polls
+     *
+     * @return count
+     */
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * Get the number of failed polls
+     *
+     * @return count
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * A polled directory
+     */
+    private static class PolledDirectory {
+
+        private String name;
+
+        private long interval;
+
+        /**
+         * Time the next poll is due
+         */
+        private volatile long due = 0;
+
+        PolledDirectory(String name, long interval) {
+            this.name = name;
+            this.interval = interval;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.BitSet;
+import java.util.Date;
+
+/**
+ *  Fingerprint of a directory's contents - the name, size and
+ *  modification time of each entry - used by
+ *  {@link DirectoryChangeDetector} to tell what changed since the last
+ *  listing. Entries are held in an open addressing hash table made of
+ *  parallel arrays, so each costs a fixed few words plus its name, and
+ *  a new listing is compared entry by entry as it is parsed rather than
+ *  sorted and merged.
+ *
+ *  @author      Eric
+ */
+public class DirectorySnapshot {
+
+    /**
+     * Stored in place of an unknown modification time
+     */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * Results of comparing a listed entry
+     */
+    static final int UNCHANGED = 0;
+
+    static final int CREATED = 1;
+
+    static final int MODIFIED = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Entry names, null for a free slot
+     */
+    private String[] names;
+
+    private int[] hashes;
+
+    private long[] sizes;
+
+    private long[] times;
+
+    /**
+     * Slots seen in the comparison in progress
+     */
+    private BitSet seen = new BitSet();
+
+    private int count = 0;
+
+    /**
+     * Constructor
+     */
+    public DirectorySnapshot() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        names = new String[capacity];
+        hashes = new int[capacity];
+        sizes = new long[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Is there an entry of this name?
+     *
+     * @param name   entry name
+     * @return true if present
+     */
+    public synchronized boolean contains(String name) {
+        return names[slot(name, spread(name.hashCode()))] != null;
+    }
+
+    /**
+     * Compare an entry of a new listing with the snapshot, recording
+     * the new values and marking the entry seen
+     *
+     * @param file   listed entry
+     * @return  {@link #CREATED}, {@link #MODIFIED} or {@link #UNCHANGED}
+     */
+    synchronized int update(FTPFile file) {
+        String name = file.getName();
+        int hash = spread(name.hashCode());
+        long size = file.size();
+        Date modified = file.lastModified();
+        long time = modified != null ? modified.getTime() : NO_TIME;
+        int i = slot(name, hash);
+        if (names[i] == null) {
+            if ((count + 1) * 4 > names.length * 3) {
+                rehash(names.length * 2);
+                i = slot(name, hash);
+            }
+            names[i] = name;
+            hashes[i] = hash;
+            sizes[i] = size;
+            times[i] = time;
+            seen.set(i);
+            count++;
+            return CREATED;
+        }
+        seen.set(i);
+        if (sizes[i] == size && times[i] == time)
+            return UNCHANGED;
+        sizes[i] = size;
+        times[i] = time;
+        return MODIFIED;
+    }
+
+    /**
+     * Remove the entries not seen since the comparison began
+     *
+     * @return names of the removed entries
+     */
+    synchronized String[] removeUnseen() {
+        int removed = count - seen.cardinality();
+        String[] result = new String[removed];
+        if (removed > 0) {
+            int n = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] != null && !seen.get(i)) {
+                    result[n++] = names[i];
+                    names[i] = null;
+                }
+            }
+            count -= removed;
+            // removal breaks probe chains, so rebuild
+            int capacity = names.length;
+            while (capacity > INITIAL_CAPACITY && count * 4 < capacity)
+                capacity /= 2;
+            rehash(capacity);
+        }
+        seen.clear();
+        return result;
+    }
+
+    /**
+     * Forget which entries have been seen, e.g. after a failed listing
+     */
+    synchronized void clearSeen() {
+        seen.clear();
+    }
+
+    /**
+     * Find the slot holding a name, or the free slot it would go in
+     */
+    private int slot(String name, int hash) {
+        int mask = names.length - 1;
+        int i = hash & mask;
+        while (names[i] != null) {
+            if (hashes[i] == hash && names[i].equals(name))
+                return i;
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Rebuild the table at a new capacity, a power of two. Seen marks
+     * are carried over.
+     */
+    private void rehash(int capacity) {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        long[] oldSizes = sizes;
+        long[] oldTimes = times;
+        BitSet oldSeen = seen;
+        allocate(capacity);
+        seen = new BitSet();
+        for (int j = 0; j < oldNames.length; j++) {
+            if (oldNames[j] == null)
+                continue;
+            int i = slot(oldNames[j], oldHashes[j]);
+            names[i] = oldNames[j];
+            hashes[i] = oldHashes[j];
+            sizes[i] = oldSizes[j];
+            times[i] = oldTimes[j];
+            if (oldSeen.get(j))
+                seen.set(i);
+        }
+    }
+
+    /**
+     * Mix the hash bits, as names often differ only in their last characters
+     */
+    private static int spread(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+}
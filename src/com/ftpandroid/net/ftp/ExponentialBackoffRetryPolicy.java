@@ -0,0 +1,217 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Retry policy that backs off exponentially with decorrelated jitter,
+ *  i.e. each delay is chosen at random between the base delay and
+ *  three times the previous delay, capped at the maximum delay. This
+ *  stops clients that failed together from retrying in lockstep.
+ *  <p>
+ *  Each host has a {@link RetryBudget} limiting the retries made
+ *  against it per window, and a {@link CircuitBreaker} that fails
+ *  attempts fast while the host is down. These are kept per policy
+ *  instance, so the same instance should be set on every client that
+ *  talks to a host.
+ *
+ *  @author      Eric
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("ExponentialBackoffRetryPolicy");
+
+    /**
+     * Default smallest delay in ms
+     */
+    public static final long DEFAULT_BASE_DELAY = 500;
+
+    /**
+     * Default largest delay in ms
+     */
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    /**
+     * Default retries per transfer
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * Default retries allowed per host per budget window
+     */
+    public static final int DEFAULT_BUDGET = 20;
+
+    /**
+     * Default budget window in ms
+     */
+    public static final long DEFAULT_BUDGET_WINDOW = 60000;
+
+    /**
+     * Default consecutive failures that open a host's circuit breaker
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Default ms a circuit breaker stays open before probing
+     */
+    public static final long DEFAULT_OPEN_TIMEOUT = 30000;
+
+    private long baseDelay = DEFAULT_BASE_DELAY;
+
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private int budget = DEFAULT_BUDGET;
+
+    private long budgetWindow = DEFAULT_BUDGET_WINDOW;
+
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    private long openTimeout = DEFAULT_OPEN_TIMEOUT;
+
+    private Random random = new Random();
+
+    /**
+     * Circuit breakers keyed by host
+     */
+    private Hashtable breakers = new Hashtable();
+
+    /**
+     * Retry budgets keyed by host
+     */
+    private Hashtable budgets = new Hashtable();
+
+    /**
+     * Constructor using the defaults
+     */
+    public ExponentialBackoffRetryPolicy() {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param baseDelay    smallest delay in ms
+     * @param maxDelay     largest delay in ms
+     * @param maxRetries   retries per transfer
+     */
+    public ExponentialBackoffRetryPolicy(long baseDelay, long maxDelay, int maxRetries) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+    }
+
+    public boolean allowAttempt(String host) {
+        if (getCircuitBreaker(host).allowRequest())
+            return true;
+        log.warn("Circuit breaker open for " + host + " - failing fast");
+        return false;
+    }
+
+    public long getRetryDelay(String host, int attemptNumber, long previousDelay, Exception ex) {
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        breaker.recordFailure();
+        if (attemptNumber > maxRetries) {
+            log.info("Failed " + attemptNumber + " attempts - giving up");
+            return -1;
+        }
+        if (breaker.getState() == CircuitBreaker.OPEN) {
+            log.warn("Circuit breaker opened for " + host + " - giving up");
+            return -1;
+        }
+        if (!getRetryBudget(host).tryAcquire()) {
+            log.warn("Retry budget exhausted for " + host + " - giving up");
+            return -1;
+        }
+        long upper = Math.max(baseDelay, previousDelay * 3);
+        long delay;
+        synchronized (random) {
+            delay = baseDelay + (long)(random.nextDouble() * (upper - baseDelay));
+        }
+        return Math.min(delay, maxDelay);
+    }
+
+    public void recordSuccess(String host) {
+        getCircuitBreaker(host).recordSuccess();
+    }
+
+    /**
+     * Get the circuit breaker for a host
+     *
+     * @param host  host name
+     * @return breaker
+     */
+    public synchronized CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker breaker = (CircuitBreaker)breakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(failureThreshold, openTimeout);
+            breakers.put(host, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * Get the retry budget for a host
+     *
+     * @param host  host name
+     * @return budget
+     */
+    public synchronized RetryBudget getRetryBudget(String host) {
+        RetryBudget hostBudget = (RetryBudget)budgets.get(host);
+        if (hostBudget == null) {
+            hostBudget = new RetryBudget(budget, budgetWindow);
+            budgets.put(host, hostBudget);
+        }
+        return hostBudget;
+    }
+
+    /**
+     * Set the retry budget given to each host. Applies to hosts
+     * first seen after this is called.
+     *
+     * @param budget   retries allowed per window
+     * @param window   window in ms
+     */
+    public synchronized void setRetryBudget(int budget, long window) {
+        this.budget = budget;
+        this.budgetWindow = window;
+    }
+
+    /**
+     * Set the circuit breaker settings for each host. Applies to hosts
+     * first seen after this is called.
+     *
+     * @param failureThreshold   consecutive failures that open a breaker
+     * @param openTimeout        ms a breaker stays open before probing
+     */
+    public synchronized void setCircuitBreaker(int failureThreshold, long openTimeout) {
+        this.failureThreshold = failureThreshold;
+        this.openTimeout = openTimeout;
+    }
+
+    /**
+     * @return Returns the smallest delay in ms
+     */
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @return Returns the largest delay in ms
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @return Returns the retries per transfer
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
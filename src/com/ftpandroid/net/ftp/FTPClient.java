@@ -14,17 +14,24 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.Vector;
 
 import com.ftpandroid.net.ftp.internal.FTPDataSocket;
+import com.ftpandroid.connx.RollingChecksum;
 import com.ftpandroid.connx.debug.Level;
 import com.ftpandroid.connx.debug.Logger;
 
@@ -148,10 +155,16 @@ public class FTPClient implements FTPClientInterface {
     private static Logger log = Logger.getLogger("FTPClient");
     
     /**
-     *  Format to interpret MTDM timestamp
+     *  Format to interpret MTDM timestamp, one per thread as formats
+     *  are not thread-safe
      */
-    private SimpleDateFormat tsFormat =
-        new SimpleDateFormat("yyyyMMddHHmmss");
+    private static ThreadLocal tsFormat = new ThreadLocal() {
+        protected Object initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
     
     /**
      *  Socket responsible for controlling
@@ -256,7 +269,28 @@ public class FTPClient implements FTPClientInterface {
      * SIZE supported flag
      */
     private boolean sizeSupported = true;
-    
+
+    /**
+     * Default for the number of files in a directory below which bulk
+     * queries send a command per file rather than listing the directory
+     */
+    final public static int DEFAULT_BULK_QUERY_THRESHOLD = 16;
+
+    /**
+     * Number of commands sent at once when pipelining
+     */
+    private static final int PIPELINE_DEPTH = 32;
+
+    /**
+     * Bulk queries list directories holding at least this many of the files
+     */
+    private int bulkQueryThreshold = DEFAULT_BULK_QUERY_THRESHOLD;
+
+    /**
+     * Parse Unix listings lazily?
+     */
+    private boolean lazyParsing = false;
+
     /**
      * CDUP supported flag
      */
@@ -344,6 +378,68 @@ public class FTPClient implements FTPClientInterface {
      */
     private int retryDelay = DEFAULT_RETRY_DELAY;  
     
+    /**
+     * Policy deciding on retries, or null to use the retry count and delay
+     */
+    private RetryPolicy retryPolicy = null;
+    
+    /**
+     * Delay before the current retry, 0 if not retrying
+     */
+    private long lastRetryDelay = 0;
+    
+    /**
+     * Model of the server's session state, null if not tracking
+     */
+    private SessionState sessionState = null;
+    
+    /**
+     * Working directory from the last successful login, PWD or absolute
+     * CWD, null for the home directory. Only valid if known.
+     */
+    private volatile String workingDirectory = null;
+    
+    /**
+     * Is the working directory known, i.e. nothing since it was found
+     * could have changed it?
+     */
+    private volatile boolean workingDirectoryKnown = false;
+    
+    /**
+     * Use MLSD for dirDetails() if the server supports it
+     */
+    private boolean mlsdEnabled = true;
+    
+    /**
+     * Does the server support MLSD? Null if not yet known
+     */
+    private Boolean mlsdSupported = null;
+    
+    /**
+     * Use STAT for LIST listings if the server supports it
+     */
+    private boolean statListingEnabled = false;
+    
+    /**
+     * Does the server list directories with STAT? Null if not yet known
+     */
+    private Boolean statListingSupported = null;
+    
+    /**
+     * Reply codes of a STAT reply carrying a listing
+     */
+    private static final String[] STAT_LISTING_CODES = {"212", "213"};
+    
+    /**
+     * Cache of server profiles, null if not used
+     */
+    private ServerProfileCache profileCache = null;
+    
+    /**
+     * Profile of the connected server, null if not using a cache
+     */
+    private ServerProfile profile = null;
+    
     /**
      * Listen to all interfaces in active mode
      */
@@ -360,7 +456,8 @@ public class FTPClient implements FTPClientInterface {
     private Locale[] listingLocales;
     
     /**
-     * Parses the MLSD and MLST formats
+     * Parses the MLSD and MLST formats. Cheap to create, as it holds no
+     * date formatters.
      */
     private MLSXEntryParser mlsxParser = new MLSXEntryParser();
     
@@ -413,13 +510,49 @@ public class FTPClient implements FTPClientInterface {
     /**
      * Threshold for throttling
      */
-    protected BandwidthThrottler throttler = null;
+    protected volatile BandwidthThrottler throttler = null;
     
     /**
      * Pasv callback method
      */
     protected DataChannelCallback dataChannelCallback = null;
     
+    /**
+     * Aggregates per-phase timings of transfers, null if not timing
+     */
+    private TransferTimingStats timingStats = null;
+    
+    /**
+     * Notified of per-phase timings of transfers, null if not timing
+     */
+    private TransferTimingListener timingListener = null;
+    
+    /**
+     * Timing of the transfer in progress, null if not timing
+     */
+    private TransferTiming timing = null;
+    
+    /**
+     * Attempt number of the transfer in progress, for tracing
+     */
+    private int transferAttempt = 1;
+    
+    /**
+     * Live statistics for this client
+     */
+    private TransferStatistics statistics = new TransferStatistics(this);
+    
+    /**
+     * Journal that transfers are checkpointed to, null if none
+     */
+    private TransferJournal journal = null;
+    
+    /**
+     * Latest checkpoint of the journalled transfer in progress, 
+     * null if none
+     */
+    private TransferCheckpoint checkpoint = null;
+    
     /**
      * set default listing locales.
      */
@@ -430,10 +563,9 @@ public class FTPClient implements FTPClientInterface {
     }
     
     /**
-     *  Instance initializer. Sets formatter to GMT.
+     *  Instance initializer
      */
     {
-        tsFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
         listingLocales = DEFAULT_LISTING_LOCALES;
         id = Integer.toString(++masterId);
     }  
@@ -565,6 +697,8 @@ public class FTPClient implements FTPClientInterface {
         throws IOException, FTPException {
         if (controlPort < 0)
             controlPort = FTPControlSocket.CONTROL_PORT;
+        this.remoteAddr = remoteAddr;
+        this.controlPort = controlPort;
 		initialize(new FTPControlSocket(remoteAddr, controlPort, timeout, DEFAULT_ENCODING, null));
     }
     
@@ -585,6 +719,8 @@ public class FTPClient implements FTPClientInterface {
         throws IOException, FTPException {
         if (controlPort < 0)
             controlPort = FTPControlSocket.CONTROL_PORT;
+        this.remoteAddr = remoteAddr;
+        this.controlPort = controlPort;
         initialize(new FTPControlSocket(remoteAddr, controlPort, timeout, encoding, null));
     }
     
@@ -618,6 +754,91 @@ public class FTPClient implements FTPClientInterface {
         
         initialize(new FTPControlSocket(remoteAddr, controlPort, timeout, 
                                          controlEncoding, messageListener));
+        applyServerProfile();
+    }
+    
+    /**
+     * Look up the profile of the server just connected to and take
+     * on what is already known about it
+     */
+    private void applyServerProfile() {
+        profile = null;
+        mlsdSupported = null;
+        statListingSupported = null;
+        if (profileCache == null)
+            return;
+        String host = remoteHost != null ? remoteHost : remoteAddr.getHostAddress();
+        profile = profileCache.getProfile(host, controlPort, control.getGreeting());
+        mlsdSupported = profile.isSupported("MLSD");
+        statListingSupported = profile.isSupported("STAT");
+        Boolean supported = profile.isSupported("SIZE");
+        if (supported != null)
+            sizeSupported = supported.booleanValue();
+        supported = profile.isSupported("MDTM");
+        if (supported != null)
+            mdtmSupported = supported.booleanValue();
+        supported = profile.isSupported("CDUP");
+        if (supported != null)
+            cdupSupported = supported.booleanValue();
+    }
+    
+    /**
+     * Record in the server's profile whether a command works
+     * 
+     * @param verb       command verb
+     * @param supported  true if it works
+     */
+    private void recordSupport(String verb, boolean supported) {
+        if (profile != null)
+            profile.setSupported(verb, supported);
+    }
+    
+    /**
+     * Record in the server's profile that a command is not supported,
+     * if its reply says it isn't implemented. Other failures, e.g. 550
+     * for SIZE in ASCII mode, may only hold for this session.
+     * 
+     * @param verb       command verb
+     * @param reply      reply to the command
+     */
+    private void recordUnsupported(String verb, FTPReply reply) {
+        String code = reply != null ? reply.getReplyCode() : null;
+        if ("500".equals(code) || "502".equals(code))
+            recordSupport(verb, false);
+    }
+    
+    /**
+     * Get the cache of server profiles used
+     * 
+     * @return cache, or null if none
+     */
+    public ServerProfileCache getServerProfileCache() {
+        return profileCache;
+    }
+    
+    /**
+     * Set a cache of server profiles, so that what is learned about a 
+     * server - supported commands, FEAT and SYST replies, listing format 
+     * and locale - is remembered and shared with other clients using the
+     * same cache. Takes effect at once if already connected, e.g. by
+     * one of the deprecated connecting constructors, and otherwise on
+     * the next connect.
+     * 
+     * @param profileCache   cache, e.g. ServerProfileCache.getDefault(), or null for none
+     */
+    public void setServerProfileCache(ServerProfileCache profileCache) {
+        this.profileCache = profileCache;
+        if (control != null && connected())
+            applyServerProfile();
+    }
+    
+    /**
+     * Get the profile of the connected server
+     * 
+     * @return profile, or null if no cache is set
+     */
+    public ServerProfile getServerProfile() {
+        return profile;
     }
     
     /**
@@ -661,6 +882,10 @@ public class FTPClient implements FTPClientInterface {
         control.setTimeout(timeout);
         control.setAutoPassiveIPSubstitution(autoPassiveIPSubstitution);
         control.setDataChannelCallback(dataChannelCallback);
+        control.setStatistics(statistics);
+        if (sessionState != null)
+            sessionState.reset();
+        setWorkingDirectory(null, false);
         if (activeIP != null)
             control.setActivePortIPAddress(activeIP);
         if (lowPort > 0 && highPort > 0)
@@ -1246,6 +1471,151 @@ public class FTPClient implements FTPClientInterface {
         this.monitor = monitorEx;
     }
 
+    /**
+     * Get the live statistics of this client
+     * 
+     * @return TransferStatistics
+     */
+    public TransferStatistics getTransferStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Get the time a command was last sent or a reply received on
+     * the control channel
+     * 
+     * @return time in ms since the epoch, or 0 if not connected
+     */
+    public long getLastActivityTime() {
+        FTPControlSocket current = control;
+        return current != null ? current.getLastActivityTime() : 0;
+    }
+    
+    /**
+     * Switch tracking of the session state on or off. When on, the 
+     * working directory and transfer type are remembered from successful
+     * replies, PWD is answered locally, and TYPE and CWD commands that 
+     * would have no effect are not sent. Off by default.
+     * 
+     * @param track  true to track session state
+     */
+    public void setSessionStateTracking(boolean track) {
+        if (!track)
+            sessionState = null;
+        else if (sessionState == null)
+            sessionState = new SessionState();
+    }
+    
+    /**
+     * Is the session state being tracked?
+     * 
+     * @return true if tracking
+     */
+    public boolean isSessionStateTracking() {
+        return sessionState != null;
+    }
+    
+    /**
+     * Is the working directory known without asking the server?
+     * 
+     * @return true if known
+     */
+    boolean isWorkingDirectoryKnown() {
+        return workingDirectoryKnown;
+    }
+    
+    /**
+     * Get the known working directory
+     * 
+     * @return directory, or null for the home directory or if not known
+     */
+    String getWorkingDirectory() {
+        return workingDirectory;
+    }
+    
+    private void setWorkingDirectory(String directory, boolean known) {
+        workingDirectoryKnown = false;
+        workingDirectory = directory;
+        workingDirectoryKnown = known;
+    }
+    
+    /**
+     * Get the tracked session state, including the count of
+     * commands that were not sent
+     * 
+     * @return session state, or null if not tracking
+     */
+    public SessionState getSessionState() {
+        return sessionState;
+    }
+    
+    /**
+     * Get the bandwidth threshold that transfers are throttled to
+     * 
+     * @return bytes/sec, or -1 if not throttled
+     */
+    public int getBandwidthThreshold() {
+        BandwidthThrottler current = throttler;
+        return current != null ? current.getThreshold() : -1;
+    }
+    
+    /**
+     * Set the bandwidth threshold that transfers are throttled to. May
+     * be changed while a transfer is in progress.
+     * 
+     * @param thresholdBytesPerSec   bytes/sec, or 0 or less to stop throttling
+     */
+    public void setBandwidthThreshold(int thresholdBytesPerSec) {
+        if (thresholdBytesPerSec <= 0)
+            throttler = null;
+        else {
+            BandwidthThrottler current = throttler;
+            if (current != null)
+                current.setThreshold(thresholdBytesPerSec);
+            else
+                throttler = new BandwidthThrottler(thresholdBytesPerSec);
+        }
+    }
+    
+    /**
+     * Get the statistics that transfer timings are recorded in
+     * 
+     * @return TransferTimingStats, or null if not set
+     */
+    public TransferTimingStats getTransferTimingStats() {
+        return timingStats;
+    }
+
+    /**
+     * Set the statistics that per-phase transfer timings are recorded in. 
+     * The same instance may be shared by many clients. Timing is only 
+     * performed if this or a timing listener is set.
+     * 
+     * @param timingStats  statistics to record into, or null to stop recording
+     */
+    public void setTransferTimingStats(TransferTimingStats timingStats) {
+        this.timingStats = timingStats;
+    }
+    
+    /**
+     * Get the listener notified of transfer timings
+     * 
+     * @return TransferTimingListener, or null if not set
+     */
+    public TransferTimingListener getTransferTimingListener() {
+        return timingListener;
+    }
+
+    /**
+     * Set a listener that is notified of the per-phase timings
+     * of each transfer and listing
+     * 
+     * @param timingListener  timing listener, or null to remove
+     */
+    public void setTransferTimingListener(TransferTimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
     /**
      *  Set the connect mode
      *
@@ -1517,11 +1887,16 @@ public class FTPClient implements FTPClientInterface {
     	
     	this.user = user;
     	
+        setWorkingDirectory(null, false);
         lastReply = control.sendCommand("USER " + user);
+        if (sessionState != null)
+            sessionState.setDirectory(null);
 
         // we allow for a site with no password - 230 response
         String[] validCodes = {"230", "232", "331"};
         lastValidReply = control.validateReply(lastReply, validCodes);
+        if (!lastValidReply.getReplyCode().equals("331"))
+            setWorkingDirectory(null, true); // logged in to the home directory
     }
 
 
@@ -1545,6 +1920,8 @@ public class FTPClient implements FTPClientInterface {
         // ACCT info (332)
         String[] validCodes = {"230", "202", "332"};
         lastValidReply = control.validateReply(lastReply, validCodes);
+        if (!lastValidReply.getReplyCode().equals("332"))
+            setWorkingDirectory(null, true); // logged in to the home directory
     }
     
     
@@ -1567,6 +1944,7 @@ public class FTPClient implements FTPClientInterface {
         // ok or not implemented
         String[] validCodes = {"230", "202"};
         lastValidReply = control.validateReply(lastReply, validCodes);
+        setWorkingDirectory(null, true);
     }
 
 
@@ -1637,7 +2015,10 @@ public class FTPClient implements FTPClientInterface {
     	
     	checkConnection(true);
     	
+        setWorkingDirectory(null, false);
         lastReply = control.sendCommand(command);
+        if (sessionState != null)
+            sessionState.commandSent(command, lastReply);
 
         // allow for no validation to be supplied
         if (validCodes != null) {
@@ -1660,7 +2041,10 @@ public class FTPClient implements FTPClientInterface {
         
         checkConnection(true);
         
+        setWorkingDirectory(null, false);
         lastValidReply = control.sendCommand(command);        
+        if (sessionState != null)
+            sessionState.commandSent(command, lastValidReply);
         return lastValidReply.getRawReply();   
     }
     
@@ -1697,12 +2081,15 @@ public class FTPClient implements FTPClientInterface {
         {
             lastReply = control.sendCommand("SIZE " + remoteFile);
             char ch = lastReply.getReplyCode().charAt(0);
-            if (ch == '2')
+            if (ch == '2') {
+                recordSupport("SIZE", true);
                 return true;
+            }
             if (ch == '5' && fileNotFoundStrings.matches(lastReply.getReplyText()))
                 return false;
                 
             sizeSupported = false;
+            recordUnsupported("SIZE", lastReply);
             log.debug("SIZE not supported - trying MDTM");
         }
 
@@ -1711,12 +2098,15 @@ public class FTPClient implements FTPClientInterface {
         {
             lastReply = control.sendCommand("MDTM " + remoteFile);
             char ch = lastReply.getReplyCode().charAt(0);
-            if (ch == '2')
+            if (ch == '2') {
+                recordSupport("MDTM", true);
                 return true;
+            }
             if (ch == '5' && fileNotFoundStrings.matches(lastReply.getReplyText()))
                 return false;
              
             mdtmSupported = false;
+            recordUnsupported("MDTM", lastReply);
             log.debug("MDTM not supported - trying LIST");
         }
 
@@ -1817,7 +2207,11 @@ public class FTPClient implements FTPClientInterface {
      * @throws FTPException 
      */
     public FTPReply sendCommand(String command) throws IOException, FTPException  {
-        return control.sendCommand(command);
+        setWorkingDirectory(null, false);
+        FTPReply reply = control.sendCommand(command);
+        if (sessionState != null)
+            sessionState.commandSent(command, reply);
+        return reply;
     }
     
     /**
@@ -1973,20 +2367,79 @@ public class FTPClient implements FTPClientInterface {
      public void setRetryDelay(int retryDelay) {
          this.retryDelay = retryDelay;
      }
+     
+     /**
+      * Get the policy deciding on retries
+      * 
+      * @return policy, or null if the retry count and delay are used
+      */
+     public RetryPolicy getRetryPolicy() {
+         return retryPolicy;
+     }
+
+     /**
+      * Set a policy deciding whether and when to retry failed transfers,
+      * in place of the retry count and retry delay. Share the policy 
+      * between clients so they share its per-host state.
+      * 
+      * @param retryPolicy  policy, or null to use the retry count and delay
+      */
+     public void setRetryPolicy(RetryPolicy retryPolicy) {
+         this.retryPolicy = retryPolicy;
+     }
+     
+     /**
+      * Fail fast if the retry policy does not allow another attempt
+      * against this host
+      */
+     private void checkRetryPolicy() throws FTPException {
+         if (retryPolicy != null && !retryPolicy.allowAttempt(remoteHost))
+             throw new FTPException("Attempts to " + remoteHost + " suspended by retry policy");
+     }
+     
+     /**
+      * Work out how long to wait before retrying after a failed attempt
+      * 
+      * @param ex              the failure
+      * @param attemptNumber   number of the failed attempt
+      * @return milliseconds to wait, or -1 to give up
+      */
+     private long getRetryDelay(Exception ex, int attemptNumber) {
+         if (retryPolicy == null)
+             return attemptNumber <= retryCount+1 ? retryDelay : -1;
+         lastRetryDelay = retryPolicy.getRetryDelay(remoteHost, attemptNumber, lastRetryDelay, ex);
+         return lastRetryDelay;
+     }
+     
+     /**
+      * Sleep before a retry
+      * 
+      * @param delay  milliseconds to sleep
+      */
+     private void sleepBeforeRetry(long delay) {
+         if (delay > 0) {
+             try {
+                 if (log.isDebugEnabled())
+                     log.debug("Sleeping for " + delay + " ms prior to retry");
+                 Thread.sleep(delay);
+             }
+             catch (InterruptedException ignore) {}
+         }
+     }
 
      
      private boolean processTransferException(Exception ex, int attemptNumber)
      {
-         if (attemptNumber <= retryCount+1) {
-             if (retryDelay > 0) {
-                 try {
-                     log.debug("Sleeping for " + retryDelay + " ms prior to retry");
-                     Thread.sleep(retryDelay);
-                 }
-                 catch (InterruptedException ignore) {}
-             }
+         long delay = getRetryDelay(ex, attemptNumber);
+         if (delay >= 0) {
+             statistics.transferRetried();
+             long start = FTPTrace.start();
+             sleepBeforeRetry(delay);
              log.error("Transfer error on attempt #" + attemptNumber
                      + " retrying: ", ex);           
+             if (start != 0)
+                 FTPTrace.emit(FTPTraceEventType.TRANSFER_RETRY, remoteHost, null, 
+                         null, 0, start, attemptNumber);
              return true;
          } else {
              if (attemptNumber > 0)
@@ -2010,12 +2463,13 @@ public class FTPClient implements FTPClientInterface {
          File localFile = new File(localPath);    
          if (localFile.isDirectory()) {
              localPath = localPath + File.separator + remoteFile;
-             log.debug("Setting local path to " + localPath);
+             log.debug("Setting local path to {0}", localPath);
          }
          
          try {
+            beginJournal(TransferDirection.DOWNLOAD, cwd, localPath, remoteFile);
 
-            if (retryCount == 0)
+            if (retryCount == 0 && retryPolicy == null)
                 getFile(localPath, remoteFile);
             else {
                 for (int attempt = 1;; attempt++) {
@@ -2023,8 +2477,13 @@ public class FTPClient implements FTPClientInterface {
                         if (attempt > 1
                                 && getType().equals(FTPTransferType.BINARY))
                             resume();
-                        log.debug("Attempt #" + attempt);
+                        if (log.isDebugEnabled())
+                            log.debug("Attempt #" + attempt);
+                        transferAttempt = attempt;
+                        checkRetryPolicy();
                         getFile(localPath, remoteFile);
+                        if (retryPolicy != null)
+                            retryPolicy.recordSuccess(remoteHost);
                         break;
                     } catch (ControlChannelIOException ex) {
                         if (!processControlChannelException(cwd, ex, attempt))
@@ -2037,7 +2496,11 @@ public class FTPClient implements FTPClientInterface {
                     }
                 }
             }
+            completeJournal();
          } finally {
+            checkpoint = null;
+            transferAttempt = 1;
+            lastRetryDelay = 0;
             resetTransferMode(previousType);
          }
          
@@ -2063,37 +2526,215 @@ public class FTPClient implements FTPClientInterface {
          }
      }    
      
-     private boolean processControlChannelException(String cwd, Exception ex, int attemptNumber) 
+     /**
+      * Get the journal that transfers are checkpointed to
+      * 
+      * @return journal, or null if none
+      */
+     public TransferJournal getTransferJournal() {
+         return journal;
+     }
+
+     /**
+      * Set a journal that binary transfers of local files are checkpointed 
+      * to. If a transfer is interrupted, even by the process dying, the next
+      * transfer of the same files resumes from the last durable checkpoint,
+      * provided the source file is unchanged. A journal may be shared by
+      * several clients.
+      * 
+      * @param journal  journal, or null to stop checkpointing
+      */
+     public void setTransferJournal(TransferJournal journal) {
+         this.journal = journal;
+     }
+     
+     /**
+      * Look up the journal for an interrupted transfer of the supplied
+      * files and arrange to resume it if it is still valid. Sets up the 
+      * checkpoint for the transfer about to start.
+      * 
+      * @param direction   direction of transfer
+      * @param cwd         remote working directory
+      * @param localPath   local file
+      * @param remoteFile  remote file
+      */
+     private void beginJournal(TransferDirection direction, String cwd, String localPath, String remoteFile) 
          throws IOException, FTPException {
-         if (attemptNumber <= retryCount+1) {
-             if (retryDelay > 0) {
-                 try {
-                     log.debug("Sleeping for " + retryDelay + " ms prior to retry");
-                     Thread.sleep(retryDelay);
+         
+         checkpoint = null;
+         if (journal == null || !getType().equals(FTPTransferType.BINARY))
+             return;
+         
+         String remotePath = remoteFile;
+         if (cwd != null && !remoteFile.startsWith("/"))
+             remotePath = cwd.endsWith("/") ? cwd + remoteFile : cwd + "/" + remoteFile;
+         File localFile = new File(localPath);
+         long remoteSize = TransferCheckpoint.UNKNOWN;
+         long remoteModTime = TransferCheckpoint.UNKNOWN;
+         long localModTime = TransferCheckpoint.UNKNOWN;
+         if (direction == TransferDirection.DOWNLOAD) {
+             try {
+                 remoteSize = size(remoteFile);
+             }
+             catch (FTPException ex) {
+                 log.debug("SIZE failed - not used to validate journal");
+             }
+             try {
+                 remoteModTime = modtime(remoteFile).getTime();
+             }
+             catch (FTPException ex) {
+                 log.debug("MDTM failed - not used to validate journal");
+             }
+             if (remoteSize == TransferCheckpoint.UNKNOWN && remoteModTime == TransferCheckpoint.UNKNOWN) {
+                 log.warn("Cannot identify remote file version - transfer will not be journalled");
+                 return;
+             }
+         }
+         else
+             localModTime = localFile.lastModified();
+         
+         long offset = 0;
+         long hash = journal.isHashing() ? new RollingChecksum().getValue() : TransferCheckpoint.UNKNOWN;
+         TransferCheckpoint last = journal.getCheckpoint(direction, remotePath, localFile.getAbsolutePath());
+         if (last != null && last.getOffset() > 0) {
+             if (isResumable(last, remoteSize, remoteModTime, localModTime, localFile)) {
+                 offset = last.getOffset();
+                 hash = last.getHash();
+                 if (direction == TransferDirection.DOWNLOAD) {
+                     // discard anything written after the checkpoint
+                     RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+                     try {
+                         raf.setLength(offset);
+                     }
+                     finally {
+                         raf.close();
+                     }
+                     resumeNextDownload(offset);
                  }
-                 catch (InterruptedException ignore) {}
+                 else
+                     resume();
+                 log.info("Resuming " + last.toString() + " from journal");
              }
-             log.error("Transfer error on attempt #" + attemptNumber
-                     + ": reconnecting & retrying: ", ex);  
-             reconnect(cwd);
-             return true;
-         } else {
-             log.info("Failed " + attemptNumber + " attempts - giving up");
+             else
+                 log.info("Journal checkpoint no longer valid, not resuming: " + last.toString());
+         }
+         checkpoint = new TransferCheckpoint(direction, remotePath, localFile.getAbsolutePath(), 
+                 offset, remoteSize, remoteModTime, localModTime, hash);
+     }
+     
+     /**
+      * Can the transfer be resumed from the supplied checkpoint?
+      */
+     private boolean isResumable(TransferCheckpoint last, long remoteSize, long remoteModTime, 
+                                 long localModTime, File localFile) {
+         if (last.getDirection() == TransferDirection.DOWNLOAD) {
+             if (last.getRemoteSize() != remoteSize || last.getRemoteModTime() != remoteModTime)
+                 return false;
+         }
+         else if (last.getLocalModTime() != localModTime)
              return false;
+         if (localFile.length() < last.getOffset())
+             return false;
+         if (journal.isVerifyOnResume() && last.getHash() != TransferCheckpoint.UNKNOWN) {
+             try {
+                 return RollingChecksum.checksum(localFile.getPath(), last.getOffset()) == last.getHash();
+             }
+             catch (IOException ex) {
+                 log.warn("Failed to verify local file against journal", ex);
+                 return false;
+             }
          }
+         return true;
      }
      
+     /**
+      * Get the hash to carry on from when a transfer's data starts
+      * at the supplied offset
+      * 
+      * @param base   offset data starts from
+      * @return hash, or null if not hashing
+      */
+     private RollingChecksum startCheckpointing(long base) {
+         if (!journal.isHashing())
+             return null;
+         if (checkpoint.getOffset() == base && checkpoint.getHash() != TransferCheckpoint.UNKNOWN)
+             return new RollingChecksum(checkpoint.getHash());
+         try {
+             // e.g. a retry resuming from wherever the last attempt got to
+             return new RollingChecksum(RollingChecksum.checksum(checkpoint.getLocalPath(), base));
+         }
+         catch (IOException ex) {
+             log.warn("Failed to hash local file - checkpoints will not be hashed", ex);
+             return null;
+         }
+     }
      
      /**
-      * Reconnect to the server
+      * Write a checkpoint to the journal. If this fails the rest of
+      * the transfer is not checkpointed, but carries on.
       * 
-      * @param cwd      current working dir
-      * @throws IOException
-      * @throws FTPException
+      * @param offset  bytes transferred
+      * @param hash    hash of bytes transferred, or null
       */
-     protected void reconnect(String cwd) throws IOException, FTPException {
+     private void writeCheckpoint(long offset, RollingChecksum hash) {
+         checkpoint = checkpoint.advance(offset, hash != null ? hash.getValue() : TransferCheckpoint.UNKNOWN);
          try {
-             quitImmediately();
+             journal.checkpoint(checkpoint);
+         }
+         catch (IOException ex) {
+             log.warn("Failed to write checkpoint - no longer checkpointing transfer", ex);
+             checkpoint = null;
+         }
+     }
+     
+     /**
+      * Record in the journal that the transfer in progress completed
+      */
+     private void completeJournal() {
+         if (checkpoint == null)
+             return;
+         try {
+             journal.complete(checkpoint);
+         }
+         catch (IOException ex) {
+             log.warn("Failed to record transfer completion in journal", ex);
+         }
+         checkpoint = null;
+     }
+     
+     private boolean processControlChannelException(String cwd, Exception ex, int attemptNumber) 
+         throws IOException, FTPException {
+         long delay = getRetryDelay(ex, attemptNumber);
+         if (delay >= 0) {
+             sleepBeforeRetry(delay);
+             log.error("Transfer error on attempt #" + attemptNumber
+                     + ": reconnecting & retrying: ", ex);  
+             statistics.transferRetried();
+             statistics.reconnected();
+             long start = FTPTrace.start();
+             reconnect(cwd);
+             if (start != 0)
+                 FTPTrace.emit(FTPTraceEventType.RECONNECT, remoteHost, null, 
+                         lastValidReply != null ? lastValidReply.getReplyCode() : null, 
+                         0, start, attemptNumber);
+             return true;
+         } else {
+             log.info("Failed " + attemptNumber + " attempts - giving up");
+             return false;
+         }
+     }
+     
+     
+     /**
+      * Reconnect to the server
+      * 
+      * @param cwd      current working dir
+      * @throws IOException
+      * @throws FTPException
+      */
+     protected void reconnect(String cwd) throws IOException, FTPException {
+         try {
+             quitImmediately();
          }
          catch (Exception ignore) {}
          log.info("Reconnecting");
@@ -2139,8 +2780,10 @@ public class FTPClient implements FTPClientInterface {
         FTPTransferType currentTransferType = chooseTransferMode(remoteFile);
 
         try {
+            if (!append && remoteFile != null && remoteFile.length() > 0)
+                beginJournal(TransferDirection.UPLOAD, cwd, localPath, remoteFile);
             InputStream srcStream = null;
-            if (retryCount == 0 || append) {
+            if ((retryCount == 0 && retryPolicy == null) || append) {
                 srcStream = new FileInputStream(localPath);
                 remoteFile = putStream(srcStream, remoteFile, append);
             } else {
@@ -2149,9 +2792,14 @@ public class FTPClient implements FTPClientInterface {
                         if (attempt > 1
                                 && getType().equals(FTPTransferType.BINARY))
                             resume();
-                        log.debug("Attempt #" + attempt);
+                        if (log.isDebugEnabled())
+                            log.debug("Attempt #" + attempt);
+                        transferAttempt = attempt;
+                        checkRetryPolicy();
                         srcStream = new FileInputStream(localPath);
                         remoteFile = putStream(srcStream, remoteFile, append);
+                        if (retryPolicy != null)
+                            retryPolicy.recordSuccess(remoteHost);
                         break;
                     } catch (ControlChannelIOException ex) {
                         if (!processControlChannelException(cwd, ex, attempt))
@@ -2164,8 +2812,12 @@ public class FTPClient implements FTPClientInterface {
                     }
                 }
             }
+            completeJournal();
 
         } finally {
+            checkpoint = null;
+            transferAttempt = 1;
+            lastRetryDelay = 0;
             resetTransferMode(previousType);
         }
          
@@ -2215,16 +2867,59 @@ public class FTPClient implements FTPClientInterface {
     	
         // check the control response
         String[] validCodes = {"225", "226", "250"};
+        if (timing != null)
+            timing.markIfUnset(TransferPhase.DATA_TRANSFER);
         lastReply = control.readReply();
         
         // if we cancelled the transfer throw an exception
         if (cancelTransfer) {
             lastValidReply = lastReply;
+            timing = null;
             log.warn("Transfer has been cancelled!");
             throw new FTPTransferCancelledException();
         }
         
         lastValidReply = control.validateReply(lastReply, validCodes);
+        completeTiming();
+    }
+    
+    /**
+     * Start timing a transfer if timing statistics or a timing 
+     * listener have been set. Called just before the data channel
+     * is set up.
+     * 
+     * @param command     command verb
+     * @param remoteFile  remote file or directory
+     */
+    private void startTiming(String command, String remoteFile) {
+        if (timingStats != null || timingListener != null)
+            timing = new TransferTiming(remoteHost, command, remoteFile);
+        else
+            timing = null;
+    }
+    
+    /**
+     * Close the completion phase of the current transfer and
+     * report its timings
+     */
+    private void completeTiming() {
+        TransferTiming completed = timing;
+        if (completed == null)
+            return;
+        timing = null;
+        completed.mark(TransferPhase.COMPLETION);
+        if (timingStats != null)
+            timingStats.record(completed);
+        if (timingListener != null) {
+            try {
+                timingListener.transferTimed(id, completed);
+            }
+            catch (Throwable t) {
+                log.warn("Exception in timing listener", t);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug(completed.toString());
     }
     
     /**
@@ -2317,6 +3012,10 @@ public class FTPClient implements FTPClientInterface {
         throws IOException, FTPException {
         
         data = control.createDataSocket(connectMode);
+        if (timing != null) {
+            timing.mark(TransferPhase.DATA_CHANNEL_SETUP, control.getDataChannelReplyNanos());
+            timing.mark(TransferPhase.DATA_CONNECT);
+        }
         data.setTimeout(timeout);
         if (dataReceiveBufferSize > 0)
             data.setReceiveBufferSize(dataReceiveBufferSize);
@@ -2372,6 +3071,7 @@ public class FTPClient implements FTPClientInterface {
             }
             
             // set up data channel
+            startTiming(append ? "APPE" : (storeUnique ? "STOU" : storeCommand.trim()), remoteFile);
             setupDataSocket();
             
             // issue REST
@@ -2394,6 +3094,8 @@ public class FTPClient implements FTPClientInterface {
             // JScape returns 151
             String[] validCodes = {"125", "150", "151", "350"};
             lastValidReply = control.validateReply(lastReply, validCodes);
+            if (timing != null)
+                timing.mark(TransferPhase.TRANSFER_COMMAND);
             
             String replyText = lastValidReply.getReplyText();
             if (storeUnique) {
@@ -2450,6 +3152,8 @@ public class FTPClient implements FTPClientInterface {
         BufferedInputStream in = null;
         BufferedOutputStream out = null;
         long size = 0;
+        long traceStart = FTPTrace.start();
+        statistics.transferStarted();
         try {
             in = new BufferedInputStream(srcStream);
     
@@ -2475,11 +3179,17 @@ public class FTPClient implements FTPClientInterface {
             int count = 0;
             boolean isASCII = getType() == FTPTransferType.ASCII;
             long start = System.currentTimeMillis();
-            if (throttler != null) {
-                throttler.reset();
+            BandwidthThrottler currentThrottler = throttler;
+            if (currentThrottler != null) {
+                currentThrottler.reset();
             }
+            long checkpointBase = resumeMarker;
+            long checkpointedSize = 0;
+            RollingChecksum checkpointHash = checkpoint != null ? startCheckpointing(checkpointBase) : null;
             
             while ((count = in.read(buf)) > 0 && !cancelTransfer) {
+                if (timing != null && size == 0)
+                    timing.markIfUnset(TransferPhase.FIRST_BYTE);
                 if (isASCII) { // we want to allow \r\n, \r and \n
                     for (int i = 0; i < count; i++) {
                         // LF without preceding CR (i.e. Unix text file)
@@ -2519,10 +3229,21 @@ public class FTPClient implements FTPClientInterface {
                     out.write(buf, 0, count);
                     size += count;
                     monitorCount += count;
+                    if (checkpoint != null) {
+                        if (checkpointHash != null)
+                            checkpointHash.update(buf, 0, count);
+                        if (size - checkpointedSize >= journal.getCheckpointInterval()) {
+                            out.flush();
+                            writeCheckpoint(checkpointBase + size, checkpointHash);
+                            checkpointedSize = size;
+                        }
+                    }
                 }
                 
-                if (throttler != null) {
-                    throttler.throttleTransfer(size);
+                statistics.bytesTransferred(count);
+                currentThrottler = throttler;
+                if (currentThrottler != null) {
+                    currentThrottler.throttleTransfer(size);
                 }
                                     
                 if (monitor != null && monitorCount > monitorInterval) {
@@ -2545,6 +3266,7 @@ public class FTPClient implements FTPClientInterface {
         }
         catch (IOException ex) {
             storedEx = ex;
+            statistics.transferFailed();
             log.error("Caught and rethrowing exception in getDataAfterInitGet()", ex);
         }
         finally {
@@ -2559,6 +3281,14 @@ public class FTPClient implements FTPClientInterface {
             }
                 
             closeDataSocket(out);
+            if (timing != null) {
+                timing.markIfUnset(TransferPhase.DATA_TRANSFER);
+                timing.setBytes(size);
+            }
+            statistics.transferEnded();
+            if (traceStart != 0)
+                FTPTrace.emit(FTPTraceEventType.UPLOAD, remoteHost, append ? "APPE" : storeCommand.trim(), 
+                        null, size, traceStart, transferAttempt);
             
             // if we failed to write the file, rethrow the exception
             if (storedEx != null)
@@ -2568,7 +3298,8 @@ public class FTPClient implements FTPClientInterface {
             if (monitor != null)
                 monitor.bytesTransferred(size);  
             // log bytes transferred
-            log.debug("Transferred " + size + " bytes to remote host");           
+            if (log.isDebugEnabled())
+                log.debug("Transferred " + size + " bytes to remote host");
         }
         return remoteFile;
     }
@@ -2599,7 +3330,7 @@ public class FTPClient implements FTPClientInterface {
         try {
 
             ByteArrayInputStream input = null;
-            if (retryCount == 0 || append) {
+            if ((retryCount == 0 && retryPolicy == null) || append) {
                 input = new ByteArrayInputStream(bytes);
                 result = putStream(input, remoteFile, append);
             } else {
@@ -2608,9 +3339,14 @@ public class FTPClient implements FTPClientInterface {
                         if (attempt > 1
                                 && getType().equals(FTPTransferType.BINARY))
                             resume();
-                        log.debug("Attempt #" + attempt);
+                        if (log.isDebugEnabled())
+                            log.debug("Attempt #" + attempt);
+                        transferAttempt = attempt;
+                        checkRetryPolicy();
                         input = new ByteArrayInputStream(bytes);
                         result = putStream(input, remoteFile, append);
+                        if (retryPolicy != null)
+                            retryPolicy.recordSuccess(remoteHost);
                         break;
                     } catch (ControlChannelIOException ex) {
                         if (!processControlChannelException(cwd, ex, attempt))
@@ -2624,6 +3360,8 @@ public class FTPClient implements FTPClientInterface {
                 }
             }
         } finally {
+            transferAttempt = 1;
+            lastRetryDelay = 0;
             resetTransferMode(previousType);
         }   
         postTransferChecks(bytes, remoteFile, currentTransferType, append);
@@ -2756,6 +3494,7 @@ public class FTPClient implements FTPClientInterface {
         boolean close = false;
         try {
             // set up data channel
+            startTiming("RETR", remoteFile);
             setupDataSocket();
             
             // if resume is requested, we must issue REST
@@ -2780,6 +3519,8 @@ public class FTPClient implements FTPClientInterface {
             // Can get a 125 or a 150
             String[] validCodes1 = {"125", "150"};
             lastValidReply = control.validateReply(lastReply, validCodes1);
+            if (timing != null)
+                timing.mark(TransferPhase.TRANSFER_COMMAND);
         }
         catch (IOException ex) {
             close = true;
@@ -2823,7 +3564,8 @@ public class FTPClient implements FTPClientInterface {
                 if (resumeMarker == 0)
                     resumeMarker = localFile.length();
                 else
-                    log.debug("Resume marker already set explicitly: " + resumeMarker);
+                    if (log.isDebugEnabled())
+                        log.debug("Resume marker already set explicitly: " + resumeMarker);
             }
             else
                 resumeMarker = 0;
@@ -2856,7 +3598,7 @@ public class FTPClient implements FTPClientInterface {
             getDataAfterInitGet(out);
         }
         catch (IOException ex) {
-            if (deleteOnFailure) {
+            if (deleteOnFailure && checkpoint == null) {
                 localFile.delete();
                 log.debug("Deleting local file '" + localFile.getAbsolutePath() + "'");
             }
@@ -2915,6 +3657,8 @@ public class FTPClient implements FTPClientInterface {
         
         BufferedInputStream in = null;
         long size = 0;
+        long traceStart = FTPTrace.start();
+        statistics.transferStarted();
         IOException storedEx = null;
         try {
             // get an input stream to read data from ... AFTER we have
@@ -2929,15 +3673,21 @@ public class FTPClient implements FTPClientInterface {
             int count;
             boolean isASCII = getType() == FTPTransferType.ASCII;
             long start = System.currentTimeMillis();
-            if (throttler != null) {
-                throttler.reset();
+            BandwidthThrottler currentThrottler = throttler;
+            if (currentThrottler != null) {
+                currentThrottler.reset();
             }
+            long checkpointBase = resume ? resumeMarker : 0;
+            long checkpointedSize = 0;
+            RollingChecksum checkpointHash = checkpoint != null ? startCheckpointing(checkpointBase) : null;
 
             byte[] prevBuf = new byte[FTP_LINE_SEPARATOR.length];
             int matchpos = 0;
 
             // read from socket & write to file in chunks        
             while ((count = readChunk(in, chunk, transferBufferSize)) >= 0 && !cancelTransfer) {
+                if (timing != null && size == 0)
+                    timing.markIfUnset(TransferPhase.FIRST_BYTE);
                 if (isASCII) {
                     for (int i = 0; i < count; i++) {
                         if (chunk[i] == FTP_LINE_SEPARATOR[matchpos]) {
@@ -2968,10 +3718,24 @@ public class FTPClient implements FTPClientInterface {
                     out.write(chunk, 0, count);
                     size += count;
                     monitorCount += count;
+                    if (checkpoint != null) {
+                        if (checkpointHash != null)
+                            checkpointHash.update(chunk, 0, count);
+                        if (size - checkpointedSize >= journal.getCheckpointInterval()) {
+                            // the checkpoint must not get ahead of the file
+                            out.flush();
+                            if (destStream instanceof FileOutputStream)
+                                ((FileOutputStream)destStream).getFD().sync();
+                            writeCheckpoint(checkpointBase + size, checkpointHash);
+                            checkpointedSize = size;
+                        }
+                    }
                 }
                 
-                if (throttler != null) {
-                    throttler.throttleTransfer(size);
+                statistics.bytesTransferred(count);
+                currentThrottler = throttler;
+                if (currentThrottler != null) {
+                    currentThrottler.throttleTransfer(size);
                 }
                 
                 if (monitor != null && monitorCount > monitorInterval) {
@@ -2994,6 +3758,7 @@ public class FTPClient implements FTPClientInterface {
         }
         catch (IOException ex) {
             storedEx = ex;
+            statistics.transferFailed();
             log.error("Caught and rethrowing exception in getDataAfterInitGet()", ex);
         }
         finally {
@@ -3010,6 +3775,14 @@ public class FTPClient implements FTPClientInterface {
     
             // close streams
             closeDataSocket(in);
+            if (timing != null) {
+                timing.markIfUnset(TransferPhase.DATA_TRANSFER);
+                timing.setBytes(size);
+            }
+            statistics.transferEnded();
+            if (traceStart != 0)
+                FTPTrace.emit(FTPTraceEventType.DOWNLOAD, remoteHost, "RETR", 
+                        null, size, traceStart, transferAttempt);
     
             // if we failed to write the file, rethrow the exception
             if (storedEx != null)
@@ -3018,7 +3791,8 @@ public class FTPClient implements FTPClientInterface {
                 monitor.bytesTransferred(size);  
     
             // log bytes transferred
-            log.debug("Transferred " + size + " bytes from remote host");
+            if (log.isDebugEnabled())
+                log.debug("Transferred " + size + " bytes from remote host");
         }
     }
 
@@ -3146,6 +3920,7 @@ public class FTPClient implements FTPClientInterface {
      */
     public void setFTPFileFactory(FTPFileFactory fileFactory) {
         this.fileFactory = fileFactory;
+        this.mlsdEnabled = false;
         log.debug("Set new FTPFileFactory: " + fileFactory.toString());
     }
     
@@ -3183,36 +3958,469 @@ public class FTPClient implements FTPClientInterface {
         
         checkConnection(true);
         
+        if (profile == null || !Boolean.FALSE.equals(profile.isSupported("MLST"))) {
+            try {
+                lastReply = control.sendCommand("MLST " + name);
+                String code = lastReply.getReplyCode();
+                if (code.equals("500") || code.equals("502"))
+                    recordSupport("MLST", false);
+                lastValidReply = control.validateReply(lastReply, "250");
+                recordSupport("MLST", true);
+                String[] data = lastReply.getReplyData();
+                if (data != null && data.length >= 2)
+                    return mlsxParser.parse(lastReply.getReplyData()[1]);
+                else
+                    throw new FTPException("Failed to retrieve data");
+            }
+            catch (IOException ex1) {
+                throw ex1;
+            }
+            catch (Exception ex1) {
+                log.debug("MLST failed: " + ex1.getMessage() + " Trying SIZE");
+            }
+        }
         try {
-            lastReply = control.sendCommand("MLST " + name);
-            lastValidReply = control.validateReply(lastReply, "250");
-            String[] data = lastReply.getReplyData();
-            if (data != null && data.length >= 2)
-                return mlsxParser.parse(lastReply.getReplyData()[1]);
-            else
-                throw new FTPException("Failed to retrieve data");
+            String wd = safePwd();
+            long size = size(name);
+            Date lastModified = modtime(name);
+            FTPFile file = new FTPFile("");
+            file.setName(name);
+            file.setLastModified(lastModified);
+            file.setSize(size);
+            file.setPath(wd);
+            return file;
         }
-        catch (IOException ex1) {
-            throw ex1;
+        catch (FTPException ex2) {
+            String msg = "Failed to retrieve file details for " + name + ": " + ex2.getMessage();
+            log.debug(msg);
+            throw new FTPException(msg);
         }
-        catch (Exception ex1) {
-            log.debug("MLST failed: " + ex1.getMessage() + " Trying SIZE");
+    }
+    
+    /**
+     * Are Unix listings parsed lazily?
+     * 
+     * @return true if lazy
+     */
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+    
+    /**
+     * Set lazy parsing of Unix listings. Parsing then only locates the
+     * fields of each line, and the FTPFile decodes each field the first 
+     * time it is asked for, which is several times faster when only a 
+     * few fields such as the name and size are used.
+     * 
+     * @param lazy  true to parse lazily
+     * @see UnixFileParser#setLazy(boolean)
+     */
+    public void setLazyParsing(boolean lazy) {
+        this.lazyParsing = lazy;
+        if (fileFactory != null)
+            fileFactory.setLazyParsing(lazy);
+    }
+    
+    /**
+     * Get the number of files in one directory at which the bulk
+     * queries list the directory rather than querying each file
+     * 
+     * @return threshold
+     */
+    public int getBulkQueryThreshold() {
+        return bulkQueryThreshold;
+    }
+    
+    /**
+     * Set the number of files in one directory at which the bulk
+     * queries list the directory rather than querying each file. 
+     * Fewer files are queried with pipelined commands, a round trip
+     * per batch rather than per file.
+     * 
+     * @param threshold   number of files
+     */
+    public void setBulkQueryThreshold(int threshold) {
+        this.bulkQueryThreshold = threshold;
+    }
+    
+    /**
+     * Check whether many files exist. The paths are grouped by
+     * directory. A directory holding at least the bulk query threshold 
+     * of them is listed once and the files looked up in the listing. 
+     * For smaller groups SIZE commands are pipelined, falling back to 
+     * listing if SIZE is not supported. As with existsFile(String), 
+     * a directory does not count as a file.
+     * 
+     * @param remoteFiles   paths of files, as Strings
+     * @return  Boolean.TRUE or Boolean.FALSE keyed by path
+     * @throws IOException
+     * @throws FTPException
+     */
+    public Hashtable existsFiles(Collection remoteFiles) 
+        throws IOException, FTPException {
+        
+        checkConnection(true);
+        Hashtable result = new Hashtable();
+        Hashtable groups = groupByDirectory(remoteFiles);
+        Enumeration e = groups.keys();
+        while (e.hasMoreElements()) {
+            String dir = (String)e.nextElement();
+            Vector paths = (Vector)groups.get(dir);
+            if (paths.size() < bulkQueryThreshold && sizeSupported && existsBySize(paths, result))
+                continue;
+            Hashtable found;
             try {
-                String wd = safePwd();
-                long size = size(name);
-                Date lastModified = modtime(name);
-                FTPFile file = new FTPFile("");
-                file.setName(name);
-                file.setLastModified(lastModified);
-                file.setSize(size);
-                file.setPath(wd);
-                return file;
-            }
-            catch (FTPException ex2) {
-                String msg = "Failed to retrieve file details for " + name + ": " + ex2.getMessage();
-                log.debug(msg);
-                throw new FTPException(msg);
+                found = listNamed(dir, paths);
+            }
+            catch (ParseException ex) {
+                log.warn(ex.getMessage());
+                found = new Hashtable();
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                String path = (String)paths.elementAt(i);
+                FTPFile file = (FTPFile)found.get(path);
+                result.put(path, file != null && file.isFile() ? Boolean.TRUE : Boolean.FALSE);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Get the details of many files. The paths are grouped by 
+     * directory. A directory holding at least the bulk query threshold 
+     * of them is listed once and the files looked up in the listing. 
+     * For smaller groups MLST commands are pipelined, falling back to 
+     * listing if MLST is not supported.
+     * 
+     * @param names   paths of files, as Strings
+     * @return  FTPFile keyed by path, for the files that exist
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public Hashtable fileDetails(Collection names)  
+        throws IOException, FTPException, ParseException {
+        
+        checkConnection(true);
+        Hashtable result = new Hashtable();
+        Hashtable groups = groupByDirectory(names);
+        Enumeration e = groups.keys();
+        while (e.hasMoreElements()) {
+            String dir = (String)e.nextElement();
+            Vector paths = (Vector)groups.get(dir);
+            if (paths.size() < bulkQueryThreshold && 
+                    (profile == null || !Boolean.FALSE.equals(profile.isSupported("MLST"))) &&
+                    detailsByMLST(paths, result))
+                continue;
+            result.putAll(listNamed(dir, paths));
+        }
+        return result;
+    }
+    
+    /**
+     * Group paths by their directory
+     * 
+     * @return  Vector of paths keyed by directory, "" for the current directory
+     */
+    private Hashtable groupByDirectory(Collection paths) {
+        Hashtable groups = new Hashtable();
+        Iterator i = paths.iterator();
+        while (i.hasNext()) {
+            String path = (String)i.next();
+            int pos = path.lastIndexOf('/');
+            String dir = pos < 0 ? "" : (pos == 0 ? "/" : path.substring(0, pos));
+            Vector group = (Vector)groups.get(dir);
+            if (group == null) {
+                group = new Vector();
+                groups.put(dir, group);
+            }
+            if (!group.contains(path))
+                group.addElement(path);
+        }
+        return groups;
+    }
+    
+    /**
+     * Get the last element of a path
+     */
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
+    /**
+     * Check existence with pipelined SIZE commands
+     * 
+     * @return  false if SIZE turned out not to be supported, in which
+     *          case the results are incomplete
+     */
+    private boolean existsBySize(Vector paths, Hashtable result) 
+        throws IOException, FTPException {
+        
+        for (int start = 0; start < paths.size(); start += PIPELINE_DEPTH) {
+            String[] commands = new String[Math.min(PIPELINE_DEPTH, paths.size() - start)];
+            for (int i = 0; i < commands.length; i++)
+                commands[i] = "SIZE " + paths.elementAt(start + i);
+            FTPReply[] replies = control.sendCommands(commands);
+            FTPReply failure = null;
+            for (int i = 0; i < replies.length; i++) {
+                lastReply = replies[i];
+                char ch = lastReply.getReplyCode().charAt(0);
+                if (ch == '2') {
+                    recordSupport("SIZE", true);
+                    result.put(paths.elementAt(start + i), Boolean.TRUE);
+                }
+                else if (ch == '5' && fileNotFoundStrings.matches(lastReply.getReplyText()))
+                    result.put(paths.elementAt(start + i), Boolean.FALSE);
+                else if (failure == null)
+                    failure = lastReply;
+            }
+            if (failure != null) {
+                sizeSupported = false;
+                recordUnsupported("SIZE", failure);
+                log.debug("SIZE not supported - trying LIST");
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Get file details with pipelined MLST commands
+     * 
+     * @return  false if MLST did not work, in which case the results 
+     *          are incomplete
+     */
+    private boolean detailsByMLST(Vector paths, Hashtable result) 
+        throws IOException, FTPException {
+        
+        for (int start = 0; start < paths.size(); start += PIPELINE_DEPTH) {
+            String[] commands = new String[Math.min(PIPELINE_DEPTH, paths.size() - start)];
+            for (int i = 0; i < commands.length; i++)
+                commands[i] = "MLST " + paths.elementAt(start + i);
+            FTPReply[] replies = control.sendCommands(commands);
+            boolean worked = true;
+            for (int i = 0; i < replies.length; i++) {
+                lastReply = replies[i];
+                String path = (String)paths.elementAt(start + i);
+                String code = lastReply.getReplyCode();
+                String[] data = lastReply.getReplyData();
+                if (code.equals("250") && data != null && data.length >= 2) {
+                    try {
+                        FTPFile file = mlsxParser.parse(data[1]);
+                        file.setName(baseName(path));
+                        result.put(path, file);
+                    }
+                    catch (ParseException ex) {
+                        log.debug("MLST reply for " + path + " unparseable: " + ex.getMessage());
+                        worked = false;
+                    }
+                }
+                else if (code.equals("500") || code.equals("502")) {
+                    recordSupport("MLST", false);
+                    worked = false;
+                }
+                else if (!code.startsWith("5"))
+                    worked = false;
             }
+            if (!worked) {
+                log.debug("MLST failed - trying LIST");
+                return false;
+            }
+            recordSupport("MLST", true);
+        }
+        return true;
+    }
+    
+    /**
+     * List a directory once, keeping only the named entries
+     * 
+     * @param dir    directory, "" for the current directory
+     * @param paths  paths of the entries wanted
+     * @return  FTPFile keyed by path for the entries found. Empty if 
+     *          the directory does not exist.
+     */
+    private Hashtable listNamed(String dir, Vector paths) 
+        throws IOException, FTPException, ParseException {
+        
+        final Hashtable wanted = new Hashtable();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = (String)paths.elementAt(i);
+            wanted.put(baseName(path), path);
+        }
+        final Hashtable found = new Hashtable();
+        try {
+            dirDetails(dir.length() == 0 ? "." : dir, new DirectoryListCallback() {
+                public void listDirectoryEntry(DirectoryListArgument arg) {
+                    FTPFile file = arg.getEntry();
+                    String path = (String)wanted.get(file.getName());
+                    if (path != null)
+                        found.put(path, file);
+                }
+            });
+        }
+        catch (FTPException ex) {
+            if (ex.getReplyCode() < 500 || ex.getReplyCode() >= 600)
+                throw ex;
+            log.debug("Failed to list '" + dir + "' - taking files as not found: " + ex.getMessage());
+        }
+        return found;
+    }
+    
+    /**
+     * Is MLSD enabled for dirDetails()?
+     * 
+     * @return true if MLSD is used when supported
+     */
+    public boolean isMLSDEnabled() {
+        return mlsdEnabled;
+    }
+    
+    /**
+     * Enable or disable the use of MLSD for dirDetails(). When enabled
+     * (the default), MLSD is used if the server's FEAT reply advertises 
+     * MLST, and LIST otherwise. MLSD listings are in a standard format 
+     * with UTC timestamps, so no format detection or locale guessing is 
+     * needed. Filemasks, and anything MLSD fails to list such as a plain
+     * file, are listed with LIST. Setting an FTPFileFactory disables MLSD.
+     * 
+     * @param enabled  true to use MLSD when supported
+     */
+    public void setMLSDEnabled(boolean enabled) {
+        this.mlsdEnabled = enabled;
+    }
+    
+    /**
+     * Is STAT used for LIST listings?
+     * 
+     * @return true if STAT is used when it works
+     */
+    public boolean isStatListingEnabled() {
+        return statListingEnabled;
+    }
+    
+    /**
+     * Enable or disable listing directories with STAT over the control
+     * channel instead of LIST over a data channel, which saves setting up
+     * the data channel - a round trip or more per listing. Many servers
+     * reply to STAT of a directory with the same lines as LIST. If the 
+     * server does not, LIST is used from then on; empty listings and 
+     * failures also fall back to LIST for that listing. The default is
+     * disabled.
+     * 
+     * @param enabled  true to use STAT when it works
+     */
+    public void setStatListingEnabled(boolean enabled) {
+        this.statListingEnabled = enabled;
+    }
+    
+    /**
+     * List a directory with STAT
+     * 
+     * @param dirname  directory to list, or null for the current one
+     * @param lines    lines received are added to this, if not null
+     * @param lister   callback for each line, if not null
+     * @return true if listed, false if LIST should be used instead
+     */
+    private boolean statList(String dirname, final Vector lines, final DirectoryCallback lister) 
+        throws IOException, FTPException, ParseException {
+        
+        checkConnection(true);
+        final int[] count = new int[1];
+        DirectoryCallback callback = new DirectoryCallback() {
+            public DirectoryListArgument listEntry(String entry) throws ParseException {
+                count[0]++;
+                if (lines != null)
+                    lines.addElement(entry);
+                return lister != null ? lister.listEntry(entry) : null;
+            }
+        };
+        // STAT with no argument reports on the session instead
+        String command = "STAT " + (dirname != null ? dirname : ".");
+        long traceStart = FTPTrace.start();
+        try {
+            lastReply = control.sendCommand(command, STAT_LISTING_CODES, callback);
+        }
+        finally {
+            if (traceStart != 0)
+                FTPTrace.emit(FTPTraceEventType.LISTING, remoteHost, "STAT", 
+                        lastReply != null ? lastReply.getReplyCode() : null, 0, traceStart, 1);
+        }
+        String code = lastReply.getReplyCode();
+        if (code.equals("212") || code.equals("213")) {
+            if (count[0] == 0) // maybe empty, maybe not a directory - let LIST decide
+                return false;
+            lastValidReply = lastReply;
+            if (statListingSupported == null) {
+                statListingSupported = Boolean.TRUE;
+                recordSupport("STAT", true);
+            }
+            return true;
+        }
+        if (code.equals("211") || code.equals("500") || code.equals("502") || code.equals("504")) {
+            log.info("STAT listing not supported - using LIST");
+            statListingSupported = Boolean.FALSE;
+            recordSupport("STAT", false);
+        }
+        return false;
+    }
+    
+    /**
+     * Should MLSD be used for a detailed listing? Checks FEAT the
+     * first time it is asked for each connection. MLSD only lists
+     * directories, so filemasks always go to LIST.
+     */
+    private boolean useMLSD(String dirname) throws IOException {
+        if (!mlsdEnabled)
+            return false;
+        if (dirname != null && (dirname.indexOf('*') >= 0 || 
+                dirname.indexOf('?') >= 0 || dirname.indexOf('[') >= 0))
+            return false;
+        if (mlsdSupported == null) {
+            boolean supported = false;
+            try {
+                String[] features = features();
+                for (int i = 0; i < features.length && !supported; i++) {
+                    String feature = features[i].toUpperCase();
+                    supported = feature.startsWith("MLST") || feature.equals("MLSD");
+                }
+            }
+            catch (FTPException ex) {
+                log.debug("FEAT failed - not using MLSD: " + ex.getMessage());
+            }
+            mlsdSupported = supported ? Boolean.TRUE : Boolean.FALSE;
+            recordSupport("MLSD", supported);
+        }
+        return mlsdSupported.booleanValue();
+    }
+    
+    /**
+     * List a directory with MLSD
+     * 
+     * @param dirname  directory to list
+     * @param lines    lines received are added to this, if not null
+     * @param lister   callback for each line, if not null
+     * @return true if listed, false if LIST should be used instead
+     */
+    private boolean mlsd(String dirname, Vector lines, DirectoryCallback lister) 
+        throws IOException, FTPException, ParseException {
+        try {
+            dir("MLSD", dirname, lines, lister);
+            return true;
+        }
+        catch (FTPException ex) {
+            String code = lastReply != null ? lastReply.getReplyCode() : null;
+            if ("500".equals(code) || "502".equals(code)) {
+                log.info("MLSD rejected - using LIST");
+                mlsdSupported = Boolean.FALSE;
+                recordSupport("MLSD", false);
+                return false;
+            }
+            // e.g. a plain file, which LIST accepts but MLSD does not
+            if (code != null && (code.startsWith("5") || code.equals("450"))) {
+                log.debug("MLSD failed (" + code + ") - trying LIST");
+                return false;
+            }
+            throw ex;
         }
     }
     
@@ -3232,35 +4440,250 @@ public class FTPClient implements FTPClientInterface {
         private FTPFileFactory fileFactory;
         private DirectoryListCallback lister;
         private String path;
+        private ListingQuery query;
+        private int matches = 0;
         
         DirectoryCallbackImpl(FTPFileFactory fileFactory, DirectoryListCallback lister, String path) {
+            this(fileFactory, lister, path, null);
+        }
+        
+        DirectoryCallbackImpl(FTPFileFactory fileFactory, DirectoryListCallback lister, String path, ListingQuery query) {
             this.fileFactory = fileFactory;
             this.lister = lister;
             this.path = path;
+            this.query = query;
         }
         
         public DirectoryListArgument listEntry(String entry) throws ParseException {
-            FTPFile file = fileFactory.parse(entry);
-             if (lister != null && file != null) {
+            // no factory for MLSD listings
+            FTPFile file = fileFactory != null ? fileFactory.parse(entry, query) : mlsxParser.parse(entry, true, query);
+            if (file != null && query != null && !query.accepts(file))
+                return null;
+            if (lister != null && file != null) {
                 file.setPath(path);
                 DirectoryListArgument arg = new DirectoryListArgument(file);
                 lister.listDirectoryEntry(arg);
+                if (query != null && query.getMaxResults() > 0 && ++matches >= query.getMaxResults())
+                    arg.abortListing();
                 return arg;
             }
             return null;
         }
     }
     
+    /**
+     * Internal use only. Parses a LIST -R listing, which is made up of 
+     * sections separated by blank lines, each but perhaps the first 
+     * headed by the path of its directory and a colon, e.g. "./sub:".
+     */
+    class RecursiveListingCallback implements DirectoryCallback {
+        
+        private FTPFileFactory fileFactory;
+        private DirectoryListCallback lister;
+        
+        /**
+         * Path of the directory listed, null if not known
+         */
+        private String rootPath;
+        
+        /**
+         * Header of the first section, as a key
+         */
+        private String rootKey = null;
+        
+        /**
+         * Directories listed so far, keyed by header path
+         */
+        private Hashtable dirs = new Hashtable();
+        
+        /**
+         * Entries of the directory listed. Sections whose directory 
+         * wasn't found are dropped.
+         */
+        private Vector roots = new Vector();
+        
+        private Vector section = new Vector();
+        private String sectionKey = "";
+        private String sectionPath;
+        private FTPFile sectionDir = null;
+        private boolean sectionStart = true;
+        
+        /**
+         * True while reading the first section, i.e. the directory listed
+         */
+        private boolean inRoot = true;
+        
+        RecursiveListingCallback(FTPFileFactory fileFactory, DirectoryListCallback lister, String path) {
+            this.fileFactory = fileFactory;
+            this.lister = lister;
+            this.rootPath = path;
+            this.sectionPath = path;
+        }
+        
+        public DirectoryListArgument listEntry(String entry) throws ParseException {
+            if (entry.trim().length() == 0) {
+                endSection();
+                sectionStart = true;
+                return null;
+            }
+            if (sectionStart && entry.endsWith(":")) {
+                startSection(entry.substring(0, entry.length()-1));
+                sectionStart = false;
+                return null;
+            }
+            sectionStart = false;
+            if (rootKey == null) // first section has no header
+                rootKey = "";
+            FTPFile file = fileFactory.parse(entry);
+            if (file == null)
+                return null;
+            file.setPath(sectionPath);
+            section.addElement(file);
+            String name = file.getName();
+            if (file.isDir() && name != null && !name.equals(".") && !name.equals(".."))
+                dirs.put(sectionKey.length() == 0 ? name : 
+                    (sectionKey.endsWith("/") ? sectionKey : sectionKey + "/") + name, file);
+            if (lister != null) {
+                DirectoryListArgument arg = new DirectoryListArgument(file);
+                lister.listDirectoryEntry(arg);
+                return arg;
+            }
+            return null;
+        }
+        
+        private void startSection(String header) {
+            endSection();
+            String key = normalize(header);
+            if (rootKey == null) {
+                rootKey = key;
+                sectionKey = key;
+                sectionDir = null;
+                sectionPath = rootPath != null ? rootPath : (key.startsWith("/") ? key : null);
+                return;
+            }
+            // an absolute header below a directory listed relatively
+            if (rootKey.length() == 0 && rootPath != null && key.startsWith(rootPath + "/"))
+                key = key.substring(rootPath.length() + 1);
+            sectionKey = key;
+            inRoot = false;
+            sectionDir = (FTPFile)dirs.get(key);
+            if (sectionDir == null)
+                log.debug("No directory found for section '" + header + "' - its entries are not returned");
+            if (rootPath != null && rootKey.length() == 0 && !key.startsWith("/"))
+                sectionPath = rootPath + "/" + key;
+            else if (rootPath != null && key.startsWith(rootKey + "/"))
+                sectionPath = rootPath + key.substring(rootKey.length());
+            else
+                sectionPath = key;
+        }
+        
+        /**
+         * Reduce a header to a key, so that e.g. "./sub/./x/" and 
+         * "sub/x" are the same directory
+         */
+        private String normalize(String header) {
+            StringBuffer key = new StringBuffer();
+            if (header.startsWith("/"))
+                key.append('/');
+            StringTokenizer parts = new StringTokenizer(header, "/");
+            while (parts.hasMoreTokens()) {
+                String part = parts.nextToken();
+                if (part.equals("."))
+                    continue;
+                if (key.length() > 0 && key.charAt(key.length()-1) != '/')
+                    key.append('/');
+                key.append(part);
+            }
+            return key.toString();
+        }
+        
+        private void endSection() {
+            if (section.isEmpty())
+                return;
+            if (sectionDir != null) {
+                FTPFile[] children = new FTPFile[section.size()];
+                section.copyInto(children);
+                sectionDir.setChildren(children);
+            }
+            else if (inRoot) {
+                for (int i = 0; i < section.size(); i++)
+                    roots.addElement(section.elementAt(i));
+            }
+            section = new Vector();
+        }
+        
+        /**
+         * Get the entries of the directory listed, once the listing
+         * has been read
+         * 
+         * @return entries
+         */
+        FTPFile[] getEntries() {
+            endSection();
+            FTPFile[] result = new FTPFile[roots.size()];
+            roots.copyInto(result);
+            return result;
+        }
+    }
+    
     /*
      *  (non-Javadoc)
      * @see com.enterprisedt.net.ftp.FTPClientInterface#dirDetails(java.lang.String,com.enterprisedt.net.ftp.DirectoryListCallback)
      */
     public void dirDetails(String dirname, DirectoryListCallback lister) 
         throws IOException, FTPException, ParseException {
+        dirDetails(dirname, null, lister);
+    }
+    
+    /**
+     * List a directory's contents, passing only the entries that satisfy
+     * a query to the callback. What the parsers can check of the query is
+     * checked before a line is fully parsed, and the listing is abandoned 
+     * once the query's maximum number of entries has been found.
+     * 
+     * @param dirname   name of directory (some servers permit a filemask)
+     * @param query     entries wanted, or null for all
+     * @param lister    callback to be notified of each entry
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public void dirDetails(String dirname, ListingQuery query, DirectoryListCallback lister) 
+        throws IOException, FTPException, ParseException {
 
+        if (useMLSD(dirname)) {
+            String path = getListingPath(dirname);
+            if (mlsd(dirname, null, new DirectoryCallbackImpl(null, lister, path, query)))
+                return;
+        }
         String path = setupDirDetails(dirname);      
-        DirectoryCallbackImpl callback = new DirectoryCallbackImpl(fileFactory, lister, path);        
-        dir(dirname, true, null, callback);
+        DirectoryCallbackImpl callback = new DirectoryCallbackImpl(fileFactory, lister, path, query);        
+        dir("LIST", dirname, null, callback);
+    }
+    
+    /**
+     * List a directory's contents, returning only the entries that 
+     * satisfy a query
+     * 
+     * @param dirname   name of directory (some servers permit a filemask)
+     * @param query     entries wanted
+     * @return  entries selected, in the order listed
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public FTPFile[] dirDetails(String dirname, ListingQuery query) 
+        throws IOException, FTPException, ParseException {
+        
+        final Vector files = new Vector();
+        dirDetails(dirname, query, new DirectoryListCallback() {
+            public void listDirectoryEntry(DirectoryListArgument arg) {
+                files.addElement(arg.getEntry());
+            }
+        });
+        FTPFile[] result = new FTPFile[files.size()];
+        files.copyInto(result);
+        return result;
     }
 
     /*
@@ -3270,19 +4693,102 @@ public class FTPClient implements FTPClientInterface {
     public FTPFile[] dirDetails(String dirname) 
         throws IOException, FTPException, ParseException {
         
+        if (useMLSD(dirname)) {
+            String path = getListingPath(dirname);
+            Vector lines = new Vector();
+            if (mlsd(dirname, lines, null)) {
+                Vector files = new Vector(lines.size());
+                for (int i = 0; i < lines.size(); i++) {
+                    FTPFile file = mlsxParser.parse((String)lines.elementAt(i), true);
+                    if (file != null) {
+                        if (path != null)
+                            file.setPath(path);
+                        files.addElement(file);
+                    }
+                }
+                FTPFile[] result = new FTPFile[files.size()];
+                files.copyInto(result);
+                return result;
+            }
+        }
+        
         String path = setupDirDetails(dirname);
                 
         // get the details and parse. Set the directory for each file
         FTPFile[] result = fileFactory.parse(dir(dirname, true));
+        if (profile != null && result.length > 0) {
+            profile.setParser(fileFactory.getDetectedParser());
+            profile.setLocale(fileFactory.getLocale());
+        }
         if (path != null) {
             for (int i = 0; i < result.length; i++) {
                 result[i].setPath(path);
             }
         }
-                
+
         return result;
     }
+
+    /**
+     * List a directory's details into a {@link CompactListing}, which
+     * takes much less memory than an array of FTPFile objects for very
+     * large directories. Entries are added as they are parsed.
+     *
+     * @param dirname   name of directory (some servers permit a filemask)
+     * @param keepRaw   true to keep the raw listing lines
+     * @return  compact listing
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public CompactListing dirDetailsCompact(String dirname, boolean keepRaw)
+        throws IOException, FTPException, ParseException {
+        CompactListing listing = new CompactListing(keepRaw);
+        dirDetails(dirname, listing);
+        listing.trimToSize();
+        return listing;
+    }
+
+    /**
+     * List a whole directory tree with a single LIST -R, rather than a
+     * listing - and a data connection - per directory. The listing is
+     * parsed as it is read, section by section. Each entry's path is 
+     * set to its directory, and each directory's entries are available
+     * from {@link FTPFile#listFiles()}. Servers that ignore -R return 
+     * just the directory's own entries. MLSD has no recursive form, so 
+     * LIST is always used.
+     * 
+     * @param dirname   name of directory, or null for the current one
+     * @return  entries of the directory
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     */
+    public FTPFile[] dirDetailsRecursive(String dirname)
+        throws IOException, FTPException, ParseException {
+        return dirDetailsRecursive(dirname, null);
+    }
     
+    /**
+     * List a whole directory tree with a single LIST -R, passing each
+     * entry to a callback as it is parsed
+     * 
+     * @param dirname   name of directory, or null for the current one
+     * @param lister    callback to be notified of each entry, or null
+     * @return  entries of the directory
+     * @throws IOException
+     * @throws FTPException
+     * @throws ParseException
+     * @see #dirDetailsRecursive(String)
+     */
+    public FTPFile[] dirDetailsRecursive(String dirname, DirectoryListCallback lister)
+        throws IOException, FTPException, ParseException {
+        String path = setupDirDetails(dirname);
+        RecursiveListingCallback callback = new RecursiveListingCallback(fileFactory, lister, path);
+        dir("LIST -R", dirname, null, callback);
+        return callback.getEntries();
+    }
+
     /**
      * Setup the dirDetails method
      * 
@@ -3301,9 +4807,31 @@ public class FTPClient implements FTPClientInterface {
                 log.warn("SYST command failed - setting Unix as default parser", ex);
                 fileFactory = new FTPFileFactory(FTPFileFactory.UNIX_STR);
             }
+            if (profile != null && profile.getParser() != null)
+                fileFactory.setDetectedParser(profile.getParser());
+            fileFactory.setLazyParsing(lazyParsing);
+        }
+        Locale known = profile != null ? profile.getLocale() : null;
+        if (known != null && !known.equals(listingLocales[0])) {
+            // try the locale that worked before first
+            Locale[] locales = new Locale[listingLocales.length+1];
+            locales[0] = known;
+            System.arraycopy(listingLocales, 0, locales, 1, listingLocales.length);
+            fileFactory.setLocales(locales);
         }
-        fileFactory.setLocales(listingLocales);
+        else
+            fileFactory.setLocales(listingLocales);
         
+        return getListingPath(dirname);
+    }
+    
+    /**
+     * Get the path of the directory being listed
+     * 
+     * @param dirname   directory supplied to the listing
+     * @return path, or null if not known
+     */
+    private String getListingPath(String dirname) throws IOException {
         String path = safePwd();
         
         // add dirname to path if it looks like a directory name
@@ -3314,7 +4842,7 @@ public class FTPClient implements FTPClientInterface {
 
             path += "/" + dirname;
         }
-        log.debug("setupDirDetails("+ dirname + ") returning: " + path);
+        log.debug("getListingPath({0}) returning: {1}", dirname, path);
         
         return path;
     }
@@ -3344,20 +4872,31 @@ public class FTPClient implements FTPClientInterface {
      *  (non-Javadoc)
      * @see com.enterprisedt.net.ftp.FTPClientInterface#dir(java.lang.String, boolean)
      */
-    private void dir(String dirname, boolean full, Vector lines, DirectoryCallback lister)
+    private void dir(String verb, String dirname, Vector lines, DirectoryCallback lister)
         throws IOException, FTPException, ParseException {
         
+        if (verb.equals("LIST") && statListingEnabled && 
+                (statListingSupported == null || statListingSupported.booleanValue())) {
+            if (statList(dirname, lines, lister))
+                return;
+        }
+        
         checkConnection(true);
         
         // reset the cancel flag
         cancelTransfer = false;
+        boolean aborted = false;
         
+        long size = 0;
+        long traceStart = FTPTrace.start();
+        statistics.transferStarted();
         try {
             // set up data channel
+            startTiming(verb, dirname);
             setupDataSocket();
     
             // send the retrieve command
-            String command = full ? "LIST ":"NLST ";
+            String command = verb + " ";
             if (dirname != null)
                 command += dirname;
     
@@ -3370,6 +4909,8 @@ public class FTPClient implements FTPClientInterface {
             // proFTPD returns 450 or 226 (depending on NLST or LIST)
             String[] validCodes1 = {"125", "150", "226", "450", "550"};
             lastValidReply = control.validateReply(lastReply, validCodes1);  
+            if (timing != null)
+                timing.mark(TransferPhase.TRANSFER_COMMAND);
     
             // an empty array of files for 450/550
             String[] result = new String[0];
@@ -3386,6 +4927,9 @@ public class FTPClient implements FTPClientInterface {
                     // read a line at a time
                     String line = null;
                     while ((line = readLine(in)) != null && !cancelTransfer) {
+                        if (timing != null && size == 0)
+                            timing.markIfUnset(TransferPhase.FIRST_BYTE);
+                        size += line.length() + FTP_LINE_SEPARATOR.length;
                         if (lines != null)
                             lines.addElement(line);
                         if (lister != null) {
@@ -3393,6 +4937,7 @@ public class FTPClient implements FTPClientInterface {
                             if (arg != null && arg.isListingAborted()) {
                                 log.warn("Aborting listing");
                                 cancelTransfer = true;
+                                aborted = true;
                             }
                         }
                         log.log(Level.ALL, line, null);
@@ -3415,8 +4960,20 @@ public class FTPClient implements FTPClientInterface {
                     
                 // check the control response
                 String[] validCodes2 = {"226", "250"};
+                if (timing != null) {
+                    timing.markIfUnset(TransferPhase.DATA_TRANSFER);
+                    timing.setBytes(size);
+                }
                 lastReply = control.readReply();
-                lastValidReply = control.validateReply(lastReply, validCodes2);
+                if (aborted) {
+                    // the server may report the early close as a failure
+                    lastValidReply = lastReply;
+                    timing = null;
+                }
+                else {
+                    lastValidReply = control.validateReply(lastReply, validCodes2);
+                    completeTiming();
+                }
     
                 // empty array is default
                 if (lines != null && !lines.isEmpty()) {
@@ -3424,6 +4981,11 @@ public class FTPClient implements FTPClientInterface {
                     lines.copyInto(result);
                 }
             }
+            else if (verb.equals("MLSD") && !replyCode.equals("226")) {
+                // MLSD lists an empty directory normally, so leave it to
+                // LIST to decide whether this is a plain file or nothing
+                throw new FTPException(lastReply);
+            }
             else { // throw exception if not "No files" or other message
                 String replyText = lastValidReply.getReplyText().toUpperCase();
                 if (!dirEmptyStrings.matches(replyText)
@@ -3433,6 +4995,11 @@ public class FTPClient implements FTPClientInterface {
         }
         finally {
             closeDataSocket();
+            statistics.bytesTransferred(size);
+            statistics.transferEnded();
+            if (traceStart != 0)
+                FTPTrace.emit(FTPTraceEventType.LISTING, remoteHost, verb, 
+                        lastReply != null ? lastReply.getReplyCode() : null, size, traceStart, 1);
         }        
     }
     
@@ -3446,7 +5013,7 @@ public class FTPClient implements FTPClientInterface {
         
         Vector lines = new Vector();
         try {
-            dir(dirname, full, lines, null);
+            dir(full ? "LIST" : "NLST", dirname, lines, null);
         }
         catch (ParseException ignore) {}
         
@@ -3577,6 +5144,13 @@ public class FTPClient implements FTPClientInterface {
         String typeStr = FTPTransferType.ASCII_CHAR;
         if (type.equals(FTPTransferType.BINARY))
             typeStr = FTPTransferType.BINARY_CHAR;
+        
+        // already set on the server?
+        if (sessionState != null && type.equals(sessionState.getType())) {
+            sessionState.typeElided();
+            transferType = type;
+            return;
+        }
 
         // send the command
         String[] validCodes = {"200", "250"};
@@ -3585,6 +5159,8 @@ public class FTPClient implements FTPClientInterface {
 
         // record the type
         transferType = type;
+        if (sessionState != null)
+            sessionState.setType(type);
     }
 
     
@@ -3662,8 +5238,19 @@ public class FTPClient implements FTPClientInterface {
     	
     	checkConnection(true);
     	
+        if (sessionState != null && sessionState.getDirectory() != null && dir.indexOf("..") < 0 &&
+                sessionState.getDirectory().equals(sessionState.resolve(dir))) {
+            sessionState.cwdElided();
+            return;
+        }
+    	
+        setWorkingDirectory(null, false);
         lastReply = control.sendCommand("CWD " + dir);
         lastValidReply = control.validateReply(lastReply, "250");
+        if (dir.startsWith("/") && dir.indexOf("..") < 0)
+            setWorkingDirectory(dir, true);
+        if (sessionState != null)
+            sessionState.directoryChanged(dir);
     }
     
     /*
@@ -3675,6 +5262,9 @@ public class FTPClient implements FTPClientInterface {
         
         checkConnection(true);
         
+        setWorkingDirectory(null, false);
+        if (sessionState != null)
+            sessionState.setDirectory(null);
         if (cdupSupported) {       
             lastReply = control.sendCommand("CDUP");
             String[] validCodes = {"200", "250"};       
@@ -3683,6 +5273,7 @@ public class FTPClient implements FTPClientInterface {
             }
             catch (FTPException ex) {
                 cdupSupported = false;
+                recordUnsupported("CDUP", lastReply);
                 log.debug("CDUP failed: " + ex.getMessage() + ". Trying CD");
             }
         }
@@ -3704,7 +5295,7 @@ public class FTPClient implements FTPClientInterface {
         lastValidReply = control.validateReply(lastReply, "213");
 
         // parse the reply string ...
-        Date ts = tsFormat.parse(lastValidReply.getReplyText(),
+        Date ts = ((SimpleDateFormat)tsFormat.get()).parse(lastValidReply.getReplyText(),
                                  new ParsePosition(0));
         return ts;
     }
@@ -3718,7 +5309,7 @@ public class FTPClient implements FTPClientInterface {
         
         checkConnection(true);
         
-        String time = tsFormat.format(modTime);
+        String time = ((SimpleDateFormat)tsFormat.get()).format(modTime);
         lastReply = control.sendCommand("MFMT " + time + " " + remoteFile);
         lastValidReply = control.validateReply(lastReply, "213");
     }
@@ -3733,6 +5324,12 @@ public class FTPClient implements FTPClientInterface {
     	
     	checkConnection(true);
     	
+        if (sessionState != null && sessionState.getDirectory() != null) {
+            sessionState.pwdElided();
+            setWorkingDirectory(sessionState.getDirectory(), true);
+            return sessionState.getDirectory();
+        }
+    	
         lastReply = control.sendCommand("PWD");
         lastValidReply = control.validateReply(lastReply, "257");
 
@@ -3742,10 +5339,11 @@ public class FTPClient implements FTPClientInterface {
         String text = lastValidReply.getReplyText();
         int start = text.indexOf('"');
         int end = text.lastIndexOf('"');
-        if (start >= 0 && end > start)
-            return text.substring(start+1, end);
-        else
-            return text;
+        String dir = (start >= 0 && end > start) ? text.substring(start+1, end) : text;
+        if (sessionState != null)
+            sessionState.setDirectory(dir);
+        setWorkingDirectory(dir, true);
+        return dir;
     }
     
     private String safePwd() throws IOException {
@@ -3771,6 +5369,9 @@ public class FTPClient implements FTPClientInterface {
         
         checkConnection(true);
         
+        if (profile != null && profile.getFeatures() != null)
+            return (String[])profile.getFeatures().clone();
+        
         lastReply = control.sendCommand("FEAT");
         String[] validCodes = {"211", "500", "502"};
         lastValidReply = control.validateReply(lastReply, validCodes);
@@ -3787,6 +5388,8 @@ public class FTPClient implements FTPClientInterface {
             else {// no features but command supported
                 features = new String[0];
             }
+            if (profile != null)
+                profile.setFeatures((String[])features.clone());
             return features;
         }
         else
@@ -3803,9 +5406,14 @@ public class FTPClient implements FTPClientInterface {
     	
     	checkConnection(true);
     	
+        if (profile != null && profile.getSystem() != null)
+            return profile.getSystem();
+    	
         lastReply = control.sendCommand("SYST");
         String[] validCodes = {"200", "213", "215", "250"}; // added 250 for leitch
         lastValidReply = control.validateReply(lastReply, validCodes);
+        if (profile != null)
+            profile.setSystem(lastValidReply.getReplyText());
         return lastValidReply.getReplyText();
     }    
     
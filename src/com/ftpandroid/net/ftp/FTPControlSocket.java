@@ -9,6 +9,7 @@ import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.SocketException;
+import java.text.ParseException;
 import java.util.Random;
 import java.util.Vector;
 
@@ -145,6 +146,26 @@ import com.ftpandroid.connx.proxy.StreamSocket;
       */
      protected DataChannelCallback dataChannelCallback = null;
      
+     /**
+      * System.nanoTime() at which the last PASV or PORT reply was validated
+      */
+     protected long dataChannelReplyNanos = 0;
+     
+     /**
+      * Time (ms since epoch) a command was last sent or a reply received
+      */
+     private volatile long lastActivity = System.currentTimeMillis();
+     
+     /**
+      * Text of the server's greeting
+      */
+     private String greeting = null;
+     
+     /**
+      * Statistics of the owning client, counts commands sent
+      */
+     private TransferStatistics statistics = null;
+     
      /**
       *   Constructor. Performs TCP connection and
       *   sets up reader/writer. Allows different control
@@ -226,6 +247,16 @@ import com.ftpandroid.connx.proxy.StreamSocket;
          FTPReply reply = readReply();
          String[] validCodes = {"220", "230"};
          validateReply(reply, validCodes);
+         greeting = reply.getReplyText();
+     }
+     
+     /**
+      * Get the text of the server's greeting
+      * 
+      * @return greeting, or null if not connected
+      */
+     String getGreeting() {
+         return greeting;
      }
 
 
@@ -500,6 +531,15 @@ import com.ftpandroid.connx.proxy.StreamSocket;
         this.dataChannelCallback = callback;
     }
     
+    /**
+     * Set the statistics that sent commands are counted in
+     * 
+     * @param statistics  client statistics
+     */
+    void setStatistics(TransferStatistics statistics) {
+        this.statistics = statistics;
+    }
+    
     
     /**
      * We can force PORT to send a fixed IP address, which can be useful with certain
@@ -607,6 +647,7 @@ import com.ftpandroid.connx.proxy.StreamSocket;
         FTPReply reply = sendCommand(cmd);
         String[] validCodes = {"200", "250"};
         validateReply(reply, validCodes);
+        dataChannelReplyNanos = System.nanoTime();
      }
 
      /**
@@ -623,6 +664,7 @@ import com.ftpandroid.connx.proxy.StreamSocket;
          // a connection attempt rather than initiating it
          FTPReply replyObj = sendCommand("PASV");
          validateReply(replyObj, "227");
+         dataChannelReplyNanos = System.nanoTime();
          String reply = replyObj.getReplyText();
 
          int[] parts = getPASVParts(reply);
@@ -660,6 +702,25 @@ import com.ftpandroid.connx.proxy.StreamSocket;
          return newPassiveDataSocket(hostIP, port);
      }
           
+     /**
+      * Get the time at which the last PASV or PORT reply was
+      * validated, i.e. the end of the data channel setup round trip
+      * 
+      * @return System.nanoTime() value
+      */
+     long getDataChannelReplyNanos() {
+         return dataChannelReplyNanos;
+     }
+     
+     /**
+      * Get the time a command was last sent or a reply received
+      * 
+      * @return time in ms since the epoch
+      */
+     long getLastActivityTime() {
+         return lastActivity;
+     }
+     
      protected boolean usingProxy() {
          return false;
      }
@@ -788,12 +849,78 @@ import com.ftpandroid.connx.proxy.StreamSocket;
      public FTPReply sendCommand(String command)
          throws IOException, IOException, FTPException {
          
+         long start = FTPTrace.start();
          writeCommand(command);
          
          // and read the result
-         return readReply();
+         FTPReply reply = readReplyInternal();
+         lastActivity = System.currentTimeMillis();
+         if (start != 0)
+             FTPTrace.emit(FTPTraceEventType.COMMAND, remoteAddr.getHostAddress(), 
+                     FTPTrace.verb(command), reply.getReplyCode(), 0, start, 1);
+         return reply;
      }
-     
+
+     /**
+      *  Send several commands to the FTP server without waiting
+      *  for each reply, then read the replies in order. Saves a
+      *  round trip per command, so only commands that cannot open
+      *  a data channel or change the session should be sent this way.
+      *
+      *  @param commands   commands to send
+      *  @return  replies, one per command
+      */
+     FTPReply[] sendCommands(String[] commands)
+         throws IOException, FTPException {
+
+         long start = FTPTrace.start();
+         for (int i = 0; i < commands.length; i++)
+             write(commands[i], false);
+         try {
+             writer.flush();
+         }
+         catch (IOException ex) {
+             throw new ControlChannelIOException(ex.getMessage());
+         }
+         FTPReply[] replies = new FTPReply[commands.length];
+         for (int i = 0; i < commands.length; i++) {
+             replies[i] = readReplyInternal();
+             if (start != 0)
+                 FTPTrace.emit(FTPTraceEventType.COMMAND, remoteAddr.getHostAddress(),
+                         FTPTrace.verb(commands[i]), replies[i].getReplyCode(), 0, start, 1);
+         }
+         lastActivity = System.currentTimeMillis();
+         return replies;
+     }
+
+     /**
+      *  Send a command whose reply carries data on its continuation
+      *  lines, e.g. STAT of a directory, handing each line to a callback
+      *  as it is read rather than collecting the lines in the reply. The 
+      *  lines are only streamed if the reply code is one of those given; 
+      *  otherwise the reply is read as usual. Once the callback aborts
+      *  the listing, the rest of the reply is read but not passed on.
+      *
+      *  @param command      command to send
+      *  @param dataCodes    reply codes whose lines are data
+      *  @param lister       callback for each data line
+      *  @return  reply, without the data lines
+      *  @throws ParseException  if the callback failed, after the whole
+      *                          reply has been read
+      */
+     FTPReply sendCommand(String command, String[] dataCodes, FTPClient.DirectoryCallback lister)
+         throws IOException, FTPException, ParseException {
+
+         long start = FTPTrace.start();
+         writeCommand(command);
+         FTPReply reply = readReplyInternal(dataCodes, lister);
+         lastActivity = System.currentTimeMillis();
+         if (start != 0)
+             FTPTrace.emit(FTPTraceEventType.COMMAND, remoteAddr.getHostAddress(), 
+                     FTPTrace.verb(command), reply.getReplyCode(), 0, start, 1);
+         return reply;
+     }
+
      /**
       *  Send a command to the FTP server. Don't
       *  read the reply
@@ -802,13 +929,27 @@ import com.ftpandroid.connx.proxy.StreamSocket;
       */     
      void writeCommand(String command)
          throws IOException {
-         
-         log(DEBUG_ARROW + command, true);
+
+         write(command, true);
+     }
+
+     /**
+      *  Write a command, optionally flushing it to the server
+      */
+     private void write(String command, boolean flush)
+         throws IOException {
+
+         if (messageListener != null || log.isDebugEnabled())
+             log(DEBUG_ARROW + command, true);
+         if (statistics != null)
+             statistics.commandSent();
+         lastActivity = System.currentTimeMillis();
          
          // send it
          try {
              writer.write(command + EOL);
-             writer.flush();  
+             if (flush)
+                 writer.flush();
          }
          catch (IOException ex) {
              throw new ControlChannelIOException(ex.getMessage());
@@ -867,6 +1008,43 @@ import com.ftpandroid.connx.proxy.StreamSocket;
      FTPReply readReply()
          throws IOException, FTPException {
          
+         long start = FTPTrace.start();
+         FTPReply reply = readReplyInternal();
+         lastActivity = System.currentTimeMillis();
+         if (start != 0)
+             FTPTrace.emit(FTPTraceEventType.REPLY, remoteAddr.getHostAddress(), 
+                     null, reply.getReplyCode(), 0, start, 1);
+         return reply;
+     }
+     
+     /**
+      *  Read the FTP server's reply to a previously
+      *  issued command. Not traced.
+      *
+      *  @return  reply object
+      */
+     private FTPReply readReplyInternal()
+         throws IOException, FTPException {
+         
+         try {
+             return readReplyInternal(null, null);
+         }
+         catch (ParseException ex) { // only thrown by a callback
+             throw new FTPException(ex.getMessage());
+         }
+     }
+     
+     /**
+      *  Read the FTP server's reply, streaming the continuation lines
+      *  of replies with one of the data codes to a callback
+      *
+      *  @param dataCodes    reply codes whose lines are data, or null
+      *  @param lister       callback for each data line, or null
+      *  @return  reply object
+      */
+     private FTPReply readReplyInternal(String[] dataCodes, FTPClient.DirectoryCallback lister)
+         throws IOException, FTPException, ParseException {
+         
          String line = readLine();
          while (line != null && line.trim().length() == 0)
              line = readLine();
@@ -887,10 +1065,54 @@ import com.ftpandroid.connx.proxy.StreamSocket;
              reply.append(line.substring(4));
                   
          Vector dataLines = null;
+         
+         boolean stream = false;
+         for (int i = 0; lister != null && i < dataCodes.length; i++) {
+             if (dataCodes[i].equals(replyCode))
+                 stream = true;
+         }
+         ParseException listerError = null;
+         boolean aborted = false;
 
          // check for multi-line response and build up
          // the reply
-         if (line.length() > 3 && line.charAt(3) == '-') {
+         if (line.length() > 3 && line.charAt(3) == '-' && stream) {
+             // the first and last lines are the reply text, the rest data
+             boolean complete = false;
+             while (!complete) {
+                 line = readLine();
+                 if (line.length() == 0)
+                     continue;
+                 log(line, false);
+                 if (line.length() > 3 &&
+                         line.substring(0, 3).equals(replyCode) &&
+                         line.charAt(3) == ' ') {
+                     line = line.substring(3).trim();
+                     if (line.length() > 0) {
+                         if (reply.length() > 0) 
+                             reply.append(" ");
+                         reply.append(line);
+                     }
+                     complete = true;
+                 }
+                 else if (!aborted) {
+                     // servers may indent lines so they don't look like a reply code
+                     int pos = 0;
+                     while (pos < line.length() && Character.isWhitespace(line.charAt(pos)))
+                         pos++;
+                     try {
+                         DirectoryListArgument arg = lister.listEntry(line.substring(pos));
+                         if (arg != null && arg.isListingAborted())
+                             aborted = true;
+                     }
+                     catch (ParseException ex) {
+                         listerError = ex;
+                         aborted = true;
+                     }
+                 }
+             }
+         }
+         else if (line.length() > 3 && line.charAt(3) == '-') {
              dataLines = new Vector();
              
              // if first line has data, add to data list
@@ -934,6 +1156,8 @@ import com.ftpandroid.connx.proxy.StreamSocket;
              } // end while
          } // end if
          
+         if (listerError != null)
+             throw listerError;
          if (dataLines != null) {
              String[] data = new String[dataLines.size()];
              dataLines.copyInto(data);
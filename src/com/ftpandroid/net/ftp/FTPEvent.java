@@ -0,0 +1,101 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  An event reported to an {@link EventListener}, held in structured
+ *  form by {@link BoundedEventCollector}. Immutable.
+ *
+ *  @author      Eric
+ */
+public class FTPEvent {
+
+    private FTPEventType type;
+    
+    private long timestamp;
+    
+    private String connId;
+    
+    /**
+     * Command, reply or remote file name
+     */
+    private String payload;
+    
+    /**
+     * Bytes transferred, for progress events
+     */
+    private long count;
+    
+    /**
+     * Constructor
+     */
+    FTPEvent(FTPEventType type, String connId, String payload, long count) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.connId = connId;
+        this.payload = payload;
+        this.count = count;
+    }
+
+    /**
+     * @return Returns the event type.
+     */
+    public FTPEventType getType() {
+        return type;
+    }
+
+    /**
+     * @return Returns the time the event was recorded.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Returns the connection identifier.
+     */
+    public String getConnId() {
+        return connId;
+    }
+
+    /**
+     * @return Returns the command, reply or remote file name.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return Returns the bytes transferred, for progress events.
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Render this event the way {@link EventCollector} logs it
+     * 
+     * @param buf               buffer to append to
+     * @param includeConnId     true to prefix the connection identifier
+     */
+    void appendTo(StringBuffer buf, boolean includeConnId) {
+        if (includeConnId)
+            buf.append('[').append(connId).append("] ");
+        if (type == FTPEventType.DOWNLOAD_STARTED)
+            buf.append("Started download: ");
+        else if (type == FTPEventType.DOWNLOAD_COMPLETED)
+            buf.append("Completed download: ");
+        else if (type == FTPEventType.UPLOAD_STARTED)
+            buf.append("Started upload: ");
+        else if (type == FTPEventType.UPLOAD_COMPLETED)
+            buf.append("Completed upload: ");
+        buf.append(payload);
+        if (type == FTPEventType.PROGRESS)
+            buf.append(" - ").append(count);
+        buf.append("\n");
+    }
+    
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        appendTo(buf, true);
+        return buf.toString();
+    }
+}
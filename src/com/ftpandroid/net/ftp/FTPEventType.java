@@ -0,0 +1,37 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Enumerates the kinds of {@link FTPEvent} recorded by
+ *  {@link BoundedEventCollector}
+ *
+ *  @author      Eric
+ */
+public class FTPEventType {
+
+    public static final FTPEventType COMMAND = new FTPEventType("Command");
+    
+    public static final FTPEventType REPLY = new FTPEventType("Reply");
+    
+    public static final FTPEventType DOWNLOAD_STARTED = new FTPEventType("DownloadStarted");
+    
+    public static final FTPEventType DOWNLOAD_COMPLETED = new FTPEventType("DownloadCompleted");
+    
+    public static final FTPEventType UPLOAD_STARTED = new FTPEventType("UploadStarted");
+    
+    public static final FTPEventType UPLOAD_COMPLETED = new FTPEventType("UploadCompleted");
+    
+    public static final FTPEventType PROGRESS = new FTPEventType("Progress");
+    
+    private String type;
+    
+    /**
+     *  Private so no-one else can instantiate this class
+     */
+    private FTPEventType(String type) {
+        this.type = type;
+    }
+    
+    public String toString() {
+        return type;
+    }
+}
@@ -5,6 +5,11 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.ftpandroid.connx.debug.Logger;
 
@@ -62,31 +67,19 @@ public class FTPFileFactory {
     private String system;
     
     /**
-     * Cached windows parser
+     * Parsers available, shared with other factories
      */
-    private WindowsFileParser windows = new WindowsFileParser();
+    private ParserRegistry registry;
     
     /**
-     * Cached unix parser
+     * Registered parsers created so far, by index in the registry
      */
-    private FTPFileParser unix = new UnixFileParser();
+    private FTPFileParser[] registered;
     
     /**
-     * Cached vms parser
+     * Parse Unix listings lazily?
      */
-    private VMSFileParser vms = new VMSFileParser();
-    
-    
-    /**
-     * Cached netware parser
-     */
-    private NetwareFileParser netware = new NetwareFileParser();
-    
-    /**
-     * Cached MVS parser
-     */
-    private MVSFileParser mvs = new MVSFileParser();
-    
+    private boolean lazyParsing = false;
    
     /**
      * Current parser
@@ -109,22 +102,65 @@ public class FTPFileFactory {
     private Locale[] localesToTry;
     
     /**
-     * Index of locale to try next
+     * Locale detected from the month names in a listing, kept for
+     * later listings while it is one of the locales to try
+     */
+    private Locale detectedLocale = null;
+    
+    /**
+     * Picks the locale of listings
+     */
+    private LocaleDetector localeDetector = new LocaleDetector();
+    
+    /**
+     * Locale currently used for dates
+     */
+    private Locale currentLocale;
+    
+    /**
+     * Default number of lines below which listings are parsed on one thread
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+    
+    /**
+     * Pool shared by all factories that don't have their own
+     */
+    private static ExecutorService sharedExecutor = null;
+    
+    /**
+     * Number of chunks large listings are split into, 1 for no parallel parsing
      */
-    private int localeIndex = 0;
+    private int parallelism = 1;
     
     /**
-     * All the parsers
+     * Lines below which listings are parsed on one thread
+     */
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    
+    /**
+     * Pool used for parallel parsing, null to use the shared pool
+     */
+    private ExecutorService executor = null;
+    
+    /**
+     * Default number of non-blank lines sampled to detect the format
+     */
+    public static final int DEFAULT_DETECT_SAMPLE_SIZE = 20;
+    
+    /**
+     * Number of non-blank lines sampled to detect the format
+     */
+    private int detectSampleSize = DEFAULT_DETECT_SAMPLE_SIZE;
+    
+    /**
+     * All the parsers created so far, those added by the user first
      */
     private List parsers = new ArrayList();
     
-    {
-        parsers.add(unix);
-        parsers.add(windows);
-        parsers.add(vms);
-        parsers.add(netware);
-        parsers.add(mvs);
-    }
+    /**
+     * Number of parsers added by the user
+     */
+    private int userParserCount = 0;
      
     /**
      * Constructor
@@ -132,6 +168,19 @@ public class FTPFileFactory {
      * @param system    SYST string
      */
     public FTPFileFactory(String system) throws FTPException {
+        this(system, ParserRegistry.getDefault());
+    }
+    
+    /**
+     * Constructor. Parsers are created from the registry when first
+     * needed.
+     * 
+     * @param system    SYST string
+     * @param registry  parsers available
+     */
+    public FTPFileFactory(String system, ParserRegistry registry) throws FTPException {
+        this.registry = registry;
+        registered = new FTPFileParser[registry.size()];
         setParser(system);
     }
     
@@ -143,6 +192,8 @@ public class FTPFileFactory {
      * @param parser   the parser to use
      */
     public FTPFileFactory(FTPFileParser parser) {
+        this.registry = ParserRegistry.getDefault();
+        registered = new FTPFileParser[registry.size()];
         this.parser = parser;
         userSetParser = true;
     } 
@@ -160,17 +211,52 @@ public class FTPFileFactory {
      * @return  VMSFileParser object
      */
     public VMSFileParser getVMSParser() {
-        return vms;
+        return (VMSFileParser)getParser(VMSFileParser.class);
+    }
+    
+    /**
+     * Get a registered parser, creating it on first use
+     * 
+     * @param index   index in the registry
+     * @return parser
+     */
+    private FTPFileParser getParser(int index) {
+        if (registered[index] == null) {
+            FTPFileParser p = registry.newParser(index);
+            if (currentLocale != null)
+                p.setLocale(currentLocale);
+            if (p instanceof UnixFileParser)
+                ((UnixFileParser)p).setLazy(lazyParsing);
+            registered[index] = p;
+            parsers.add(p);
+        }
+        return registered[index];
+    }
+    
+    /**
+     * Get a registered parser by class, creating it on first use
+     * 
+     * @param parserClass   class of parser
+     * @return parser, or the first registered if the class is not registered
+     */
+    private FTPFileParser getParser(Class parserClass) {
+        int index = registry.indexOf(parserClass);
+        return getParser(index >= 0 ? index : 0);
     }
     
     /**
      * Rather than forcing a parser (as in the constructor that accepts
-     * a parser), this adds a parser to the list of those used.
+     * a parser), this adds a parser to the list of those used. Parsers
+     * added are preferred to the standard ones when their formats fit 
+     * a listing equally well, e.g. to handle a server's variant of the 
+     * Unix format.
      * 
      * @param parser   user supplied parser to add
      */
     public void addParser(FTPFileParser parser) {
-        parsers.add(parser);
+        if (currentLocale != null)
+            parser.setLocale(currentLocale);
+        parsers.add(userParserCount++, parser);
     }
 
 
@@ -180,6 +266,7 @@ public class FTPFileFactory {
      * @param locale    locale to set
      */
     public void setLocale(Locale locale) {        
+        currentLocale = locale;
         parser.setLocale(locale); // might be user supplied
         Iterator i = parsers.iterator();
         while (i.hasNext()) {
@@ -189,14 +276,45 @@ public class FTPFileFactory {
     }
     
     /**
-     * Set the locales to try for date parsing of listings
+     * Set the locales to try for date parsing of listings. The locale
+     * is detected from the first listing parsed, and kept for later 
+     * listings as long as it is one of the locales.
      * 
      * @param locales    locales to try
      */
     public void setLocales(Locale[] locales) {
         this.localesToTry = locales;
-        setLocale(locales[0]); 
-        localeIndex = 1;
+        if (detectedLocale == null || indexOf(locales, detectedLocale) < 0) {
+            detectedLocale = null;
+            useLocale(locales[0]);
+        }
+        else
+            useLocale(detectedLocale);
+    }
+    
+    /**
+     * Set the locale unless already in use
+     */
+    private void useLocale(Locale locale) {
+        if (!locale.equals(currentLocale))
+            setLocale(locale);
+    }
+    
+    private static int indexOf(Locale[] locales, Locale locale) {
+        for (int i = 0; i < locales.length; i++) {
+            if (locales[i].equals(locale))
+                return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Get the detector used to pick the locale of listings
+     * 
+     * @return detector
+     */
+    public LocaleDetector getLocaleDetector() {
+        return localeDetector;
     }
     
     /**
@@ -209,27 +327,27 @@ public class FTPFileFactory {
         this.system = system != null ? system.trim() : null;
         if (system.toUpperCase().startsWith(WINDOWS_STR)) {
             log.debug("Selected Windows parser");
-            parser = windows;
+            parser = getParser(WindowsFileParser.class);
         }
         else if (system.toUpperCase().indexOf(UNIX_STR) >= 0 ||
                 system.toUpperCase().indexOf(AIX_STR) >= 0) {
             log.debug("Selected Unix parser");
-            parser = unix;
+            parser = getParser(UnixFileParser.class);
         }
         else if (system.toUpperCase().indexOf(VMS_STR) >= 0) {
             log.debug("Selected VMS parser");
-            parser = vms;
+            parser = getParser(VMSFileParser.class);
         }
         else if (system.toUpperCase().indexOf(NETWARE_STR) >= 0) {
             log.debug("Selected Netware parser");
-            parser = netware;
+            parser = getParser(NetwareFileParser.class);
         }
         else if (system.toUpperCase().indexOf(MVS_STR) >= 0) {
             log.debug("Selected MVS parser");
-            parser = mvs;
+            parser = getParser(MVSFileParser.class);
         }
         else {
-            parser = unix;
+            parser = getParser(UnixFileParser.class);
             log.warn("Unknown SYST '" + system + "' - defaulting to Unix parsing");
         }
     }
@@ -246,25 +364,79 @@ public class FTPFileFactory {
         }
     }
     
+    /**
+     * Detect the format from the first non-blank lines of a listing. 
+     * Each parser scores the sample and the highest score wins, ties
+     * going to the parser selected from SYST and then to those added
+     * by the user. Other parsers are not created or tried once one fits 
+     * the whole sample. If no parser fits, the current one is kept and 
+     * detection is tried again on the next listing.
+     * 
+     * @param files   listing
+     */
     private void detectParser(String[] files) {
-        // use the initially set parser (from SYST)
-        if (parser.isValidFormat(files)) {
-            log.debug("Confirmed format " + parser.toString());
-            parserDetected = true;
+        String[] sample = new String[Math.min(files.length, detectSampleSize)];
+        int count = 0;
+        for (int i = 0; i < files.length && count < sample.length; i++) {
+            if (files[i] != null && files[i].trim().length() > 0)
+                sample[count++] = files[i];
+        }
+        if (count < sample.length) {
+            String[] temp = new String[count];
+            System.arraycopy(sample, 0, temp, 0, count);
+            sample = temp;
+        }
+        if (count == 0)
             return;
-        }   
-        Iterator i = parsers.iterator();
-        while (i.hasNext()) {
-            FTPFileParser p = (FTPFileParser)i.next();
-            if (p.isValidFormat(files)) {
-                parser = p;
-                log.debug("Detected format " + parser.toString());
-                parserDetected = true;
-                return;
+        
+        // user parsers are scored first, and take ties from the SYST
+        // parser and the standard ones; the first added wins among them
+        FTPFileParser best = parser;
+        int bestScore = parser.scoreFormat(sample);
+        int current = parsers.indexOf(parser);
+        boolean userBest = current >= 0 && current < userParserCount;
+        int candidates = userParserCount + registry.size();
+        for (int i = 0; i < candidates && (i < userParserCount || bestScore < count); i++) {
+            boolean user = i < userParserCount;
+            FTPFileParser p = user ? (FTPFileParser)parsers.get(i) : getParser(i - userParserCount);
+            if (p == parser)
+                continue;
+            int score = p.scoreFormat(sample);
+            if (score > bestScore || (user && !userBest && score > 0 && score == bestScore)) {
+                best = p;
+                bestScore = score;
+                userBest = user;
             }
         }
-        parser = unix;
-        log.warn("Could not detect format. Using default " + parser.toString());
+        if (bestScore <= 0) {
+            log.warn("Could not detect format. Using " + parser.toString());
+            return;
+        }
+        if (best != parser)
+            log.debug("Detected format " + best.toString() + " (score " + bestScore + ")");
+        else
+            log.debug("Confirmed format " + parser.toString());
+        parser = best;
+        parserDetected = true;
+    }
+    
+    /**
+     * Set the number of non-blank lines at the start of a listing
+     * sampled to detect its format
+     * 
+     * @param sampleSize   number of lines
+     */
+    public void setDetectSampleSize(int sampleSize) {
+        this.detectSampleSize = Math.max(1, sampleSize);
+    }
+    
+    /**
+     * Get the number of non-blank lines sampled to detect the format
+     * 
+     * @return number of lines
+     */
+    public int getDetectSampleSize() {
+        return detectSampleSize;
     }
     
     /**
@@ -275,17 +447,64 @@ public class FTPFileFactory {
      * @throws ParseException
      */
     public FTPFile parse(String line) throws ParseException {
+        return parse(line, null);
+    }
+    
+    /**
+     * Parse a single line of file listing if it might satisfy a query.
+     * The caller checks the full query on the result.
+     * 
+     * @param line
+     * @param query   query the entry should satisfy, or null
+     * @return FTPFile, or null if rejected or not an entry
+     * @throws ParseException
+     */
+    public FTPFile parse(String line, ListingQuery query) throws ParseException {
         if (parser.isMultiLine())
             throw new ParseException("Cannot use this method with multi-line parsers", 0);
-        FTPFile file = null;
         try {
-            file = parser.parse(line);
+            return parseLine(line, query);
         }
         catch (DateParseException ex) {
-            parser.setIgnoreDateParseErrors(true);
-            file = parser.parse(line);
+            return parseOtherLocales(line, query);
         }
-        return file;
+    }
+    
+    private FTPFile parseLine(String line, ListingQuery query) throws ParseException {
+        return query != null ? parser.parse(line, query) : parser.parse(line);
+    }
+    
+    /**
+     * Parse a line whose date could not be parsed in the current locale.
+     * The other locales are tried on this line alone, and the first that
+     * works is used from then on. If none works, date errors are ignored
+     * from then on.
+     * 
+     * @param line    line that failed
+     * @param query   query the entry should satisfy, or null
+     * @return FTPFile, or null if rejected or not an entry
+     * @throws ParseException
+     */
+    private FTPFile parseOtherLocales(String line, ListingQuery query) throws ParseException {
+        if (localesToTry != null && currentLocale != null) {
+            Locale failed = currentLocale;
+            for (int i = 0; i < localesToTry.length; i++) {
+                if (localesToTry[i].equals(failed))
+                    continue;
+                setLocale(localesToTry[i]);
+                try {
+                    FTPFile file = parseLine(line, query);
+                    log.info("Switched to " + localesToTry[i].toString() + " locale");
+                    detectedLocale = localesToTry[i];
+                    return file;
+                }
+                catch (DateParseException ignore) {}
+            }
+            setLocale(failed);
+        }
+        log.debug("Ignoring date parsing errors");
+        parser.setIgnoreDateParseErrors(true);
+        return parseLine(line, query);
     }
     
     
@@ -308,6 +527,19 @@ public class FTPFileFactory {
         
         if (!userSetParser && !parserDetected)
             detectParser(files);
+        
+        // pick the locale once, rather than trying each in turn
+        if (detectedLocale == null && localesToTry != null && localesToTry.length > 1) {
+            detectedLocale = localeDetector.detect(files, localesToTry);
+            if (detectedLocale != null)
+                useLocale(detectedLocale);
+        }
+        
+        if (parallelism > 1 && files.length >= parallelThreshold) {
+            FTPFile[] result = parseParallel(files);
+            if (result != null)
+                return result;
+        }
                 
         int count = 0;
         for (int i = 0; i < files.length; i++) {
@@ -315,11 +547,223 @@ public class FTPFileFactory {
             if (files[i] == null || files[i].trim().length() == 0)
                 continue;
 
+            String line = files[i];
+            if(parser.isMultiLine()) {
+                // vms uses more than 1 line for some file listings. We must keep going
+                // thru till we've got everything
+                StringBuffer filename = new StringBuffer(files[i]);
+                while (i+1 < files.length && files[i+1].indexOf(';') < 0) {
+                    filename.append(" ").append(files[i+1]);
+                    i++;
+                }
+                line = filename.toString();
+            }
+            FTPFile file = null;
             try {
+                file = parser.parse(line);
+            }
+            catch (DateParseException ex) {
+                // try the other locales on this line only - lines already
+                // parsed keep their dates
+                file = parseOtherLocales(line, null);
+            }
+            // we skip null returns - these are duff lines we know about and don't
+            // really want to throw an exception
+            if (file != null) {
+                temp[count++] = file;
+            }
+        }
+        FTPFile[] result = new FTPFile[count];
+        System.arraycopy(temp, 0, result, 0, count);
+        return result;
+    }
+    
+    
+
+    /**
+     * Parse a listing in chunks on several threads, each with its own
+     * parser, as the parsers are not thread-safe. 
+     * 
+     * @param files   listing to parse
+     * @return parsed listing in order, or null if it must be parsed on 
+     *          one thread, e.g. because of a date error that requires 
+     *          trying other locales
+     */
+    private FTPFile[] parseParallel(String[] files) {
+        int chunks = parallelism;
+        int[] starts = new int[chunks+1];
+        for (int i = 1; i < chunks; i++) {
+            starts[i] = Math.max(starts[i-1], (int)((long)files.length * i / chunks));
+            if (parser.isMultiLine()) {
+                // move the boundary past the continuation lines of the previous entry
+                while (starts[i] < files.length && (files[starts[i]] == null || files[starts[i]].indexOf(';') < 0))
+                    starts[i]++;
+            }
+        }
+        starts[chunks] = files.length;
+        
+        ExecutorService pool = executor != null ? executor : getSharedExecutor();
+        Future[] futures = new Future[chunks];
+        for (int i = 0; i < chunks; i++) {
+            FTPFileParser chunkParser = parser.newInstance();
+            if (chunkParser == null)
+                return null;
+            if (currentLocale != null)
+                chunkParser.setLocale(currentLocale);
+            chunkParser.setIgnoreDateParseErrors(parser.ignoreDateParseErrors);
+            futures[i] = pool.submit(new ChunkParser(chunkParser, files, starts[i], starts[i+1]));
+        }
+        
+        FTPFile[][] results = new FTPFile[chunks][];
+        int count = 0;
+        try {
+            for (int i = 0; i < chunks; i++) {
+                results[i] = (FTPFile[])futures[i].get();
+                count += results[i].length;
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (Exception ex) {
+            log.debug("Parallel parse failed - parsing on one thread: " + ex.getMessage());
+            for (int i = 0; i < chunks; i++)
+                futures[i].cancel(false);
+            return null;
+        }
+        FTPFile[] result = new FTPFile[count];
+        int pos = 0;
+        for (int i = 0; i < chunks; i++) {
+            System.arraycopy(results[i], 0, result, pos, results[i].length);
+            pos += results[i].length;
+        }
+        return result;
+    }
+    
+    /**
+     * Get the pool shared by factories without their own, creating
+     * it with a daemon thread per processor if necessary
+     */
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+                new ThreadFactory() {
+                    private int count = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ListingParser-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return sharedExecutor;
+    }
+    
+    /**
+     * Set the number of chunks large listings are split into and parsed
+     * in parallel. The default of 1 parses on the calling thread only.
+     * 
+     * @param parallelism  number of chunks, e.g. the number of processors
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+    
+    /**
+     * Get the number of chunks large listings are split into
+     * 
+     * @return number of chunks
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set the number of lines below which listings are always parsed
+     * on one thread
+     * 
+     * @param parallelThreshold  number of lines
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+    
+    /**
+     * Get the number of lines below which listings are always parsed
+     * on one thread
+     * 
+     * @return number of lines
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+    
+    /**
+     * Set the pool used for parallel parsing. By default a pool shared
+     * by all factories is used, with a thread per processor.
+     * 
+     * @param executor   pool, or null to use the shared pool
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Set lazy parsing of Unix listings, in which the fields of each 
+     * entry are decoded only when first asked for
+     * 
+     * @param lazy  true to parse lazily
+     * @see UnixFileParser#setLazy(boolean)
+     */
+    public void setLazyParsing(boolean lazy) {
+        this.lazyParsing = lazy;
+        Iterator i = parsers.iterator();
+        while (i.hasNext()) {
+            FTPFileParser p = (FTPFileParser)i.next();
+            if (p instanceof UnixFileParser)
+                ((UnixFileParser)p).setLazy(lazy);
+        }
+    }
+    
+    /**
+     * Are Unix listings parsed lazily?
+     * 
+     * @return true if lazy
+     */
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+    
+    /**
+     * Parses a chunk of a listing with its own parser
+     */
+    private static class ChunkParser implements Callable {
+        
+        private FTPFileParser parser;
+        
+        private String[] files;
+        
+        private int start;
+        
+        private int end;
+        
+        ChunkParser(FTPFileParser parser, String[] files, int start, int end) {
+            this.parser = parser;
+            this.files = files;
+            this.start = start;
+            this.end = end;
+        }
+        
+        public Object call() throws Exception {
+            FTPFile[] temp = new FTPFile[end - start];
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (files[i] == null || files[i].trim().length() == 0)
+                    continue;
                 FTPFile file = null;
-                if(parser.isMultiLine()) {
-                    // vms uses more than 1 line for some file listings. We must keep going
-                    // thru till we've got everything
+                if (parser.isMultiLine()) {
+                    // continuation lines may run past the end of the chunk
                     StringBuffer filename = new StringBuffer(files[i]);
                     while (i+1 < files.length && files[i+1].indexOf(';') < 0) {
                         filename.append(" ").append(files[i+1]);
@@ -327,39 +771,60 @@ public class FTPFileFactory {
                     }
                     file = parser.parse(filename.toString());
                 }
-                else {
+                else
                     file = parser.parse(files[i]);
-                }
-                // we skip null returns - these are duff lines we know about and don't
-                // really want to throw an exception
-                if (file != null) {
+                if (file != null)
                     temp[count++] = file;
-                }
-            }
-            catch (DateParseException ex) {
-                // try going thru the locales               
-                if (localesToTry != null && localesToTry.length > localeIndex) {
-                    log.info("Trying " + localesToTry[localeIndex].toString() + " locale");
-                    setLocale(localesToTry[localeIndex]);
-                    localeIndex++;  
-                    count = 0;
-                    i = -1; // account for the increment to set i back to 0
-                    continue;
-                }  
-                // from this point start again ignoring date errors (we've tried all our locales)
-                count = 0;
-                i = -1; // account for the increment to set i back to 0
-                parser.setIgnoreDateParseErrors(true);
-                log.debug("Ignoring date parsing errors");
-                continue;
             }
+            FTPFile[] result = new FTPFile[count];
+            System.arraycopy(temp, 0, result, 0, count);
+            return result;
         }
-        FTPFile[] result = new FTPFile[count];
-        System.arraycopy(temp, 0, result, 0, count);
-        return result;
     }
     
+    /**
+     * Get the locale currently used for parsing listing dates
+     * 
+     * @return locale, or null if never set
+     */
+    public Locale getLocale() {
+        return currentLocale;
+    }
     
+    /**
+     * Get the class name of the parser that has been confirmed
+     * or detected as fitting the listings
+     * 
+     * @return class name, or null if not yet detected
+     */
+    public String getDetectedParser() {
+        return (parserDetected || userSetParser) ? parser.getClass().getName() : null;
+    }
+    
+    /**
+     * Use the parser with the supplied class name without detecting
+     * the format, e.g. because it is known from an earlier session
+     * 
+     * @param className   class name of one of the parsers
+     * @return true if the parser was found
+     */
+    public boolean setDetectedParser(String className) {
+        Iterator i = parsers.iterator();
+        while (i.hasNext()) {
+            FTPFileParser p = (FTPFileParser)i.next();
+            if (p.getClass().getName().equals(className)) {
+                parser = p;
+                parserDetected = true;
+                return true;
+            }
+        }
+        int index = registry.indexOf(className);
+        if (index < 0)
+            return false;
+        parser = getParser(index);
+        parserDetected = true;
+        return true;
+    }
 
     /**
      * Get the SYST string
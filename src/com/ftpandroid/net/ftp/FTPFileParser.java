@@ -3,6 +3,8 @@ package com.ftpandroid.net.ftp;
 import java.text.ParseException;
 import java.util.Locale;
 
+import com.ftpandroid.connx.FieldTokenizer;
+
 /**
  *  Root class of all file parsers
  *
@@ -26,7 +28,21 @@ abstract public class FTPFileParser {
      * @param raw   raw string to parse
      */
     abstract public FTPFile parse(String raw) throws ParseException;
-    
+
+    /**
+     * Parse server supplied string if it might satisfy a query. Parsers
+     * that can tell an entry's name, type or size cheaply override this
+     * to skip the rest of the parsing, chiefly the date, for entries the
+     * query rejects. The caller checks the full query on the result.
+     *
+     * @param raw     raw string to parse
+     * @param query   query the entry should satisfy
+     * @return  file, or null if rejected or not an entry
+     */
+    public FTPFile parse(String raw, ListingQuery query) throws ParseException {
+        return parse(raw);
+    }
+
     /**
      * Set the locale for date parsing of listings
      * 
@@ -53,6 +69,31 @@ abstract public class FTPFileParser {
         return false;
     }
     
+    /**
+     * Score how well a sample of a listing, its first non-blank lines,
+     * fits this parser's format. Parsers that can check single lines
+     * cheaply score the number of lines that fit; by default the score
+     * is the number of lines if {@link #isValidFormat(String[])} accepts 
+     * the sample.
+     * 
+     * @param sample   first non-blank lines of a listing
+     * @return score, 0 if the format does not fit
+     */
+    public int scoreFormat(String[] sample) {
+        return isValidFormat(sample) ? sample.length : 0;
+    }
+    
+    /**
+     * Create a new parser of the same kind with the same settings,
+     * so that listings can be parsed on several threads at once. The 
+     * locale and whether to ignore date errors are set by the caller.
+     * 
+     * @return new parser, or null if not supported
+     */
+    public FTPFileParser newInstance() {
+        return null;
+    }
+    
     /**
      * Does this parser parse multiple lines to get one listing?
      * 
@@ -90,7 +131,9 @@ abstract public class FTPFileParser {
      * @return array of fields
      */
     protected String[] split(String str) {
-        return split(str, new WhitespaceSplitter());
+        FieldTokenizer tokenizer = new FieldTokenizer();
+        tokenizer.tokenize(str);
+        return tokenizer.toArray();
     }
     
     /**
@@ -102,7 +145,9 @@ abstract public class FTPFileParser {
      * @return array of fields
      */
     protected String[] split(String str, char token) {
-        return split(str, new CharSplitter(token));
+        FieldTokenizer tokenizer = new FieldTokenizer(token);
+        tokenizer.tokenize(str);
+        return tokenizer.toArray();
     }
     
     /**
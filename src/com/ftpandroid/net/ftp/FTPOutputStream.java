@@ -31,6 +31,11 @@ public class FTPOutputStream extends FileTransferOutputStream {
      * The output stream to the FTP server
      */
     private BufferedOutputStream out;
+    
+    /**
+     * True while counted as an active transfer
+     */
+    private boolean active = false;
         
     /**
      * Is this an ASCII transfer or not?
@@ -92,6 +97,10 @@ public class FTPOutputStream extends FileTransferOutputStream {
     public FTPOutputStream(FTPClient client, String remoteFile, boolean append) throws IOException, FTPException {
         this.client = client;
         this.remoteFile = remoteFile;
+        // counted until closed, so that the control channel is left 
+        // alone, e.g. by keep-alives
+        client.getTransferStatistics().transferStarted();
+        active = true;
         try {
             this.remoteFile = client.initPut(remoteFile, append);
 
@@ -104,9 +113,14 @@ public class FTPOutputStream extends FileTransferOutputStream {
 
         } 
         catch (IOException ex) {
+            transferEnded();
             client.validateTransferOnError(ex);
             throw ex;
         }
+        catch (FTPException ex) {
+            transferEnded();
+            throw ex;
+        }
         
         this.monitorInterval = client.getMonitorInterval();
         this.monitor = client.getProgressMonitor();
@@ -220,22 +234,28 @@ public class FTPOutputStream extends FileTransferOutputStream {
                 monitorCount += matchpos;
             }
             
-            client.forceResumeOff();
-    
-            // close streams
-            client.closeDataSocket(out);
-            
-            if (monitor != null)
-                monitor.bytesTransferred(size);  
-    
-            // log bytes transferred
-            log.debug("Transferred " + size + " bytes from remote host");
-            
             try {
-                client.validateTransfer();
+                client.forceResumeOff();
+        
+                // close streams
+                client.closeDataSocket(out);
+                
+                if (monitor != null)
+                    monitor.bytesTransferred(size);  
+        
+                // log bytes transferred
+                if (log.isDebugEnabled())
+                    log.debug("Transferred " + size + " bytes from remote host");
+                
+                try {
+                    client.validateTransfer();
+                }
+                catch (FTPException ex) {
+                    throw new IOException(ex.getMessage());
+                }
             }
-            catch (FTPException ex) {
-                throw new IOException(ex.getMessage());
+            finally {
+                transferEnded();
             }
             
             if (monitorEx != null)
@@ -243,4 +263,11 @@ public class FTPOutputStream extends FileTransferOutputStream {
         }
     }
     
+    private void transferEnded() {
+        if (active) {
+            active = false;
+            client.getTransferStatistics().transferEnded();
+        }
+    }
+    
 }
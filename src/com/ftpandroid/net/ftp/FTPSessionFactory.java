@@ -0,0 +1,23 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.IOException;
+
+/**
+ *  Creates connected, logged in clients for a {@link TransferScheduler}.
+ *  Any settings such as the transfer type, connect mode or retry count
+ *  should be applied to the client before it is returned.
+ *
+ *  @author      Eric
+ */
+public interface FTPSessionFactory {
+
+    /**
+     * Create a client connected and logged in to the supplied host
+     * 
+     * @param host   host the client is needed for
+     * @return  connected client
+     * @throws IOException
+     * @throws FTPException
+     */
+    public FTPClient createSession(String host) throws IOException, FTPException;
+}
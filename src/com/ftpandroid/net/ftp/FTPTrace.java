@@ -0,0 +1,101 @@
+package com.ftpandroid.net.ftp;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Process-wide switch for tracing of commands, transfers, listings 
+ *  and reconnects. Tracing is off until a listener is installed; while
+ *  off, each traced call site costs a single volatile read and no 
+ *  events are created. A listener can forward events to whatever 
+ *  profiler is in use so that FTP stalls can be lined up against
+ *  GC and I/O activity.
+ *
+ *  @author      Eric
+ */
+public class FTPTrace {
+    
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("FTPTrace");
+
+    /**
+     * Installed listener, null if tracing is off
+     */
+    private static volatile FTPTraceListener listener = null;
+    
+    /**
+     * Not instantiable
+     */
+    private FTPTrace() {}
+    
+    /**
+     * Install a trace listener, turning tracing on
+     * 
+     * @param traceListener  listener, or null to turn tracing off
+     */
+    public static void setListener(FTPTraceListener traceListener) {
+        listener = traceListener;
+    }
+    
+    /**
+     * Get the installed trace listener
+     * 
+     * @return listener or null
+     */
+    public static FTPTraceListener getListener() {
+        return listener;
+    }
+    
+    /**
+     * Is tracing on? 
+     * 
+     * @return true if a listener is installed
+     */
+    public static boolean isEnabled() {
+        return listener != null;
+    }
+    
+    /**
+     * Get the start time for a traced operation
+     * 
+     * @return System.nanoTime(), or 0 if tracing is off
+     */
+    static long start() {
+        return listener != null ? System.nanoTime() : 0;
+    }
+    
+    /**
+     * Create and dispatch an event. Does nothing if the start time
+     * is 0, i.e. tracing was off when the operation began
+     */
+    static void emit(FTPTraceEventType type, String host, String command, String replyCode, 
+                      long bytes, long startNanos, int attempt) {
+        if (startNanos == 0)
+            return;
+        FTPTraceListener current = listener;
+        if (current == null)
+            return;
+        try {
+            current.traceEvent(new FTPTraceEvent(type, host, command, replyCode, 
+                    bytes, startNanos, System.nanoTime(), attempt));
+        }
+        catch (Throwable t) {
+            log.warn("Exception in trace listener", t);
+        }
+    }
+    
+    /**
+     * Get the verb of a command, so that arguments (which 
+     * may be passwords) are never traced
+     * 
+     * @param command  full command
+     * @return verb
+     */
+    static String verb(String command) {
+        if (command == null)
+            return null;
+        int pos = command.indexOf(' ');
+        return pos > 0 ? command.substring(0, pos) : command;
+    }
+}
@@ -0,0 +1,150 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  A completed, timed operation on an FTP connection, passed to the
+ *  {@link FTPTraceListener} installed via {@link FTPTrace}.
+ *
+ *  @author      Eric
+ */
+public class FTPTraceEvent {
+    
+    /**
+     * Kind of event
+     */
+    private FTPTraceEventType type;
+    
+    /**
+     * Remote host
+     */
+    private String host;
+    
+    /**
+     * Command verb, arguments are not included
+     */
+    private String command;
+    
+    /**
+     * Reply code, or null if none
+     */
+    private String replyCode;
+    
+    /**
+     * Bytes transferred, or 0
+     */
+    private long bytes;
+    
+    /**
+     * System.nanoTime() at start
+     */
+    private long startNanos;
+    
+    /**
+     * Duration in nanoseconds
+     */
+    private long durationNanos;
+    
+    /**
+     * Attempt number, 1 for the first try
+     */
+    private int attempt;
+    
+    /**
+     * Wall clock time at the end of the event
+     */
+    private long timestamp;
+    
+    /**
+     * Constructor
+     */
+    FTPTraceEvent(FTPTraceEventType type, String host, String command, String replyCode, 
+                  long bytes, long startNanos, long endNanos, int attempt) {
+        this.type = type;
+        this.host = host;
+        this.command = command;
+        this.replyCode = replyCode;
+        this.bytes = bytes;
+        this.startNanos = startNanos;
+        this.durationNanos = endNanos - startNanos;
+        this.attempt = attempt;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Returns the type of event.
+     */
+    public FTPTraceEventType getType() {
+        return type;
+    }
+
+    /**
+     * @return Returns the remote host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return Returns the command verb, e.g. RETR. Never includes arguments.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return Returns the reply code, or null if there was no reply
+     */
+    public String getReplyCode() {
+        return replyCode;
+    }
+
+    /**
+     * @return Returns the bytes transferred.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Returns the System.nanoTime() value at the start of the event
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return Returns the duration in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return Returns the attempt number, starting at 1
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return Returns the wall clock time at the end of the event
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * @return string representation
+     */
+    public String toString() {
+        StringBuffer buf = new StringBuffer(type.toString());
+        buf.append(" host=").append(host).append(" command=").append(command);
+        if (replyCode != null)
+            buf.append(" reply=").append(replyCode);
+        if (bytes > 0)
+            buf.append(" bytes=").append(bytes);
+        if (attempt > 1)
+            buf.append(" attempt=").append(attempt);
+        buf.append(" duration=").append(durationNanos/1000).append("us");
+        return buf.toString();
+    }
+}
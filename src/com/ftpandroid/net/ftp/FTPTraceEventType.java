@@ -0,0 +1,57 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Enumerates the kinds of {@link FTPTraceEvent}
+ *
+ *  @author      Eric
+ */
+public class FTPTraceEventType {
+
+    /**
+     *   Command sent and its reply read
+     */
+    public static final FTPTraceEventType COMMAND = new FTPTraceEventType("Command");
+    
+    /**
+     *   Reply read without sending a command, e.g. the 226 at the end of a transfer
+     */
+    public static final FTPTraceEventType REPLY = new FTPTraceEventType("Reply");
+    
+    /**
+     *   Data written to the server
+     */
+    public static final FTPTraceEventType UPLOAD = new FTPTraceEventType("Upload");
+    
+    /**
+     *   Data read from the server
+     */
+    public static final FTPTraceEventType DOWNLOAD = new FTPTraceEventType("Download");
+    
+    /**
+     *   Directory listing
+     */
+    public static final FTPTraceEventType LISTING = new FTPTraceEventType("Listing");
+    
+    /**
+     *   Reconnect after the control channel failed
+     */
+    public static final FTPTraceEventType RECONNECT = new FTPTraceEventType("Reconnect");
+    
+    /**
+     *   Transfer failed and is to be retried
+     */
+    public static final FTPTraceEventType TRANSFER_RETRY = new FTPTraceEventType("TransferRetry");
+    
+    private String type;
+    
+    /**
+     *  Private so no-one else can instantiate this class
+     */
+    private FTPTraceEventType(String type) {
+        this.type = type;
+    }
+    
+    public String toString() {
+        return type;
+    }
+}
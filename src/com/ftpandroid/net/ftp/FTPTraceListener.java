@@ -0,0 +1,18 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Receives trace events from all FTP connections in the process.
+ *  Implementations are called on the thread doing the work, so should
+ *  return quickly, e.g. by handing the event to a profiler API or a queue.
+ *
+ *  @author      Eric
+ */
+public interface FTPTraceListener {
+
+    /**
+     * A traced operation has completed
+     * 
+     * @param event  details of the operation
+     */
+    public void traceEvent(FTPTraceEvent event);
+}
@@ -89,6 +89,125 @@ public class FileStatistics {
         return count;
     }
     
+    /**
+     * Get the number of transfers and listings in progress
+     * 
+     * @return  active transfer count
+     */
+    public synchronized int getActiveTransfers() {
+        int count = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                count += stats.getActiveTransfers();
+        }
+        return count;
+    }
+    
+    /**
+     * Get the moving average transfer rate over all clients
+     * 
+     * @return  bytes per second
+     */
+    public synchronized double getBytesPerSecond() {
+        double rate = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                rate += stats.getBytesPerSecond();
+        }
+        return rate;
+    }
+    
+    /**
+     * Get the moving average rate of commands sent over all clients
+     * 
+     * @return  commands per second
+     */
+    public synchronized double getCommandsPerSecond() {
+        double rate = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                rate += stats.getCommandsPerSecond();
+        }
+        return rate;
+    }
+    
+    /**
+     * Get the number of failed transfers
+     * 
+     * @return  error count
+     */
+    public synchronized long getErrorCount() {
+        long count = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                count += stats.getErrorCount();
+        }
+        return count;
+    }
+    
+    /**
+     * Get the number of transfer retries
+     * 
+     * @return  retry count
+     */
+    public synchronized long getRetryCount() {
+        long count = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                count += stats.getRetryCount();
+        }
+        return count;
+    }
+    
+    /**
+     * Get the number of reconnects made when retrying
+     * 
+     * @return  reconnect count
+     */
+    public synchronized long getReconnectCount() {
+        long count = 0;
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                count += stats.getReconnectCount();
+        }
+        return count;
+    }
+    
+    /**
+     * Set the bandwidth threshold of all clients
+     * 
+     * @param thresholdBytesPerSec   bytes/sec, or 0 or less to stop throttling
+     */
+    public synchronized void setBandwidthThreshold(int thresholdBytesPerSec) {
+        Enumeration e = clients.elements();
+        while (e.hasMoreElements()) {
+            TransferStatistics stats = getTransferStatistics(e.nextElement());
+            if (stats != null)
+                stats.setBandwidthThreshold(thresholdBytesPerSec);
+        }
+    }
+    
+    /**
+     * Get the live statistics of a client, if it keeps them
+     */
+    private TransferStatistics getTransferStatistics(Object client) {
+        if (client instanceof FTPClient)
+            return ((FTPClient)client).getTransferStatistics();
+        return null;
+    }
+    
     /**
      * Reset the statistics back to zero
      */
@@ -99,6 +218,9 @@ public class FileStatistics {
             client.resetDownloadCount();
             client.resetDeleteCount();
             client.resetUploadCount();
+            TransferStatistics stats = getTransferStatistics(client);
+            if (stats != null)
+                stats.reset();
         }
     }
 
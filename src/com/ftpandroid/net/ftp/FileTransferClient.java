@@ -48,7 +48,7 @@ public class FileTransferClient implements FileTransferClientInterface {
     
     private AdvancedGeneralSettings advancedSettings;
     
-    private FileStatistics statistics;
+    private final FileStatistics statistics;
     
     /**
      * Default constructor
@@ -472,14 +472,36 @@ public class FileTransferClient implements FileTransferClientInterface {
 
     
     /**
-     * Get statistics on file transfers and deletions. 
+     * Get statistics on file transfers and deletions. Not synchronized,
+     * so may be called while a transfer is in progress.
      * 
      * @return FTPStatistics
      */
-    public synchronized FileStatistics getStatistics() {
+    public FileStatistics getStatistics() {
         return statistics;
     }
     
+    /**
+     * Get live statistics of this client's session, such as active
+     * transfers and transfer rate. May be called while a transfer is
+     * in progress.
+     * 
+     * @return TransferStatistics
+     */
+    public TransferStatistics getTransferStatistics() {
+        return ftpClient.getTransferStatistics();
+    }
+    
+    /**
+     * Get the underlying client. Only to be used while holding
+     * this object's lock.
+     * 
+     * @return FTPClient
+     */
+    FTPClient getFTPClient() {
+        return ftpClient;
+    }
+    
     /**
      * Request that the remote server execute the literal command supplied. In
      * FTP, this is the equivalent of 'quote'. It could be used to send a SITE
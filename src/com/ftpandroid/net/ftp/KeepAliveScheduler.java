@@ -0,0 +1,405 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Keeps idle sessions alive from a background thread. A session whose
+ *  control channel has been idle for its host's keep-alive interval is
+ *  sent a NOOP. If the NOOP fails the session is treated as dead and is
+ *  reconnected, logged in and returned to its working directory, so
+ *  that the next operation finds a working connection. A dead session
+ *  whose working directory isn't known is closed instead, so that it
+ *  is never restored to the wrong directory.
+ *  <p>
+ *  The interval adapts per host: it grows while probes keep succeeding,
+ *  and when a session is found dead it drops below the idle time that
+ *  killed it, and is not allowed to grow back past it.
+ *  <p>
+ *  Probes are made while holding the FileTransferClient's lock, which
+ *  all its methods take, so they never interleave with the client's
+ *  own commands. Sessions with a transfer in progress are never probed.
+ *
+ *  @author      Eric
+ */
+public class KeepAliveScheduler {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("KeepAliveScheduler");
+
+    /**
+     * Default interval before a host's behaviour is known, in ms
+     */
+    public static final long DEFAULT_INITIAL_INTERVAL = 30000;
+
+    /**
+     * Default shortest interval, in ms
+     */
+    public static final long DEFAULT_MIN_INTERVAL = 5000;
+
+    /**
+     * Default longest interval, in ms
+     */
+    public static final long DEFAULT_MAX_INTERVAL = 300000;
+
+    /**
+     * Growth of the interval after each successful probe
+     */
+    private static final double GROWTH = 1.25;
+
+    /**
+     * Shortest sleep between checks, in ms
+     */
+    private static final long MIN_TICK = 1000;
+
+    private long initialInterval = DEFAULT_INITIAL_INTERVAL;
+
+    private long minInterval = DEFAULT_MIN_INTERVAL;
+
+    private long maxInterval = DEFAULT_MAX_INTERVAL;
+
+    /**
+     * Registered sessions
+     */
+    private Vector sessions = new Vector();
+
+    /**
+     * Learned intervals keyed by host
+     */
+    private Hashtable intervals = new Hashtable();
+
+    private Thread thread;
+
+    private volatile boolean running = false;
+
+    private long probeCount = 0;
+
+    private long reconnectCount = 0;
+
+    /**
+     * Register a FileTransferClient to be kept alive
+     *
+     * @param client  client to keep alive
+     */
+    public synchronized void register(FileTransferClient client) {
+        for (int i = 0; i < sessions.size(); i++) {
+            if (((Session)sessions.elementAt(i)).lock == client)
+                return;
+        }
+        sessions.addElement(new Session(client.getFTPClient(), client));
+        notify();
+    }
+
+    /**
+     * Stop keeping a client alive
+     *
+     * @param client  client registered
+     */
+    public synchronized void unregister(FileTransferClient client) {
+        for (int i = 0; i < sessions.size(); i++) {
+            if (((Session)sessions.elementAt(i)).lock == client) {
+                sessions.removeElementAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start the background thread
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "KeepAlive");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread. Sessions are left as they are.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            stopping = thread;
+            thread = null;
+        }
+        if (stopping != null)
+            stopping.join();
+    }
+
+    private void runLoop() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            long nextDue = now + maxInterval;
+            Session[] current;
+            synchronized (this) {
+                current = new Session[sessions.size()];
+                sessions.copyInto(current);
+            }
+            for (int i = 0; i < current.length && running; i++) {
+                long due = check(current[i]);
+                if (due < nextDue)
+                    nextDue = due;
+            }
+            synchronized (this) {
+                long sleep = Math.max(MIN_TICK, nextDue - System.currentTimeMillis());
+                if (running) {
+                    try {
+                        wait(sleep);
+                    }
+                    catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Probe a session if it is due
+     *
+     * @return time the session is next due
+     */
+    private long check(Session session) {
+        FTPClient client = session.client;
+        String host = client.getRemoteHost();
+        long interval = getInterval(host);
+        if (!session.dead) {
+            long last = client.getLastActivityTime();
+            if (last == 0 || !client.connected())
+                return System.currentTimeMillis() + interval; // never connected, or quit
+            if (System.currentTimeMillis() - last < interval)
+                return last + interval;
+        }
+        synchronized (session.lock) {
+            if (session.dead) {
+                reconnect(session);
+            }
+            else {
+                long idle = System.currentTimeMillis() - client.getLastActivityTime();
+                if (idle >= interval && client.connected() &&
+                        client.getTransferStatistics().getActiveTransfers() == 0)
+                    probe(session, host, idle);
+            }
+        }
+        return System.currentTimeMillis() + getInterval(host);
+    }
+
+    /**
+     * Send a NOOP. If the client doesn't know its working directory,
+     * e.g. after a relative CWD, it is found with PWD first in case the
+     * session must be re-established.
+     */
+    private void probe(Session session, String host, long idle) {
+        FTPClient client = session.client;
+        try {
+            if (!client.isWorkingDirectoryKnown())
+                client.pwd();
+            client.noOperation();
+            synchronized (this) {
+                probeCount++;
+            }
+            succeeded(host, idle);
+        }
+        catch (IOException ex) {
+            log.warn("Session to " + host + " dead after " + idle + " ms idle: " + ex.getMessage());
+            failed(host, idle);
+            died(session);
+        }
+        catch (FTPException ex) {
+            if (ex.getReplyCode() == 421) {
+                log.warn("Session to " + host + " closed by server after " + idle + " ms idle");
+                failed(host, idle);
+                died(session);
+            }
+            else
+                log.warn("Keep-alive to " + host + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Re-establish a session found dead if its working directory is
+     * known, and otherwise close it and stop keeping it alive
+     */
+    private void died(Session session) {
+        FTPClient client = session.client;
+        if (!client.isWorkingDirectoryKnown()) {
+            log.warn("Working directory of session to " + client.getRemoteHost()
+                    + " not known - closing it rather than re-establishing it");
+            try {
+                client.quitImmediately();
+            }
+            catch (Exception ignore) {}
+            unregister(session.lock);
+            return;
+        }
+        // reconnecting changes what the client knows, so keep it here
+        session.directory = client.getWorkingDirectory();
+        session.dead = true;
+        reconnect(session);
+    }
+
+    /**
+     * Re-establish a dead session
+     */
+    private void reconnect(Session session) {
+        try {
+            session.client.reconnect(session.directory);
+            session.dead = false;
+            synchronized (this) {
+                reconnectCount++;
+            }
+            log.info("Re-established session to " + session.client.getRemoteHost());
+        }
+        catch (Exception ex) {
+            log.warn("Failed to re-establish session to " + session.client.getRemoteHost()
+                    + " - will try again: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Get the current interval for a host
+     */
+    private synchronized long getInterval(String host) {
+        if (host == null)
+            return initialInterval;
+        HostInterval interval = (HostInterval)intervals.get(host);
+        return interval == null ? initialInterval : interval.current;
+    }
+
+    private synchronized HostInterval getHostInterval(String host) {
+        HostInterval interval = (HostInterval)intervals.get(host);
+        if (interval == null) {
+            interval = new HostInterval(initialInterval);
+            intervals.put(host, interval);
+        }
+        return interval;
+    }
+
+    /**
+     * A session survived being idle, so try a longer interval
+     */
+    private synchronized void succeeded(String host, long idle) {
+        HostInterval interval = getHostInterval(host);
+        long limit = interval.ceiling > 0 ? (interval.ceiling * 3) / 4 : maxInterval;
+        interval.current = Math.max(interval.current, Math.min(limit, Math.min(maxInterval, (long)(interval.current * GROWTH))));
+    }
+
+    /**
+     * A session died after being idle, so stay well below that
+     */
+    private synchronized void failed(String host, long idle) {
+        HostInterval interval = getHostInterval(host);
+        interval.ceiling = interval.ceiling > 0 ? Math.min(interval.ceiling, idle) : idle;
+        interval.current = Math.max(minInterval, Math.min(interval.current, idle / 2));
+    }
+
+    /**
+     * Get the current keep-alive interval used for a host
+     *
+     * @param host  host name
+     * @return interval in ms
+     */
+    public long getKeepAliveInterval(String host) {
+        return getInterval(host);
+    }
+
+    /**
+     * Set the interval used for hosts until their behaviour is learned
+     *
+     * @param initialInterval  interval in ms
+     */
+    public synchronized void setInitialInterval(long initialInterval) {
+        this.initialInterval = initialInterval;
+    }
+
+    /**
+     * Set the range the interval may adapt within
+     *
+     * @param minInterval  shortest interval in ms
+     * @param maxInterval  longest interval in ms
+     */
+    public synchronized void setIntervalRange(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * Get the number of successful probes sent
+     *
+     * @return count
+     */
+    public synchronized long getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * Get the number of dead sessions re-established
+     *
+     * @return count
+     */
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * A registered session
+     */
+    private static class Session {
+
+        private FTPClient client;
+
+        /**
+         * Held while probing
+         */
+        private FileTransferClient lock;
+
+        /**
+         * Working directory to restore a dead session to, null for the
+         * home directory
+         */
+        private String directory;
+
+        /**
+         * True if found dead and not yet re-established
+         */
+        private volatile boolean dead = false;
+
+        Session(FTPClient client, FileTransferClient lock) {
+            this.client = client;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * Learned interval for a host
+     */
+    private static class HostInterval {
+
+        private long current;
+
+        /**
+         * Shortest idle time a session has been found dead after, 0 if never
+         */
+        private long ceiling = 0;
+
+        HostInterval(long current) {
+            this.current = current;
+        }
+    }
+}
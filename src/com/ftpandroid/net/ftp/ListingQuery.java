@@ -0,0 +1,218 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ *  Selects the entries of a detailed listing wanted by
+ *  {@link FTPClient#dirDetails(String, ListingQuery)} - by name, type,
+ *  size and modification time, and up to a maximum number. The parsers
+ *  check what they can of the query before the expensive parts of
+ *  parsing a line, chiefly the date, so that entries that are not
+ *  wanted cost little. Once the maximum number of entries has been
+ *  found the rest of the listing is not read.
+ *  <p>
+ *  Size limits apply to entries other than directories. An entry with
+ *  no modification time fails any time limit.
+ *
+ *  @author      Eric
+ */
+public class ListingQuery {
+
+    /**
+     * Name pattern, null for any name
+     */
+    private Pattern namePattern;
+
+    private boolean includeFiles = true;
+
+    private boolean includeDirectories = true;
+
+    private boolean includeLinks = true;
+
+    private long minSize = 0;
+
+    private long maxSize = Long.MAX_VALUE;
+
+    private Date modifiedAfter;
+
+    private Date modifiedBefore;
+
+    /**
+     * Maximum number of entries, 0 for no limit
+     */
+    private int maxResults = 0;
+
+    /**
+     * Select names matching a wildcard pattern, in which '*' matches
+     * any characters and '?' any single character
+     *
+     * @param glob      pattern
+     */
+    public void setNameGlob(String glob) {
+        StringBuffer regex = new StringBuffer();
+        StringBuffer literal = new StringBuffer();
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch == '*' || ch == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(ch == '*' ? ".*" : ".");
+            }
+            else
+                literal.append(ch);
+        }
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+        namePattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Select names matching a regular expression, which must match
+     * the whole name
+     *
+     * @param regex     regular expression
+     */
+    public void setNameRegex(String regex) {
+        namePattern = Pattern.compile(regex);
+    }
+
+    /**
+     * Set whether plain files are selected. The default is true.
+     *
+     * @param include  true to select files
+     */
+    public void setIncludeFiles(boolean include) {
+        this.includeFiles = include;
+    }
+
+    /**
+     * Set whether directories are selected. The default is true.
+     *
+     * @param include  true to select directories
+     */
+    public void setIncludeDirectories(boolean include) {
+        this.includeDirectories = include;
+    }
+
+    /**
+     * Set whether symbolic links are selected. The default is true.
+     *
+     * @param include  true to select links
+     */
+    public void setIncludeLinks(boolean include) {
+        this.includeLinks = include;
+    }
+
+    /**
+     * Select entries with sizes in a range
+     *
+     * @param minSize  smallest size in bytes
+     * @param maxSize  largest size in bytes
+     */
+    public void setSizeRange(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Select entries modified after a time
+     *
+     * @param date  time, or null for no limit
+     */
+    public void setModifiedAfter(Date date) {
+        this.modifiedAfter = date;
+    }
+
+    /**
+     * Select entries modified before a time
+     *
+     * @param date  time, or null for no limit
+     */
+    public void setModifiedBefore(Date date) {
+        this.modifiedBefore = date;
+    }
+
+    /**
+     * Stop once this many entries have been selected. The entries
+     * are the first selected in the order the server lists them.
+     *
+     * @param maxResults   maximum number of entries, 0 for no limit
+     */
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Get the maximum number of entries selected
+     *
+     * @return maximum, 0 for no limit
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Does the name satisfy the query?
+     *
+     * @param name   entry name
+     * @return true if it does
+     */
+    public boolean acceptsName(String name) {
+        return namePattern == null || (name != null && namePattern.matcher(name).matches());
+    }
+
+    /**
+     * Does the type satisfy the query?
+     *
+     * @param isDir    true if a directory
+     * @param isLink   true if a symbolic link
+     * @return true if it does
+     */
+    public boolean acceptsType(boolean isDir, boolean isLink) {
+        if (isLink)
+            return includeLinks;
+        return isDir ? includeDirectories : includeFiles;
+    }
+
+    /**
+     * Does the size satisfy the query?
+     *
+     * @param isDir  true if a directory
+     * @param size   size in bytes
+     * @return true if it does
+     */
+    public boolean acceptsSize(boolean isDir, long size) {
+        return isDir || (size >= minSize && size <= maxSize);
+    }
+
+    /**
+     * Does the modification time satisfy the query?
+     *
+     * @param modified   modification time, or null if not known
+     * @return true if it does
+     */
+    public boolean acceptsModified(Date modified) {
+        if (modifiedAfter == null && modifiedBefore == null)
+            return true;
+        if (modified == null)
+            return false;
+        return (modifiedAfter == null || modified.after(modifiedAfter)) &&
+            (modifiedBefore == null || modified.before(modifiedBefore));
+    }
+
+    /**
+     * Does a parsed entry satisfy the query?
+     *
+     * @param file   entry
+     * @return true if it does
+     */
+    public boolean accepts(FTPFile file) {
+        // lazily parsed files only decode the date if it is needed
+        return acceptsType(file.isDir(), file.isLink()) && acceptsName(file.getName()) &&
+            acceptsSize(file.isDir(), file.size()) && 
+            ((modifiedAfter == null && modifiedBefore == null) || acceptsModified(file.lastModified()));
+    }
+}
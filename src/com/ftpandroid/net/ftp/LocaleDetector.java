@@ -0,0 +1,134 @@
+package com.ftpandroid.net.ftp;
+
+import java.text.DateFormatSymbols;
+import java.util.Hashtable;
+import java.util.Locale;
+
+import com.ftpandroid.connx.FieldTokenizer;
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Picks the locale of the dates in a listing from the month names
+ *  found in a sample of its lines, so that a listing can be parsed in
+ *  one pass rather than restarted for each locale that fails. Fields,
+ *  and the parts of fields between '-' or '/', are compared ignoring
+ *  case with the short month names of each locale.
+ *
+ *  @author      Eric
+ */
+public class LocaleDetector {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("LocaleDetector");
+
+    /**
+     * Default number of lines sampled
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 20;
+
+    /**
+     * Number of non-blank lines sampled
+     */
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    /**
+     * Upper case month names of each locale, keyed by locale
+     */
+    private Hashtable monthNames = new Hashtable();
+
+    /**
+     * Finds the fields of each line
+     */
+    private FieldTokenizer fields = new FieldTokenizer();
+
+    /**
+     * Set the number of non-blank lines sampled
+     *
+     * @param sampleSize  number of lines
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * Get the number of non-blank lines sampled
+     *
+     * @return number of lines
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Pick the locale whose month names are found most often in the
+     * start of a listing. Ties go to the locale supplied first.
+     *
+     * @param listing   listing lines
+     * @param locales   locales to choose from
+     * @return locale, or null if no month names were found, e.g.
+     *          because the listing has numeric dates
+     */
+    public Locale detect(String[] listing, Locale[] locales) {
+        if (locales == null || locales.length == 0)
+            return null;
+        Hashtable[] months = new Hashtable[locales.length];
+        for (int i = 0; i < locales.length; i++)
+            months[i] = getMonthNames(locales[i]);
+        int[] scores = new int[locales.length];
+
+        int sampled = 0;
+        for (int i = 0; i < listing.length && sampled < sampleSize; i++) {
+            if (listing[i] == null || listing[i].trim().length() == 0)
+                continue;
+            sampled++;
+            int count = fields.tokenize(listing[i]);
+            for (int j = 0; j < count; j++) {
+                int start = fields.getStart(j);
+                int end = fields.getEnd(j);
+                for (int k = start; k <= end; k++) {
+                    if (k < end && listing[i].charAt(k) != '-' && listing[i].charAt(k) != '/')
+                        continue;
+                    if (k > start && Character.isLetter(listing[i].charAt(start))) {
+                        String token = listing[i].substring(start, k).toUpperCase(Locale.ENGLISH);
+                        for (int m = 0; m < locales.length; m++) {
+                            if (months[m].containsKey(token))
+                                scores[m]++;
+                        }
+                    }
+                    start = k + 1;
+                }
+            }
+        }
+
+        int best = -1;
+        for (int i = 0; i < locales.length; i++) {
+            if (scores[i] > 0 && (best < 0 || scores[i] > scores[best]))
+                best = i;
+        }
+        if (best < 0) {
+            log.debug("No month names found in listing");
+            return null;
+        }
+        log.debug("Detected " + locales[best].toString() + " locale (" + scores[best] + " month names)");
+        return locales[best];
+    }
+
+    /**
+     * Get the upper case short month names of a locale
+     */
+    private Hashtable getMonthNames(Locale locale) {
+        Hashtable names = (Hashtable)monthNames.get(locale);
+        if (names == null) {
+            names = new Hashtable();
+            String[] months = new DateFormatSymbols(locale).getShortMonths();
+            for (int i = 0; i < months.length; i++) {
+                if (months[i].length() > 0)
+                    names.put(months[i].toUpperCase(Locale.ENGLISH), months[i]);
+            }
+            monthNames.put(locale, names);
+        }
+        return names;
+    }
+}
@@ -1,10 +1,8 @@
 package com.ftpandroid.net.ftp;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  *  Parses the string returned from the MLSD or MLST command 
@@ -45,106 +43,222 @@ public class MLSXEntryParser extends FTPFileParser {
     final private static String SUB_DIR_TYPE = "dir";   // a directory or sub-directory
     
     /**
-     *  Format to interpret MTDM timestamp
+     * Milliseconds in a day
      */
-    private SimpleDateFormat tsFormat1 =
-        new SimpleDateFormat("yyyyMMddHHmmss");
+    final private static long DAY_MILLIS = 24L * 60 * 60 * 1000;
+            
+    /**
+     * Parse server supplied string that is returned from MLST/D
+     * 
+     * @param raw   raw string to parse
+     */
+    public FTPFile parse(String raw) throws ParseException {
+        return parse(raw, false, null);
+    }
     
     /**
-     *  Format to interpret MTDM timestamp
+     * Parse server supplied string if its name satisfies a query
+     * 
+     * @param raw     raw string to parse
+     * @param query   query the entry should satisfy, or null
+     * @return  file, or null if rejected
      */
-    private SimpleDateFormat tsFormat2 =
-        new SimpleDateFormat("yyyyMMddHHmmss.SSS");
+    public FTPFile parse(String raw, ListingQuery query) throws ParseException {
+        return parse(raw, false, query);
+    }
     
     /**
-     *  Instance initializer. Sets formatters to GMT.
+     * Parse a line of an MLST or MLSD reply
+     * 
+     * @param raw       raw string to parse
+     * @param listing   true if from an MLSD listing
+     * @return  file, or null if skipped
      */
-    {
-        tsFormat1.setTimeZone(TimeZone.getTimeZone("GMT"));
-        tsFormat2.setTimeZone(TimeZone.getTimeZone("GMT"));
-    }  
-            
+    FTPFile parse(String raw, boolean listing) throws ParseException {
+        return parse(raw, listing, null);
+    }
+    
     /**
-     * Parse server supplied string that is returned from MLST/D
+     * Parse a line of an MLST or MLSD reply. The facts are scanned in
+     * place rather than split into strings, and timestamps, which are
+     * always UTC, are converted arithmetically.
      * 
-     * @param raw   raw string to parse
+     * @param raw       raw string to parse
+     * @param listing   true if from an MLSD listing, in which case the
+     *                  entries for the listed and parent directories are
+     *                  skipped
+     * @param query     query the entry should satisfy, or null. The name
+     *                  is checked before the facts are parsed.
+     * @return  file, or null if skipped
      */
-    public FTPFile parse(String raw) throws ParseException {
-        String[] fields = split(raw, ';');
+    FTPFile parse(String raw, boolean listing, ListingQuery query) throws ParseException {
+        // MLST fact lines start with a space, which isn't part of the facts
+        int factsStart = 0;
+        while (factsStart < raw.length() && raw.charAt(factsStart) == ' ')
+            factsStart++;
+        
+        // facts can't contain spaces, and a single space precedes the name
+        int nameStart = raw.indexOf(' ', factsStart);
+        int factsEnd = nameStart;
+        if (nameStart < 0) { // not to the spec - assume the name is after the last fact
+            nameStart = raw.lastIndexOf(';');
+            factsEnd = Math.max(nameStart, 0);
+        }
+        String name = nameStart >= 0 ? raw.substring(nameStart+1) : raw;
         String path = null;
+        int slash = name.lastIndexOf('/');
+        if (slash >= 0) {
+            path = name.substring(0, slash);
+            name = name.substring(slash+1);
+        }
+        if (query != null && !query.acceptsName(name))
+            return null;
         FTPFile ftpFile = new FTPFile(raw);
-        for (int i = 0; i < fields.length; i++) {
-            String field = fields[i];
-            if (i+1 == fields.length) {
-                path = field.trim();  // last field is the path
-                String name = path;
-                int pos = name.lastIndexOf('/');
-                if (pos >= 0) {
-                    path = name.substring(0, pos);
-                    ftpFile.setPath(path);
-                    name = name.substring(++pos);
+        int pos = factsStart;
+        while (pos < factsEnd) {
+            int end = raw.indexOf(';', pos);
+            if (end < 0 || end > factsEnd)
+                end = factsEnd;
+            int eq = raw.indexOf('=', pos);
+            if (eq > pos && eq < end) {
+                int value = eq + 1;
+                if (isFact(raw, pos, eq, SIZE)) {
+                    ftpFile.setSize(parseSize(raw, value, end));
                 }
-                ftpFile.setName(name);                
-            }
-            else {
-                int pos = field.indexOf('=');
-                if (pos > 0) {
-                    String name = field.substring(0, pos);
-                    String value = field.substring(++pos);
-                    if (name.equalsIgnoreCase(SIZE)) {
-                        ftpFile.setSize(parseSize(value));
-                    }
-                    else if (name.equalsIgnoreCase(MODIFY)) {
-                        ftpFile.setLastModified(parseDate(value));
-                    }
-                    else if (name.equalsIgnoreCase(TYPE)) {
-                        if (value.equalsIgnoreCase(FILE_TYPE))
-                            ftpFile.setDir(false);
-                        else // assume a dir if not a file for the moment
-                            ftpFile.setDir(true);
-                    }
-                    else if (name.equalsIgnoreCase(PERM)) {
-                        ftpFile.setPermissions(value);
-                    }
-                    else if (name.equalsIgnoreCase(CREATE)) {
-                        ftpFile.setCreated(parseDate(value));
+                else if (isFact(raw, pos, eq, MODIFY)) {
+                    ftpFile.setLastModified(parseDate(raw, value, end));
+                }
+                else if (isFact(raw, pos, eq, TYPE)) {
+                    if (isValue(raw, value, end, FILE_TYPE))
+                        ftpFile.setDir(false);
+                    else if (isValue(raw, value, end, LISTED_DIR_TYPE) || isValue(raw, value, end, PARENT_DIR_TYPE)) {
+                        if (listing)
+                            return null;
+                        ftpFile.setDir(true);
                     }
+                    else // assume a dir if not a file for the moment
+                        ftpFile.setDir(true);
+                }
+                else if (isFact(raw, pos, eq, PERM)) {
+                    ftpFile.setPermissions(raw.substring(value, end));
+                }
+                else if (isFact(raw, pos, eq, CREATE)) {
+                    ftpFile.setCreated(parseDate(raw, value, end));
                 }
             }
+            pos = end + 1;
         }
+        if (path != null)
+            ftpFile.setPath(path);
+        ftpFile.setName(name);                
         return ftpFile;
     }
     
     /**
-     * Parse the size string
+     * Is the fact name between start and end the supplied name?
+     */
+    private static boolean isFact(String raw, int start, int end, String fact) {
+        return end - start == fact.length() && raw.regionMatches(true, start, fact, 0, end - start);
+    }
+    
+    /**
+     * Is the fact value between start and end the supplied value?
+     */
+    private static boolean isValue(String raw, int start, int end, String value) {
+        return end - start == value.length() && raw.regionMatches(true, start, value, 0, end - start);
+    }
+    
+    /**
+     * Parse the size
      * 
-     * @param value   string containing size value
-     * @return
+     * @param raw     string containing size value
+     * @param start   start of value
+     * @param end     end of value
+     * @return size
      * @throws ParseException
      */
-    private long parseSize(String value) throws ParseException {
-        try {
-            return Long.parseLong(value);
-        }
-        catch (NumberFormatException ex) {
-            throw new ParseException("Failed to parse size: " + value, 0);
+    private long parseSize(String raw, int start, int end) throws ParseException {
+        if (start >= end)
+            throw new ParseException("Empty size", start);
+        long size = 0;
+        for (int i = start; i < end; i++) {
+            char ch = raw.charAt(i);
+            if (ch < '0' || ch > '9')
+                throw new ParseException("Failed to parse size: " + raw.substring(start, end), i);
+            size = size * 10 + (ch - '0');
         }
+        return size;
     }
     
     /**
-     * Parse the date string. In format YYYYMMDDHHMMSS.sss
+     * Parse the date. In format YYYYMMDDHHMMSS[.sss], UTC
      * 
-     * @param value     string to parse
-     * @return Date from string
+     * @param raw     string containing date
+     * @param start   start of value
+     * @param end     end of value
+     * @return Date from string, or null if invalid and ignoring date errors
      * @throws ParseException
      */
-    private Date parseDate(String value) throws ParseException {
-        try {
-            return tsFormat1.parse(value);
+    private Date parseDate(String raw, int start, int end) throws ParseException {
+        if (end - start >= 14) {
+            int year = digits(raw, start, 4);
+            int month = digits(raw, start+4, 2);
+            int day = digits(raw, start+6, 2);
+            int hour = digits(raw, start+8, 2);
+            int minute = digits(raw, start+10, 2);
+            int second = digits(raw, start+12, 2);
+            long millis = 0;
+            boolean valid = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 &&
+                hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 60;
+            if (end - start > 14) {
+                // fraction of a second
+                valid = valid && raw.charAt(start+14) == '.' && end - start > 15;
+                int scale = 100;
+                for (int i = start+15; valid && i < end; i++) {
+                    char ch = raw.charAt(i);
+                    valid = ch >= '0' && ch <= '9';
+                    millis += (ch - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            if (valid) {
+                long time = daysFromCivil(year, month, day) * DAY_MILLIS + 
+                    ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+                return new Date(time);
+            }
         }
-        catch (ParseException ex) {
-            return tsFormat2.parse(value);
+        if (ignoreDateParseErrors)
+            return null;
+        throw new ParseException("Failed to parse date: " + raw.substring(start, end), start);
+    }
+    
+    /**
+     * Get the value of a run of digits
+     * 
+     * @return value, or -1 if not all digits
+     */
+    private static int digits(String raw, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char ch = raw.charAt(i);
+            if (ch < '0' || ch > '9')
+                return -1;
+            value = value * 10 + (ch - '0');
         }
+        return value;
+    }
+    
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2)
+            year--;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
     
     /**
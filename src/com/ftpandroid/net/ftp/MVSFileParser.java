@@ -4,8 +4,8 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.StringTokenizer;
 
+import com.ftpandroid.connx.FieldTokenizer;
 import com.ftpandroid.connx.debug.Logger;
 
 /**
@@ -38,6 +38,7 @@ public class MVSFileParser extends FTPFileParser {
   private SimpleDateFormat dateTimeFormat; // The DateFormat object to parse "last modified" date+time with.
   
   private boolean partitionedDataset = false; // If true, It's a partitioned data set listing
+  private FieldTokenizer tokenizer = new FieldTokenizer(); // Finds the fields of each line
   
   /************************ Abstract Class Implementations *************************/
   
@@ -191,7 +192,7 @@ public class MVSFileParser extends FTPFileParser {
   /**
    * This is a split + trim function. The String.split method
    * doesn't work well if there are a multiple contiguous white-space
-   * characters. StringTokenizer handles this very well. This should
+   * characters. FieldTokenizer handles this very well. This should
    * never fail to return an array, even if the array is empty. In
    * other words, this should never return null.
    * @param raw The string to tokenize from the MainFrame
@@ -201,15 +202,8 @@ public class MVSFileParser extends FTPFileParser {
     if (raw == null) {
       return new String[] {};
     }
-    StringTokenizer st = new StringTokenizer(raw);
-    String[] rtn = new String[st.countTokens()];
-    int i = 0;
-    while (st.hasMoreTokens()) {
-      String nextToken = st.nextToken();
-      rtn[i] = nextToken.trim();
-      i++;
-    }
-    return rtn;
+    tokenizer.tokenize(raw);
+    return tokenizer.toArray();
   }
 
 
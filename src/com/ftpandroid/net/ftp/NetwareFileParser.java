@@ -6,6 +6,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 
+import com.ftpandroid.connx.FieldTokenizer;
 import com.ftpandroid.connx.debug.Logger;
 
 /**
@@ -45,6 +46,11 @@ public class NetwareFileParser extends FTPFileParser {
      */
     private final static int MIN_FIELD_COUNT = 8;
     
+    /**
+     * Finds the fields of each line without copying them
+     */
+    private FieldTokenizer tokenizer = new FieldTokenizer();
+    
     /**
      * Constructor
      */
@@ -85,6 +91,21 @@ public class NetwareFileParser extends FTPFileParser {
         return false;
     }
     
+    /**
+     * Score a sample of a listing by the number of Netware lines
+     * 
+     * @param sample   first non-blank lines of a listing
+     * @return number of Netware lines
+     */
+    public int scoreFormat(String[] sample) {
+        int score = 0;
+        for (int i = 0; i < sample.length; i++) {
+            if (sample[i] != null && isNetware(sample[i]))
+                score++;
+        }
+        return score;
+    }
+    
     /**
      * Is this a Netware format listing?
      * 
@@ -117,12 +138,13 @@ public class NetwareFileParser extends FTPFileParser {
         if (!isNetware(raw))
             return null;
         
-        String[] fields = split(raw);
+        FieldTokenizer fields = tokenizer;
+        int count = fields.tokenize(raw);
          
-        if (fields.length < MIN_FIELD_COUNT) {
+        if (count < MIN_FIELD_COUNT) {
             StringBuffer msg = new StringBuffer("Unexpected number of fields in listing '");
             msg.append(raw).append("' - expected minimum ").append(MIN_FIELD_COUNT). 
-                    append(" fields but found ").append(fields.length).append(" fields");
+                    append(" fields but found ").append(count).append(" fields");
             log.warn(msg.toString());
             return null;
         }
@@ -136,29 +158,28 @@ public class NetwareFileParser extends FTPFileParser {
         if (ch == DIRECTORY_CHAR)
             isDir = true;
         
-        String permissions = fields[++index];
+        String permissions = fields.getField(++index);
         if (permissions.charAt(0) == '[' && permissions.charAt(permissions.length()-1) == ']') {
             permissions = permissions.substring(1);
             permissions = permissions.substring(0, permissions.length()-1);
         }
                 
         // owner and group
-        String owner = fields[++index];
+        String owner = fields.getField(++index);
         
         // size
         long size = 0L;
-        String sizeStr = fields[++index];
         try {
-            size = Long.parseLong(sizeStr);
+            size = fields.parseLong(++index);
         }
         catch (NumberFormatException ex) {
-            log.warn("Failed to parse size: " + sizeStr);
+            log.warn("Failed to parse size: " + fields.getField(index));
         }
         
         // next 3 are the date time
-        String month = fields[++index];
-        String day = fields[++index];
-        String year = fields[++index];
+        String month = fields.getField(++index);
+        String day = fields.getField(++index);
+        String year = fields.getField(++index);
         String time = "00:00";
         
         Calendar cal = Calendar.getInstance();
@@ -194,21 +215,8 @@ public class NetwareFileParser extends FTPFileParser {
             lastModified = cal.getTime();
         }
                 
-        // we've got to find the starting point of the name. 
-        String name = raw.trim();
-        for (int i = 0; i < MIN_FIELD_COUNT-1; i++) {
-            int pos = name.indexOf(' ');
-            if (pos > 0)
-            {
-                name = name.substring(pos).trim();
-            }     
-            else 
-            {
-                name = null;
-                log.debug("Failed to extract filename");
-                break;
-            }     
-        }
+        // the name is the rest of the line from the last field on
+        String name = fields.getRemainder(MIN_FIELD_COUNT-1).trim();
         
         // trim off './' if it is there
         if (name.startsWith(CURRENT_DIR_PREFIX))
@@ -219,4 +227,8 @@ public class NetwareFileParser extends FTPFileParser {
         file.setPermissions(permissions);
         return file;
     }
+
+    public FTPFileParser newInstance() {
+        return new NetwareFileParser();
+    }
 }
@@ -0,0 +1,125 @@
+package com.ftpandroid.net.ftp;
+
+import java.lang.reflect.Modifier;
+
+/**
+ *  The listing parsers available to {@link FTPFileFactory}, in the order
+ *  they are tried. A registry is immutable and may be shared by any
+ *  number of factories; each factory creates a parser from it only when
+ *  the parser is first needed, since parsers keep per-connection state
+ *  such as their locale and are not thread-safe.
+ *
+ *  @author      Eric
+ */
+public class ParserRegistry {
+
+    /**
+     * The standard parsers
+     */
+    private static ParserRegistry defaultRegistry = new ParserRegistry(new Class[] {
+        UnixFileParser.class, WindowsFileParser.class, VMSFileParser.class,
+        NetwareFileParser.class, MVSFileParser.class });
+
+    /**
+     * Parser classes in the order they are tried
+     */
+    private final Class[] parserClasses;
+
+    /**
+     * Constructor
+     *
+     * @param parserClasses  parser classes in the order they are tried,
+     *                       each with a public no-argument constructor
+     * @throws IllegalArgumentException if a class is not a parser that
+     *                       can be created
+     */
+    public ParserRegistry(Class[] parserClasses) {
+        for (int i = 0; i < parserClasses.length; i++) {
+            Class c = parserClasses[i];
+            if (!FTPFileParser.class.isAssignableFrom(c) || Modifier.isAbstract(c.getModifiers()))
+                throw new IllegalArgumentException(c.getName() + " is not a listing parser");
+            try {
+                c.getConstructor(new Class[0]);
+            }
+            catch (NoSuchMethodException ex) {
+                throw new IllegalArgumentException(c.getName() + " has no public no-argument constructor");
+            }
+        }
+        this.parserClasses = new Class[parserClasses.length];
+        System.arraycopy(parserClasses, 0, this.parserClasses, 0, parserClasses.length);
+    }
+
+    /**
+     * Get the registry of the standard parsers
+     *
+     * @return registry
+     */
+    public static ParserRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /**
+     * Get the number of parsers
+     *
+     * @return number of parsers
+     */
+    public int size() {
+        return parserClasses.length;
+    }
+
+    /**
+     * Get the class of a parser
+     *
+     * @param index    index of parser
+     * @return class
+     */
+    public Class getParserClass(int index) {
+        return parserClasses[index];
+    }
+
+    /**
+     * Find a parser by class name
+     *
+     * @param className   class name
+     * @return index, or -1 if not registered
+     */
+    public int indexOf(String className) {
+        for (int i = 0; i < parserClasses.length; i++) {
+            if (parserClasses[i].getName().equals(className))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Find a parser by class
+     *
+     * @param parserClass   class
+     * @return index, or -1 if not registered
+     */
+    public int indexOf(Class parserClass) {
+        for (int i = 0; i < parserClasses.length; i++) {
+            if (parserClasses[i] == parserClass)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Create a new parser
+     *
+     * @param index    index of parser
+     * @return new parser
+     */
+    public FTPFileParser newParser(int index) {
+        try {
+            return (FTPFileParser)parserClasses[index].newInstance();
+        }
+        catch (InstantiationException ex) {
+            throw new IllegalStateException("Failed to create " + parserClasses[index].getName() + ": " + ex.getMessage());
+        }
+        catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Failed to create " + parserClasses[index].getName() + ": " + ex.getMessage());
+        }
+    }
+}
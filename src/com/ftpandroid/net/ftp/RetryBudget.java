@@ -0,0 +1,57 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Limits the number of retries made in each time window, so that
+ *  retries cannot multiply the load on a struggling server
+ *
+ *  @author      Eric
+ */
+public class RetryBudget {
+    
+    private int maxRetries;
+    
+    private long window;
+    
+    private long windowStart = System.currentTimeMillis();
+    
+    private int used = 0;
+    
+    /**
+     * Constructor
+     * 
+     * @param maxRetries   retries allowed per window
+     * @param window       length of window in milliseconds
+     */
+    public RetryBudget(int maxRetries, long window) {
+        this.maxRetries = maxRetries;
+        this.window = window;
+    }
+    
+    /**
+     * Take a retry from the budget if any are left in this window
+     * 
+     * @return true if the retry may go ahead
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= window) {
+            windowStart = now;
+            used = 0;
+        }
+        if (used >= maxRetries)
+            return false;
+        used++;
+        return true;
+    }
+    
+    /**
+     * Get the number of retries left in this window
+     * 
+     * @return retries left
+     */
+    public synchronized int getRemaining() {
+        if (System.currentTimeMillis() - windowStart >= window)
+            return maxRetries;
+        return maxRetries - used;
+    }
+}
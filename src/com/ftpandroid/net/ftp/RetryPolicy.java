@@ -0,0 +1,41 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Decides whether and when a failed transfer is retried. Set on a 
+ *  client via {@link FTPClient#setRetryPolicy(RetryPolicy)}, in which
+ *  case it replaces the client's retry count and retry delay. A policy
+ *  may be shared by many clients, and should then keep its state per
+ *  host so that all clients talking to a host see the same view of it.
+ *
+ *  @author      Eric
+ */
+public interface RetryPolicy {
+
+    /**
+     * Called before each attempt at a transfer. Returning false fails 
+     * the transfer immediately without contacting the server.
+     * 
+     * @param host   host the transfer is against
+     * @return true if the attempt may go ahead
+     */
+    public boolean allowAttempt(String host);
+    
+    /**
+     * Called when an attempt at a transfer fails with an error that 
+     * could be retried
+     * 
+     * @param host            host the transfer is against
+     * @param attemptNumber   number of the attempt that failed, starting at 1
+     * @param previousDelay   delay returned for the previous attempt, 0 if first
+     * @param ex              the failure
+     * @return milliseconds to wait before retrying, or -1 to give up
+     */
+    public long getRetryDelay(String host, int attemptNumber, long previousDelay, Exception ex);
+    
+    /**
+     * Called when an attempt at a transfer succeeds
+     * 
+     * @param host   host the transfer is against
+     */
+    public void recordSuccess(String host);
+}
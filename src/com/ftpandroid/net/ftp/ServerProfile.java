@@ -0,0 +1,257 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ *  What has been learned about a server - its FEAT and SYST replies,
+ *  which optional commands work, the listing parser that fits its
+ *  listings and the locale their dates are in. Profiles are kept in a
+ *  {@link ServerProfileCache} and shared by every session to the same
+ *  server, so that later sessions do not repeat the probing.
+ *
+ *  @author      Eric
+ */
+public class ServerProfile {
+
+    private static final String FEATURES = "features";
+
+    private static final String SYSTEM = "system";
+
+    private static final String PARSER = "parser";
+
+    private static final String LOCALE = "locale";
+
+    private static final String COMMAND_PREFIX = "cmd.";
+
+    /**
+     * Identifies the server - host, port and greeting
+     */
+    private String key;
+
+    /**
+     * FEAT reply lines, null if not known
+     */
+    private String[] features;
+
+    /**
+     * SYST reply, null if not known
+     */
+    private String system;
+
+    /**
+     * Class name of the parser that fits the listings, null if not known
+     */
+    private String parser;
+
+    /**
+     * Locale the listing dates parse in, null if not known
+     */
+    private Locale locale;
+
+    /**
+     * Boolean keyed by command verb for the commands tried
+     */
+    private Hashtable commands = new Hashtable();
+
+    /**
+     * Cache the profile belongs to, told of changes
+     */
+    private ServerProfileCache cache;
+
+    /**
+     * Constructor
+     *
+     * @param key     key identifying the server
+     * @param cache   owning cache
+     */
+    ServerProfile(String key, ServerProfileCache cache) {
+        this.key = key;
+        this.cache = cache;
+    }
+
+    /**
+     * Get the key identifying the server
+     *
+     * @return key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Is a command known to work?
+     *
+     * @param verb  command verb, e.g. "SIZE"
+     * @return Boolean.TRUE or FALSE, or null if not yet tried
+     */
+    public synchronized Boolean isSupported(String verb) {
+        return (Boolean)commands.get(verb);
+    }
+
+    /**
+     * Record whether a command works
+     *
+     * @param verb       command verb
+     * @param supported  true if it works
+     */
+    public void setSupported(String verb, boolean supported) {
+        synchronized (this) {
+            Boolean value = supported ? Boolean.TRUE : Boolean.FALSE;
+            if (value.equals(commands.get(verb)))
+                return;
+            commands.put(verb, value);
+        }
+        changed();
+    }
+
+    /**
+     * Get the FEAT reply lines
+     *
+     * @return features, or null if not known
+     */
+    public synchronized String[] getFeatures() {
+        return features;
+    }
+
+    /**
+     * Record the FEAT reply lines
+     *
+     * @param features  features
+     */
+    public void setFeatures(String[] features) {
+        synchronized (this) {
+            this.features = features;
+        }
+        changed();
+    }
+
+    /**
+     * Get the SYST reply
+     *
+     * @return system, or null if not known
+     */
+    public synchronized String getSystem() {
+        return system;
+    }
+
+    /**
+     * Record the SYST reply
+     *
+     * @param system  system
+     */
+    public void setSystem(String system) {
+        synchronized (this) {
+            if (system == null || system.equals(this.system))
+                return;
+            this.system = system;
+        }
+        changed();
+    }
+
+    /**
+     * Get the class name of the parser that fits the server's listings
+     *
+     * @return parser class name, or null if not known
+     */
+    public synchronized String getParser() {
+        return parser;
+    }
+
+    /**
+     * Record the parser that fits the server's listings
+     *
+     * @param parser  parser class name
+     */
+    public void setParser(String parser) {
+        synchronized (this) {
+            if (parser == null || parser.equals(this.parser))
+                return;
+            this.parser = parser;
+        }
+        changed();
+    }
+
+    /**
+     * Get the locale the server's listing dates are in
+     *
+     * @return locale, or null if not known
+     */
+    public synchronized Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Record the locale the server's listing dates are in
+     *
+     * @param locale  locale
+     */
+    public void setLocale(Locale locale) {
+        synchronized (this) {
+            if (locale == null || locale.equals(this.locale))
+                return;
+            this.locale = locale;
+        }
+        changed();
+    }
+
+    private void changed() {
+        if (cache != null)
+            cache.profileChanged(this);
+    }
+
+    /**
+     * Write the profile into a set of properties, each name
+     * prefixed with the supplied prefix
+     */
+    synchronized void store(Properties props, String prefix) {
+        if (features != null) {
+            StringBuffer buf = new StringBuffer();
+            for (int i = 0; i < features.length; i++) {
+                if (i > 0)
+                    buf.append('\n');
+                buf.append(features[i]);
+            }
+            props.setProperty(prefix + FEATURES, buf.toString());
+        }
+        if (system != null)
+            props.setProperty(prefix + SYSTEM, system);
+        if (parser != null)
+            props.setProperty(prefix + PARSER, parser);
+        if (locale != null)
+            props.setProperty(prefix + LOCALE, locale.toString());
+        Enumeration e = commands.keys();
+        while (e.hasMoreElements()) {
+            String verb = (String)e.nextElement();
+            props.setProperty(prefix + COMMAND_PREFIX + verb, commands.get(verb).toString());
+        }
+    }
+
+    /**
+     * Set a value read back from the properties
+     *
+     * @param name   property name without the prefix
+     * @param value  property value
+     */
+    synchronized void load(String name, String value) {
+        if (name.equals(FEATURES))
+            features = value.length() == 0 ? new String[0] : value.split("\n");
+        else if (name.equals(SYSTEM))
+            system = value;
+        else if (name.equals(PARSER))
+            parser = value;
+        else if (name.equals(LOCALE)) {
+            String[] parts = value.split("_");
+            locale = parts.length == 1 ? new Locale(parts[0]) :
+                (parts.length == 2 ? new Locale(parts[0], parts[1]) : new Locale(parts[0], parts[1], parts[2]));
+        }
+        else if (name.startsWith(COMMAND_PREFIX))
+            commands.put(name.substring(COMMAND_PREFIX.length()), Boolean.valueOf(value));
+    }
+
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,281 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Holds a {@link ServerProfile} per server, keyed by host, port and
+ *  the first line of the server's greeting, so that a change of server
+ *  software behind the same address gets a fresh profile. Numbers in
+ *  the greeting, such as a user count or the time, are ignored. Clients 
+ *  sharing a cache (set via 
+ *  {@link FTPClient#setServerProfileCache(ServerProfileCache)}) share 
+ *  what each of them learns. The least recently used profiles are 
+ *  dropped once the cache is full. A cache created with a file is
+ *  loaded from it and rewritten whenever a profile changes, which is
+ *  rare once servers are known.
+ *
+ *  @author      Eric
+ */
+public class ServerProfileCache {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("ServerProfileCache");
+
+    /**
+     * Separates the server key from the attribute in property names
+     */
+    private static final char SEPARATOR = '|';
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Default maximum number of profiles kept
+     */
+    public static final int DEFAULT_MAX_PROFILES = 256;
+
+    /**
+     * Longest greeting text used in a key
+     */
+    private static final int MAX_GREETING_LENGTH = 80;
+
+    /**
+     * Shared in-memory cache
+     */
+    private static ServerProfileCache defaultCache = new ServerProfileCache();
+
+    /**
+     * Maximum number of profiles kept
+     */
+    private int maxProfiles = DEFAULT_MAX_PROFILES;
+
+    /**
+     * Profiles keyed by server key, least recently used first
+     */
+    private LinkedHashMap profiles = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > maxProfiles;
+        }
+    };
+
+    /**
+     * File the cache is kept in, null if in memory only
+     */
+    private File file;
+
+    /**
+     * Constructor for a cache kept in memory only
+     */
+    public ServerProfileCache() {
+    }
+
+    /**
+     * Constructor for a cache kept in a file. Profiles already in
+     * the file are loaded.
+     *
+     * @param file  file to keep the cache in
+     * @throws IOException
+     */
+    public ServerProfileCache(File file) throws IOException {
+        this.file = file;
+        if (file.exists())
+            load();
+    }
+
+    /**
+     * Get the shared in-memory cache
+     *
+     * @return cache
+     */
+    public static ServerProfileCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Get the profile for a server, creating an empty one if the
+     * server has not been seen before
+     *
+     * @param host      host name
+     * @param port      control port
+     * @param greeting  server's greeting
+     * @return profile
+     */
+    public synchronized ServerProfile getProfile(String host, int port, String greeting) {
+        String key = host + ":" + port + " " + normalizeGreeting(greeting);
+        ServerProfile profile = (ServerProfile)profiles.get(key);
+        if (profile == null) {
+            profile = new ServerProfile(key, this);
+            profiles.put(key, profile);
+            if (log.isDebugEnabled())
+                log.debug("New server profile: " + key);
+        }
+        return profile;
+    }
+
+    /**
+     * Reduce a greeting to what identifies the server software: the
+     * first line, without its reply code, with runs of digits replaced
+     * by '#' and whitespace collapsed
+     */
+    static String normalizeGreeting(String greeting) {
+        if (greeting == null)
+            return "";
+        int end = greeting.length();
+        for (int i = 0; i < end; i++) {
+            char ch = greeting.charAt(i);
+            if (ch == '\n' || ch == '\r')
+                end = i;
+        }
+        int start = 0;
+        if (end >= 3 && Character.isDigit(greeting.charAt(0)) && Character.isDigit(greeting.charAt(1)) 
+                && Character.isDigit(greeting.charAt(2)))
+            start = 3; // reply code
+        StringBuffer key = new StringBuffer();
+        boolean space = false;
+        for (int i = start; i < end && key.length() < MAX_GREETING_LENGTH; i++) {
+            char ch = greeting.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                space = key.length() > 0;
+            }
+            else if (Character.isDigit(ch)) {
+                if (key.length() == 0 || key.charAt(key.length()-1) != '#') {
+                    if (space)
+                        key.append(' ');
+                    key.append('#');
+                }
+                space = false;
+            }
+            else {
+                if (space)
+                    key.append(' ');
+                key.append(ch);
+                space = false;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Set the maximum number of profiles kept. The least recently used
+     * are dropped when there are more.
+     *
+     * @param maxProfiles  maximum number of profiles, at least 1
+     */
+    public void setMaxProfiles(int maxProfiles) {
+        if (maxProfiles < 1)
+            throw new IllegalArgumentException("Maximum profiles must be at least 1");
+        boolean dropped = false;
+        synchronized (this) {
+            this.maxProfiles = maxProfiles;
+            Iterator i = profiles.values().iterator();
+            while (profiles.size() > maxProfiles) {
+                i.next();
+                i.remove();
+                dropped = true;
+            }
+        }
+        if (dropped)
+            save();
+    }
+
+    /**
+     * Get the maximum number of profiles kept
+     *
+     * @return maximum number of profiles
+     */
+    public synchronized int getMaxProfiles() {
+        return maxProfiles;
+    }
+
+    /**
+     * Remove all profiles
+     */
+    public void clear() {
+        synchronized (this) {
+            profiles.clear();
+        }
+        save();
+    }
+
+    /**
+     * Called when a profile learns something
+     */
+    void profileChanged(ServerProfile profile) {
+        save();
+    }
+
+    /**
+     * Rewrite the file, if there is one
+     */
+    private synchronized void save() {
+        if (file == null)
+            return;
+        Properties props = new Properties();
+        try {
+            Iterator i = profiles.values().iterator();
+            while (i.hasNext()) {
+                ServerProfile profile = (ServerProfile)i.next();
+                profile.store(props, URLEncoder.encode(profile.getKey(), ENCODING) + SEPARATOR);
+            }
+            File temp = new File(file.getAbsolutePath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                props.store(out, "Server profiles");
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file))
+                    throw new IOException("Failed to replace " + file.getAbsolutePath());
+            }
+        }
+        catch (IOException ex) {
+            log.warn("Failed to save server profiles to " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Read the profiles from the file
+     */
+    private void load() throws IOException {
+        Properties props = new Properties();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        }
+        finally {
+            in.close();
+        }
+        Enumeration e = props.propertyNames();
+        while (e.hasMoreElements()) {
+            String name = (String)e.nextElement();
+            int pos = name.indexOf(SEPARATOR);
+            if (pos <= 0)
+                continue;
+            String key = URLDecoder.decode(name.substring(0, pos), ENCODING);
+            ServerProfile profile = (ServerProfile)profiles.get(key);
+            if (profile == null) {
+                profile = new ServerProfile(key, this);
+                profiles.put(key, profile);
+            }
+            profile.load(name.substring(pos+1), props.getProperty(name));
+        }
+        log.debug("Loaded " + profiles.size() + " server profiles");
+    }
+}
@@ -0,0 +1,249 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Client-side model of the server's session state - the working
+ *  directory, transfer type, MODE and STRU - built from successful
+ *  replies. When tracking is enabled on a client (see
+ *  {@link FTPClient#setSessionStateTracking(boolean)}), PWD is answered
+ *  locally, and TYPE and CWD commands that would not change anything are
+ *  not sent. The number of commands saved is kept as a metric.
+ *  <p>
+ *  Anything the model cannot be sure of is marked unknown, which
+ *  makes the client send the command. The state is reset whenever the
+ *  control connection is opened, and commands sent via
+ *  {@link FTPClient#quote(String)} that could change it mark the
+ *  affected parts unknown.
+ *
+ *  @author      Eric
+ */
+public class SessionState {
+
+    /**
+     * Working directory, null if unknown
+     */
+    private String directory = null;
+
+    /**
+     * Transfer type set on the server, null if unknown
+     */
+    private FTPTransferType type = null;
+
+    /**
+     * MODE argument in effect, null if unknown
+     */
+    private String mode = null;
+
+    /**
+     * STRU argument in effect, null if unknown
+     */
+    private String structure = null;
+
+    private volatile long pwdElided = 0;
+
+    private volatile long typeElided = 0;
+
+    private volatile long cwdElided = 0;
+
+    /**
+     * Mark everything unknown, e.g. on connecting
+     */
+    synchronized void reset() {
+        directory = null;
+        type = null;
+        mode = null;
+        structure = null;
+    }
+
+    /**
+     * Get the working directory
+     *
+     * @return directory, or null if unknown
+     */
+    public synchronized String getDirectory() {
+        return directory;
+    }
+
+    synchronized void setDirectory(String directory) {
+        this.directory = isAbsolute(directory) ? directory : null;
+    }
+
+    /**
+     * Get the transfer type set on the server
+     *
+     * @return type, or null if unknown
+     */
+    public synchronized FTPTransferType getType() {
+        return type;
+    }
+
+    synchronized void setType(FTPTransferType type) {
+        this.type = type;
+    }
+
+    /**
+     * Get the MODE in effect
+     *
+     * @return mode code, or null if unknown
+     */
+    public synchronized String getMode() {
+        return mode;
+    }
+
+    /**
+     * Get the STRU in effect
+     *
+     * @return structure code, or null if unknown
+     */
+    public synchronized String getStructure() {
+        return structure;
+    }
+
+    /**
+     * Work out the directory a CWD to the supplied path leads to,
+     * without contacting the server
+     *
+     * @param path   path as supplied to CWD
+     * @return  resulting directory, or null if it cannot be worked out
+     */
+    synchronized String resolve(String path) {
+        if (path == null || path.length() == 0)
+            return null;
+        if (path.startsWith("/"))
+            return normalize(path);
+        if (directory == null)
+            return null;
+        return normalize(directory.endsWith("/") ? directory + path : directory + "/" + path);
+    }
+
+    /**
+     * Track a successful CWD. Paths containing '..' make the directory
+     * unknown, as the server may resolve them through symbolic links.
+     *
+     * @param path   path as supplied to CWD
+     */
+    synchronized void directoryChanged(String path) {
+        directory = path.indexOf("..") >= 0 ? null : resolve(path);
+    }
+
+    /**
+     * Track a command sent directly by the application
+     *
+     * @param command   command sent
+     * @param reply     reply received
+     */
+    synchronized void commandSent(String command, FTPReply reply) {
+        String verb = command.trim();
+        String arg = null;
+        int pos = verb.indexOf(' ');
+        if (pos > 0) {
+            arg = verb.substring(pos+1).trim();
+            verb = verb.substring(0, pos);
+        }
+        verb = verb.toUpperCase();
+        boolean ok = reply != null && reply.getReplyCode().startsWith("2");
+        if (verb.equals("REIN")) {
+            reset();
+        }
+        else if (verb.equals("CWD") || verb.equals("XCWD") || verb.equals("CDUP") ||
+                verb.equals("XCUP") || verb.equals("USER") || verb.equals("PASS")) {
+            directory = null;
+        }
+        else if (verb.equals("TYPE")) {
+            type = null;
+        }
+        else if (verb.equals("MODE")) {
+            mode = ok && arg != null ? arg.toUpperCase() : null;
+        }
+        else if (verb.equals("STRU")) {
+            structure = ok && arg != null ? arg.toUpperCase() : null;
+        }
+    }
+
+    void pwdElided() {
+        pwdElided++;
+    }
+
+    void typeElided() {
+        typeElided++;
+    }
+
+    void cwdElided() {
+        cwdElided++;
+    }
+
+    /**
+     * Get the number of PWD commands answered locally
+     *
+     * @return count
+     */
+    public long getPwdElidedCount() {
+        return pwdElided;
+    }
+
+    /**
+     * Get the number of TYPE commands not sent because the type was already set
+     *
+     * @return count
+     */
+    public long getTypeElidedCount() {
+        return typeElided;
+    }
+
+    /**
+     * Get the number of CWD commands not sent because the directory was current
+     *
+     * @return count
+     */
+    public long getCwdElidedCount() {
+        return cwdElided;
+    }
+
+    /**
+     * Get the total number of round trips saved
+     *
+     * @return count
+     */
+    public long getElidedCount() {
+        return pwdElided + typeElided + cwdElided;
+    }
+
+    /**
+     * Only Unix style absolute paths are modelled
+     */
+    private static boolean isAbsolute(String path) {
+        return path != null && path.startsWith("/");
+    }
+
+    /**
+     * Remove '.', '..' and repeated separators from an absolute path
+     */
+    private static String normalize(String path) {
+        String[] parts = path.split("/");
+        String[] stack = new String[parts.length];
+        int depth = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].length() == 0 || parts[i].equals("."))
+                continue;
+            if (parts[i].equals("..")) {
+                if (depth > 0)
+                    depth--;
+            }
+            else
+                stack[depth++] = parts[i];
+        }
+        if (depth == 0)
+            return "/";
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < depth; i++)
+            buf.append('/').append(stack[i]);
+        return buf.toString();
+    }
+
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("dir=").append(getDirectory()).append(",type=").append(getType()).
+            append(",mode=").append(getMode()).append(",stru=").append(getStructure()).
+            append(",elided=").append(getElidedCount());
+        return buf.toString();
+    }
+}
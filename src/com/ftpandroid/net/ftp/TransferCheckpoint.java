@@ -0,0 +1,148 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Progress of a single transfer as recorded in a {@link TransferJournal}.
+ *  Immutable - each checkpoint is a new instance.
+ *
+ *  @author      Eric
+ */
+public class TransferCheckpoint {
+    
+    /**
+     * Value of sizes, times and hashes that aren't known
+     */
+    public static final long UNKNOWN = -1;
+
+    private TransferDirection direction;
+    
+    private String remotePath;
+    
+    private String localPath;
+    
+    /**
+     * Bytes of the file known to have been transferred
+     */
+    private long offset;
+    
+    /**
+     * Size of the remote file when a download started
+     */
+    private long remoteSize;
+    
+    /**
+     * Modification time of the remote file when a download started
+     */
+    private long remoteModTime;
+    
+    /**
+     * Modification time of the local file when an upload started
+     */
+    private long localModTime;
+    
+    /**
+     * Adler-32 of bytes 0 to offset, or UNKNOWN
+     */
+    private long hash;
+    
+    /**
+     * Constructor
+     */
+    TransferCheckpoint(TransferDirection direction, String remotePath, String localPath, long offset,
+                       long remoteSize, long remoteModTime, long localModTime, long hash) {
+        this.direction = direction;
+        this.remotePath = remotePath;
+        this.localPath = localPath;
+        this.offset = offset;
+        this.remoteSize = remoteSize;
+        this.remoteModTime = remoteModTime;
+        this.localModTime = localModTime;
+        this.hash = hash;
+    }
+    
+    /**
+     * Get a copy of this checkpoint at a later offset
+     * 
+     * @param newOffset  bytes transferred
+     * @param newHash    hash of those bytes, or UNKNOWN
+     * @return new checkpoint
+     */
+    TransferCheckpoint advance(long newOffset, long newHash) {
+        return new TransferCheckpoint(direction, remotePath, localPath, newOffset, 
+                remoteSize, remoteModTime, localModTime, newHash);
+    }
+    
+    /**
+     * Key identifying the transfer this checkpoint belongs to
+     */
+    String getKey() {
+        return key(direction, remotePath, localPath);
+    }
+    
+    static String key(TransferDirection direction, String remotePath, String localPath) {
+        return new StringBuffer(direction.toString()).append('|').append(remotePath).
+            append('|').append(localPath).toString();
+    }
+
+    /**
+     * @return Returns the direction.
+     */
+    public TransferDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return Returns the remote path.
+     */
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    /**
+     * @return Returns the local path.
+     */
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    /**
+     * @return Returns the bytes transferred.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Returns the remote file size at the start of a download, or UNKNOWN
+     */
+    public long getRemoteSize() {
+        return remoteSize;
+    }
+
+    /**
+     * @return Returns the remote modification time at the start of a download, or UNKNOWN
+     */
+    public long getRemoteModTime() {
+        return remoteModTime;
+    }
+
+    /**
+     * @return Returns the local modification time at the start of an upload, or UNKNOWN
+     */
+    public long getLocalModTime() {
+        return localModTime;
+    }
+
+    /**
+     * @return Returns the Adler-32 of the bytes transferred, or UNKNOWN
+     */
+    public long getHash() {
+        return hash;
+    }
+    
+    public String toString() {
+        StringBuffer buf = new StringBuffer(direction.toString());
+        buf.append(" ").append(remotePath).append(" <-> ").append(localPath).
+            append(" @").append(offset);
+        return buf.toString();
+    }
+}
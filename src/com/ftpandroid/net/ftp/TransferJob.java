@@ -0,0 +1,125 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  A transfer queued in a {@link TransferScheduler}
+ *
+ *  @author      Eric
+ */
+public class TransferJob {
+    
+    private String host;
+    
+    private TransferDirection direction;
+    
+    private String remoteFile;
+    
+    private String localPath;
+    
+    private TransferPriority priority;
+    
+    /**
+     * Time submitted (ms since epoch), which survives a restart
+     */
+    private long submitTime;
+    
+    /**
+     * Position of the job's record in its queue, -1 if not yet taken
+     */
+    private long seq = -1;
+    
+    private long queueDelay = -1;
+    
+    private long runNanos = -1;
+    
+    /**
+     * Constructor
+     */
+    TransferJob(String host, TransferDirection direction, String remoteFile, String localPath,
+            TransferPriority priority, long submitTime) {
+        this.host = host;
+        this.direction = direction;
+        this.remoteFile = remoteFile;
+        this.localPath = localPath;
+        this.priority = priority;
+        this.submitTime = submitTime;
+    }
+
+    /**
+     * @return Returns the host the job is for
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return Returns the direction of the transfer
+     */
+    public TransferDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return Returns the remote file
+     */
+    public String getRemoteFile() {
+        return remoteFile;
+    }
+
+    /**
+     * @return Returns the local file
+     */
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    /**
+     * @return Returns the priority of the job
+     */
+    public TransferPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return Returns the time the job was submitted, in ms since the epoch
+     */
+    public long getSubmitTime() {
+        return submitTime;
+    }
+    
+    /**
+     * @return Returns the time in ms the job waited in the queue, or -1 if not yet started
+     */
+    public long getQueueDelay() {
+        return queueDelay;
+    }
+    
+    /**
+     * @return Returns the time in nanoseconds the transfer took, or -1 if not finished
+     */
+    public long getRunNanos() {
+        return runNanos;
+    }
+    
+    long getSeq() {
+        return seq;
+    }
+    
+    void setSeq(long seq) {
+        this.seq = seq;
+    }
+    
+    void setQueueDelay(long queueDelay) {
+        this.queueDelay = queueDelay;
+    }
+    
+    void setRunNanos(long runNanos) {
+        this.runNanos = runNanos;
+    }
+    
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append(direction).append(" ").append(host).append(":").append(remoteFile).
+            append(" <-> ").append(localPath).append(" [").append(priority).append("]");
+        return buf.toString();
+    }
+}
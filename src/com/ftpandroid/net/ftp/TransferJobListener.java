@@ -0,0 +1,24 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Notified as jobs run by a {@link TransferScheduler} finish
+ *
+ *  @author      Eric
+ */
+public interface TransferJobListener {
+
+    /**
+     * Notify that a job has completed successfully
+     * 
+     * @param job    the job
+     */
+    public void jobCompleted(TransferJob job);
+    
+    /**
+     * Notify that a job has failed. The job is not run again.
+     * 
+     * @param job    the job
+     * @param ex     cause of the failure
+     */
+    public void jobFailed(TransferJob job, Exception ex);
+}
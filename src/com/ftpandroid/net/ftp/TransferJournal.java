@@ -0,0 +1,395 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Append-only journal of transfer checkpoints, so that a large 
+ *  transfer interrupted by the process dying can be resumed from its
+ *  last durable checkpoint rather than from zero. Set on a client via
+ *  {@link FTPClient#setTransferJournal(TransferJournal)}.
+ *  <p>
+ *  Each checkpoint is appended as a line of text. Writes are buffered
+ *  and the file is synced at most once per sync interval, and always
+ *  when a transfer completes. A line torn by a crash is ignored when 
+ *  the journal is next opened. Superseded records are compacted away
+ *  on opening.
+ *
+ *  @author      Eric
+ */
+public class TransferJournal {
+    
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("TransferJournal");
+    
+    /**
+     * Default bytes transferred between checkpoints
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+    
+    /**
+     * Default milliseconds between syncs of the journal file
+     */
+    public static final int DEFAULT_SYNC_INTERVAL = 1000;
+    
+    /**
+     * Marks a checkpoint record
+     */
+    private static final String CHECKPOINT_RECORD = "CP";
+    
+    /**
+     * Marks a completed transfer record
+     */
+    private static final String COMPLETE_RECORD = "DONE";
+    
+    private static final char SEPARATOR = '\t';
+    
+    private static final String ENCODING = "UTF-8";
+    
+    /**
+     * Journal file
+     */
+    private File file;
+    
+    private FileOutputStream fileOut;
+    
+    private Writer writer;
+    
+    /**
+     * Latest checkpoint of each unfinished transfer, keyed by TransferCheckpoint.getKey()
+     */
+    private Hashtable checkpoints = new Hashtable();
+    
+    private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    
+    private int syncInterval = DEFAULT_SYNC_INTERVAL;
+    
+    /**
+     * Keep a hash of the bytes transferred?
+     */
+    private boolean hashing = true;
+    
+    /**
+     * Check the hash of local data before resuming?
+     */
+    private boolean verifyOnResume = true;
+    
+    /**
+     * Time of last sync
+     */
+    private long lastSync = 0;
+    
+    /**
+     * Records written since the last sync
+     */
+    private boolean unsynced = false;
+    
+    /**
+     * Constructor. Opens the journal, creating it if it doesn't exist,
+     * and loads the checkpoints of unfinished transfers
+     * 
+     * @param path   path of journal file
+     * @throws IOException
+     */
+    public TransferJournal(String path) throws IOException {
+        file = new File(path);
+        int records = load();
+        if (records > checkpoints.size() * 4 + 64)
+            compact();
+        open();
+    }
+    
+    /**
+     * Read the journal, returning the number of records
+     */
+    private int load() throws IOException {
+        if (!file.exists())
+            return 0;
+        int records = 0;
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                try {
+                    parse(line);
+                }
+                catch (Exception ex) {
+                    log.warn("Ignoring unreadable journal record: " + line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        log.debug("Loaded " + checkpoints.size() + " checkpoints from " + file.getAbsolutePath());
+        return records;
+    }
+    
+    private void parse(String line) throws UnsupportedEncodingException {
+        String[] fields = line.split(String.valueOf(SEPARATOR));
+        TransferDirection direction = TransferDirection.DOWNLOAD.toString().equals(fields[1]) ?
+                TransferDirection.DOWNLOAD : TransferDirection.UPLOAD;
+        if (fields[0].equals(CHECKPOINT_RECORD)) {
+            TransferCheckpoint cp = new TransferCheckpoint(direction, 
+                    URLDecoder.decode(fields[7], ENCODING), URLDecoder.decode(fields[8], ENCODING),
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                    Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+            checkpoints.put(cp.getKey(), cp);
+        }
+        else if (fields[0].equals(COMPLETE_RECORD)) {
+            checkpoints.remove(TransferCheckpoint.key(direction, 
+                    URLDecoder.decode(fields[2], ENCODING), URLDecoder.decode(fields[3], ENCODING)));
+        }
+        else
+            throw new IllegalArgumentException(fields[0]);
+    }
+    
+    /**
+     * Open the journal for appending, starting on a new line if
+     * the last record was torn
+     */
+    private void open() throws IOException {
+        boolean torn = false;
+        if (file.length() > 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(raf.length()-1);
+                torn = raf.read() != '\n';
+            }
+            finally {
+                raf.close();
+            }
+        }
+        fileOut = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(fileOut, ENCODING));
+        if (torn) 
+            writer.write('\n');
+    }
+    
+    /**
+     * Rewrite the journal with only the latest checkpoints
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        Writer tempWriter = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+        try {
+            Enumeration e = checkpoints.elements();
+            while (e.hasMoreElements())
+                write(tempWriter, (TransferCheckpoint)e.nextElement());
+            tempWriter.flush();
+            out.getFD().sync();
+        }
+        finally {
+            tempWriter.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file))
+                throw new IOException("Failed to replace journal " + file.getAbsolutePath());
+        }
+        log.debug("Compacted journal " + file.getAbsolutePath());
+    }
+    
+    private void write(Writer out, TransferCheckpoint cp) throws IOException {
+        StringBuffer buf = new StringBuffer(CHECKPOINT_RECORD);
+        buf.append(SEPARATOR).append(cp.getDirection().toString()).
+            append(SEPARATOR).append(cp.getOffset()).
+            append(SEPARATOR).append(cp.getRemoteSize()).
+            append(SEPARATOR).append(cp.getRemoteModTime()).
+            append(SEPARATOR).append(cp.getLocalModTime()).
+            append(SEPARATOR).append(cp.getHash()).
+            append(SEPARATOR).append(URLEncoder.encode(cp.getRemotePath(), ENCODING)).
+            append(SEPARATOR).append(URLEncoder.encode(cp.getLocalPath(), ENCODING)).
+            append('\n');
+        out.write(buf.toString());
+    }
+    
+    /**
+     * Get the last checkpoint of an unfinished transfer
+     * 
+     * @param direction    direction of transfer
+     * @param remotePath   full remote path
+     * @param localPath    absolute local path
+     * @return checkpoint, or null if there is none
+     */
+    public synchronized TransferCheckpoint getCheckpoint(TransferDirection direction, 
+                                                         String remotePath, String localPath) {
+        return (TransferCheckpoint)checkpoints.get(TransferCheckpoint.key(direction, remotePath, localPath));
+    }
+    
+    /**
+     * Get the last checkpoints of all unfinished transfers
+     * 
+     * @return array of checkpoints
+     */
+    public synchronized TransferCheckpoint[] getCheckpoints() {
+        TransferCheckpoint[] result = new TransferCheckpoint[checkpoints.size()];
+        checkpoints.values().toArray(result);
+        return result;
+    }
+    
+    /**
+     * Record a checkpoint. It becomes durable at the next sync.
+     * 
+     * @param cp  checkpoint
+     * @throws IOException
+     */
+    synchronized void checkpoint(TransferCheckpoint cp) throws IOException {
+        checkClosed();
+        checkpoints.put(cp.getKey(), cp);
+        write(writer, cp);
+        unsynced = true;
+        if (System.currentTimeMillis() - lastSync >= syncInterval)
+            sync();
+    }
+    
+    /**
+     * Record that a transfer has completed, and sync
+     * 
+     * @param cp  latest checkpoint of the transfer
+     * @throws IOException
+     */
+    synchronized void complete(TransferCheckpoint cp) throws IOException {
+        checkClosed();
+        if (checkpoints.remove(cp.getKey()) == null)
+            return; // never checkpointed
+        StringBuffer buf = new StringBuffer(COMPLETE_RECORD);
+        buf.append(SEPARATOR).append(cp.getDirection().toString()).
+            append(SEPARATOR).append(URLEncoder.encode(cp.getRemotePath(), ENCODING)).
+            append(SEPARATOR).append(URLEncoder.encode(cp.getLocalPath(), ENCODING)).
+            append('\n');
+        writer.write(buf.toString());
+        unsynced = true;
+        sync();
+    }
+    
+    /**
+     * Write out and sync any buffered records
+     * 
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        checkClosed();
+        if (unsynced) {
+            writer.flush();
+            fileOut.getFD().sync();
+            unsynced = false;
+        }
+        lastSync = System.currentTimeMillis();
+    }
+    
+    /**
+     * Sync and close the journal
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (writer == null)
+            return;
+        try {
+            sync();
+        }
+        finally {
+            writer.close();
+            writer = null;
+            fileOut = null;
+        }
+    }
+    
+    private void checkClosed() throws IOException {
+        if (writer == null)
+            throw new IOException("Journal is closed: " + file.getAbsolutePath());
+    }
+
+    /**
+     * @return Returns the bytes transferred between checkpoints.
+     */
+    public synchronized long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Set the number of bytes transferred between checkpoints. Downloads sync
+     * the local file at each checkpoint, so very small values slow transfers.
+     * 
+     * @param checkpointInterval  bytes between checkpoints
+     */
+    public synchronized void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return Returns the milliseconds between syncs of the journal.
+     */
+    public synchronized int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Set the most time that checkpoints may be buffered before the 
+     * journal is synced. 0 syncs every checkpoint.
+     * 
+     * @param syncInterval  interval in milliseconds
+     */
+    public synchronized void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @return true if a hash of the bytes transferred is kept
+     */
+    public synchronized boolean isHashing() {
+        return hashing;
+    }
+
+    /**
+     * Set whether an Adler-32 hash of the bytes transferred is kept
+     * with each checkpoint. Default is true.
+     * 
+     * @param hashing  true to keep hashes
+     */
+    public synchronized void setHashing(boolean hashing) {
+        this.hashing = hashing;
+    }
+
+    /**
+     * @return true if local data is checked against the hash before resuming
+     */
+    public synchronized boolean isVerifyOnResume() {
+        return verifyOnResume;
+    }
+
+    /**
+     * Set whether the local data already transferred is read back and
+     * checked against the checkpoint's hash before resuming. Default is true.
+     * 
+     * @param verifyOnResume  true to verify
+     */
+    public synchronized void setVerifyOnResume(boolean verifyOnResume) {
+        this.verifyOnResume = verifyOnResume;
+    }
+    
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+}
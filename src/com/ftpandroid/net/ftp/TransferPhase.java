@@ -0,0 +1,86 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Encapsulates the phases that a data transfer (or listing)
+ *  passes through, in the order they occur
+ *
+ *  @author      Eric
+ */
+public class TransferPhase {
+    
+    /**
+     * Number of phases
+     */
+    public static final int COUNT = 6;
+    
+    /**
+     *   PASV or PORT command round trip
+     */
+    public static final TransferPhase DATA_CHANNEL_SETUP = new TransferPhase(0, "DataChannelSetup");
+
+    /**
+     *   TCP connect of the data socket (passive mode only)
+     */
+    public static final TransferPhase DATA_CONNECT = new TransferPhase(1, "DataConnect");
+    
+    /**
+     *   REST (if resuming) and RETR/STOR/LIST until the 125/150 reply
+     */
+    public static final TransferPhase TRANSFER_COMMAND = new TransferPhase(2, "TransferCommand");
+    
+    /**
+     *   150 reply until the first byte is read or written
+     */
+    public static final TransferPhase FIRST_BYTE = new TransferPhase(3, "FirstByte");
+    
+    /**
+     *   First byte until the data channel is closed
+     */
+    public static final TransferPhase DATA_TRANSFER = new TransferPhase(4, "DataTransfer");
+    
+    /**
+     *   Waiting for the final 226 reply
+     */
+    public static final TransferPhase COMPLETION = new TransferPhase(5, "Completion");
+    
+    /**
+     * All phases, indexed by {@link #getIndex()}
+     */
+    private static final TransferPhase[] phases = {
+        DATA_CHANNEL_SETUP, DATA_CONNECT, TRANSFER_COMMAND, FIRST_BYTE, DATA_TRANSFER, COMPLETION };
+    
+    private int index;
+    
+    private String phase;
+    
+    /**
+     *  Private so no-one else can instantiate this class
+     */
+    private TransferPhase(int index, String phase) {
+        this.index = index;
+        this.phase = phase;
+    }
+    
+    /**
+     * Get the position of this phase, from 0 to COUNT-1
+     * 
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Get the phase with the supplied index
+     * 
+     * @param index   index of phase
+     * @return phase
+     */
+    public static TransferPhase getPhase(int index) {
+        return phases[index];
+    }
+    
+    public String toString() {
+        return phase;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Encapsulates the priority classes of jobs queued in a 
+ *  {@link TransferScheduler}
+ *
+ *  @author      Eric
+ */
+public class TransferPriority {
+    
+    /**
+     * Number of priorities
+     */
+    public static final int COUNT = 3;
+    
+    /**
+     *   Run before any other jobs for the same host
+     */
+    public static final TransferPriority HIGH = new TransferPriority(0, "High");
+
+    /**
+     *   Default priority
+     */
+    public static final TransferPriority NORMAL = new TransferPriority(1, "Normal");
+    
+    /**
+     *   Run only when no other jobs for the same host are waiting
+     */
+    public static final TransferPriority LOW = new TransferPriority(2, "Low");
+    
+    /**
+     * All priorities, highest first, indexed by {@link #getIndex()}
+     */
+    private static final TransferPriority[] priorities = { HIGH, NORMAL, LOW };
+    
+    private int index;
+    
+    private String priority;
+    
+    /**
+     *  Private so no-one else can instantiate this class
+     */
+    private TransferPriority(int index, String priority) {
+        this.index = index;
+        this.priority = priority;
+    }
+    
+    /**
+     * Get the position of this priority, 0 being the highest
+     * 
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Get the priority with the supplied index
+     * 
+     * @param index  index of priority
+     * @return priority
+     */
+    public static TransferPriority getPriority(int index) {
+        return priorities[index];
+    }
+    
+    public String toString() {
+        return priority;
+    }
+}
@@ -0,0 +1,620 @@
+package com.ftpandroid.net.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.Vector;
+
+import com.ftpandroid.connx.DiskQueue;
+import com.ftpandroid.connx.LatencyHistogram;
+import com.ftpandroid.connx.debug.Logger;
+
+/**
+ *  Runs queued transfers on a pool of worker threads. Each host has
+ *  a queue per {@link TransferPriority}; within a host the highest
+ *  priority waiting job always runs next, and hosts take turns so
+ *  that a host with a long queue cannot starve the others. No more
+ *  than the host's limit of jobs run against a host at once.
+ *  <p>
+ *  Queues are kept on disk in the scheduler's directory (see
+ *  {@link DiskQueue}), so memory use does not grow with the number
+ *  of jobs waiting, and jobs submitted or running when the process
+ *  stops are run when a scheduler is next started on the same
+ *  directory. A job may therefore run more than once, and transfers
+ *  should be safe to repeat - a {@link TransferJournal} on the
+ *  sessions makes repeated transfers resume rather than restart.
+ *  <p>
+ *  Workers lease sessions created by the {@link FTPSessionFactory}
+ *  and keep them open for later jobs for the same host.
+ *
+ *  @author      Eric
+ */
+public class TransferScheduler {
+
+    /**
+     * Logging object
+     */
+    private static Logger log = Logger.getLogger("TransferScheduler");
+
+    /**
+     * Default number of worker threads
+     */
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * Default maximum jobs running against a host at once
+     */
+    public static final int DEFAULT_HOST_LIMIT = 2;
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Directory holding the queues
+     */
+    private File dir;
+
+    private FTPSessionFactory factory;
+
+    /**
+     * Queues keyed by host
+     */
+    private Hashtable hosts = new Hashtable();
+
+    /**
+     * Hosts in the order they take turns
+     */
+    private Vector hostOrder = new Vector();
+
+    /**
+     * Position in hostOrder of the host to be offered the next turn
+     */
+    private int nextHost = 0;
+
+    private int defaultHostLimit = DEFAULT_HOST_LIMIT;
+
+    private int workerCount = DEFAULT_WORKERS;
+
+    private Thread[] workers;
+
+    private volatile boolean running = false;
+
+    private TransferJobListener listener;
+
+    private LatencyHistogram queueDelays = new LatencyHistogram();
+
+    private LatencyHistogram runTimes = new LatencyHistogram();
+
+    /**
+     * Constructor. Opens any queues left in the directory from an
+     * earlier run.
+     *
+     * @param dir       directory to keep the queues in
+     * @param factory   creates sessions for the workers
+     * @throws IOException
+     */
+    public TransferScheduler(File dir, FTPSessionFactory factory) throws IOException {
+        this.dir = dir;
+        this.factory = factory;
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Failed to create scheduler directory: " + dir.getAbsolutePath());
+        String[] names = dir.list();
+        for (int i = 0; names != null && i < names.length; i++) {
+            if (new File(dir, names[i]).isDirectory()) {
+                HostQueue queue = getHostQueue(URLDecoder.decode(names[i], ENCODING));
+                if (queue.getPendingCount() > 0)
+                    log.info("Reopened " + queue.getPendingCount() + " pending jobs for " + queue.host);
+            }
+        }
+    }
+
+    /**
+     * Get the queue for a host, creating it if necessary
+     */
+    private synchronized HostQueue getHostQueue(String host) throws IOException {
+        HostQueue queue = (HostQueue)hosts.get(host);
+        if (queue == null) {
+            queue = new HostQueue(host, new File(dir, URLEncoder.encode(host, ENCODING)));
+            hosts.put(host, queue);
+            hostOrder.addElement(queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Queue a transfer. The job is on disk when this returns.
+     *
+     * @param host        host to transfer to or from
+     * @param direction   direction of transfer
+     * @param remoteFile  remote file
+     * @param localPath   local file
+     * @param priority    priority of the job
+     * @return  the job
+     * @throws IOException
+     */
+    public TransferJob submit(String host, TransferDirection direction, String remoteFile,
+            String localPath, TransferPriority priority) throws IOException {
+        TransferJob job = new TransferJob(host, direction, remoteFile, localPath,
+                priority, System.currentTimeMillis());
+        HostQueue queue = getHostQueue(host);
+        queue.queues[priority.getIndex()].add(encode(job));
+        synchronized (this) {
+            queue.pending++;
+            notify();
+        }
+        return job;
+    }
+
+    /**
+     * Queue a transfer at normal priority
+     *
+     * @param host        host to transfer to or from
+     * @param direction   direction of transfer
+     * @param remoteFile  remote file
+     * @param localPath   local file
+     * @return  the job
+     * @throws IOException
+     */
+    public TransferJob submit(String host, TransferDirection direction, String remoteFile,
+            String localPath) throws IOException {
+        return submit(host, direction, remoteFile, localPath, TransferPriority.NORMAL);
+    }
+
+    /**
+     * Start the workers
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), "TransferScheduler-" + (i+1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        log.info("Started " + workerCount + " workers");
+    }
+
+    /**
+     * Stop the workers once their current jobs finish, close their
+     * sessions and the queues. Jobs still queued are kept on disk.
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        Thread[] stopping;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            stopping = workers;
+            workers = null;
+        }
+        for (int i = 0; stopping != null && i < stopping.length; i++)
+            stopping[i].join();
+        Enumeration e = hosts.elements();
+        while (e.hasMoreElements()) {
+            HostQueue queue = (HostQueue)e.nextElement();
+            queue.close();
+        }
+        log.info("Shut down");
+    }
+
+    /**
+     * Pick the host to run a job for next, taking turns between hosts
+     * that have jobs waiting and are below their limit. The job is 
+     * counted as running, but is read from disk by the caller, outside
+     * the scheduler's lock.
+     *
+     * @return host's queue, or null if no job can be run now
+     */
+    private synchronized HostQueue nextQueue() {
+        int count = hostOrder.size();
+        for (int i = 0; i < count; i++) {
+            HostQueue queue = (HostQueue)hostOrder.elementAt((nextHost + i) % count);
+            if (queue.active >= queue.limit || queue.pending <= 0)
+                continue;
+            nextHost = (nextHost + i + 1) % count;
+            queue.active++;
+            queue.pending--;
+            return queue;
+        }
+        return null;
+    }
+
+    /**
+     * Run a job on a leased session
+     */
+    private void run(TransferJob job) {
+        HostQueue queue = (HostQueue)hosts.get(job.getHost());
+        job.setQueueDelay(Math.max(0, System.currentTimeMillis() - job.getSubmitTime()));
+        queueDelays.record(job.getQueueDelay() * 1000000L);
+        FTPClient client = null;
+        Exception failure = null;
+        try {
+            client = queue.lease();
+            long start = System.nanoTime();
+            if (job.getDirection() == TransferDirection.DOWNLOAD)
+                client.get(job.getLocalPath(), job.getRemoteFile());
+            else
+                client.put(job.getLocalPath(), job.getRemoteFile());
+            job.setRunNanos(System.nanoTime() - start);
+            runTimes.record(job.getRunNanos());
+            queue.release(client);
+            client = null;
+        }
+        catch (Exception ex) {
+            log.error("Job failed: " + job.toString(), ex);
+            failure = ex;
+        }
+        finally {
+            if (client != null) {
+                // state of the session is unknown, so don't reuse it
+                try {
+                    client.quitImmediately();
+                }
+                catch (Exception ex) {
+                    log.debug("Failed to close session: " + ex.getMessage());
+                }
+            }
+            queue.ack(job);
+            synchronized (this) {
+                queue.active--;
+                notifyAll();
+            }
+        }
+        TransferJobListener current = listener;
+        if (current != null) {
+            if (failure == null)
+                current.jobCompleted(job);
+            else
+                current.jobFailed(job, failure);
+        }
+    }
+
+    /**
+     * Get the number of jobs waiting to run
+     *
+     * @return count
+     */
+    public synchronized long getPendingCount() {
+        long count = 0;
+        for (int i = 0; i < hostOrder.size(); i++)
+            count += ((HostQueue)hostOrder.elementAt(i)).getPendingCount();
+        return count;
+    }
+
+    /**
+     * Get the number of jobs waiting to run for a host
+     *
+     * @param host  host name
+     * @return count
+     */
+    public synchronized long getPendingCount(String host) {
+        HostQueue queue = (HostQueue)hosts.get(host);
+        return queue == null ? 0 : queue.getPendingCount();
+    }
+
+    /**
+     * Set the maximum number of jobs run against a host at once
+     *
+     * @param host   host name
+     * @param limit  maximum jobs, at least 1
+     * @throws IOException
+     */
+    public void setHostLimit(String host, int limit) throws IOException {
+        if (limit < 1)
+            throw new IllegalArgumentException("Host limit must be at least 1");
+        HostQueue queue = getHostQueue(host);
+        synchronized (this) {
+            queue.limit = limit;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get the maximum number of jobs run against a host at once
+     *
+     * @param host   host name
+     * @return limit
+     */
+    public synchronized int getHostLimit(String host) {
+        HostQueue queue = (HostQueue)hosts.get(host);
+        return queue == null ? defaultHostLimit : queue.limit;
+    }
+
+    /**
+     * Set the limit used for hosts that have not had one set
+     * explicitly
+     *
+     * @param limit  maximum jobs, at least 1
+     */
+    public synchronized void setDefaultHostLimit(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Host limit must be at least 1");
+        this.defaultHostLimit = limit;
+    }
+
+    /**
+     * Get the limit used for hosts that have not had one set
+     * explicitly
+     *
+     * @return limit
+     */
+    public synchronized int getDefaultHostLimit() {
+        return defaultHostLimit;
+    }
+
+    /**
+     * Set the number of worker threads. Takes effect when next started.
+     *
+     * @param workerCount  number of workers
+     */
+    public synchronized void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Get the number of worker threads
+     *
+     * @return number of workers
+     */
+    public synchronized int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Set the listener notified as jobs finish
+     *
+     * @param listener  listener, or null for none
+     */
+    public void setJobListener(TransferJobListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the listener notified as jobs finish
+     *
+     * @return listener, or null if none
+     */
+    public TransferJobListener getJobListener() {
+        return listener;
+    }
+
+    /**
+     * Get the histogram of the time jobs spent queued, in nanoseconds
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getQueueDelayHistogram() {
+        return queueDelays;
+    }
+
+    /**
+     * Get the histogram of the time jobs took to run, in nanoseconds
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getRunTimeHistogram() {
+        return runTimes;
+    }
+
+    /**
+     * Encode a job as a queue record. The host and priority are
+     * given by the queue it is in.
+     */
+    private static String encode(TransferJob job) throws UnsupportedEncodingException {
+        StringBuffer buf = new StringBuffer();
+        buf.append(job.getDirection().toString()).append(SEPARATOR);
+        buf.append(job.getSubmitTime()).append(SEPARATOR);
+        buf.append(URLEncoder.encode(job.getRemoteFile(), ENCODING)).append(SEPARATOR);
+        buf.append(URLEncoder.encode(job.getLocalPath(), ENCODING));
+        return buf.toString();
+    }
+
+    /**
+     * Decode a job from a queue record
+     */
+    private static TransferJob decode(String host, TransferPriority priority, DiskQueue.Record record)
+        throws UnsupportedEncodingException {
+        String data = record.getData();
+        int pos1 = data.indexOf(SEPARATOR);
+        int pos2 = data.indexOf(SEPARATOR, pos1+1);
+        int pos3 = data.indexOf(SEPARATOR, pos2+1);
+        if (pos1 < 0 || pos2 < 0 || pos3 < 0)
+            return null;
+        TransferDirection direction = TransferDirection.DOWNLOAD.toString().equals(data.substring(0, pos1)) ?
+                TransferDirection.DOWNLOAD : TransferDirection.UPLOAD;
+        long submitTime;
+        try {
+            submitTime = Long.parseLong(data.substring(pos1+1, pos2));
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+        TransferJob job = new TransferJob(host, direction,
+                URLDecoder.decode(data.substring(pos2+1, pos3), ENCODING),
+                URLDecoder.decode(data.substring(pos3+1), ENCODING), priority, submitTime);
+        job.setSeq(record.getSeq());
+        return job;
+    }
+
+    /**
+     * Takes jobs and runs them until the scheduler is shut down
+     */
+    private class Worker implements Runnable {
+
+        public void run() {
+            while (running) {
+                HostQueue queue;
+                synchronized (TransferScheduler.this) {
+                    queue = nextQueue();
+                    if (queue == null) {
+                        try {
+                            TransferScheduler.this.wait();
+                        }
+                        catch (InterruptedException ex) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                TransferJob job = queue.poll();
+                if (job == null) { // only corrupt records, or unreadable
+                    synchronized (TransferScheduler.this) {
+                        queue.active--;
+                        TransferScheduler.this.notifyAll();
+                    }
+                    continue;
+                }
+                TransferScheduler.this.run(job);
+            }
+        }
+    }
+
+    /**
+     * Queues and sessions for a single host
+     */
+    private class HostQueue {
+
+        private String host;
+
+        /**
+         * Queue per priority, indexed by TransferPriority.getIndex()
+         */
+        private DiskQueue[] queues = new DiskQueue[TransferPriority.COUNT];
+
+        /**
+         * Jobs running
+         */
+        private int active = 0;
+
+        private int limit = defaultHostLimit;
+
+        /**
+         * Jobs waiting, kept in memory so that picking a host needs
+         * no disk access
+         */
+        private long pending;
+
+        /**
+         * Idle sessions, most recently used last
+         */
+        private LinkedList idle = new LinkedList();
+
+        HostQueue(String host, File hostDir) throws IOException {
+            this.host = host;
+            for (int i = 0; i < queues.length; i++)
+                queues[i] = new DiskQueue(new File(hostDir, Integer.toString(i)));
+            pending = getPendingCount();
+        }
+
+        /**
+         * Take the highest priority waiting job. Not called while
+         * holding the scheduler's lock, as it reads from disk. The
+         * caller has already counted one job as taken.
+         */
+        TransferJob poll() {
+            TransferJob job = null;
+            int discarded = 0;
+            for (int i = 0; i < queues.length && job == null; i++) {
+                try {
+                    DiskQueue.Record record;
+                    while (job == null && (record = queues[i].poll()) != null) {
+                        job = decode(host, TransferPriority.getPriority(i), record);
+                        if (job == null) {
+                            log.error("Discarding corrupt job record: " + record.getData());
+                            queues[i].ack(record.getSeq());
+                            discarded++;
+                        }
+                    }
+                }
+                catch (IOException ex) {
+                    log.error("Failed to read queue " + queues[i].getDirectory().getAbsolutePath(), ex);
+                }
+            }
+            if (discarded > 0) {
+                synchronized (TransferScheduler.this) {
+                    pending -= job != null ? discarded : discarded - 1;
+                }
+            }
+            return job;
+        }
+
+        /**
+         * Remove a finished job from disk
+         */
+        void ack(TransferJob job) {
+            try {
+                queues[job.getPriority().getIndex()].ack(job.getSeq());
+            }
+            catch (IOException ex) {
+                log.error("Failed to remove finished job from queue: " + job.toString(), ex);
+            }
+        }
+
+        long getPendingCount() {
+            long count = 0;
+            for (int i = 0; i < queues.length; i++)
+                count += queues[i].size();
+            return count;
+        }
+
+        /**
+         * Get an idle session if there is one, otherwise create one
+         */
+        FTPClient lease() throws IOException, FTPException {
+            synchronized (idle) {
+                while (!idle.isEmpty()) {
+                    FTPClient client = (FTPClient)idle.removeLast();
+                    if (client.connected())
+                        return client;
+                }
+            }
+            return factory.createSession(host);
+        }
+
+        /**
+         * Keep a session for the next job, unless shutting down
+         */
+        void release(FTPClient client) {
+            synchronized (idle) {
+                if (running && idle.size() < limit) {
+                    idle.addLast(client);
+                    return;
+                }
+            }
+            quit(client);
+        }
+
+        void close() {
+            synchronized (idle) {
+                while (!idle.isEmpty())
+                    quit((FTPClient)idle.removeFirst());
+            }
+            for (int i = 0; i < queues.length; i++) {
+                try {
+                    queues[i].close();
+                }
+                catch (IOException ex) {
+                    log.warn("Failed to close queue " + queues[i].getDirectory().getAbsolutePath(), ex);
+                }
+            }
+        }
+
+        private void quit(FTPClient client) {
+            try {
+                client.quit();
+            }
+            catch (Exception ex) {
+                log.debug("Failed to quit session: " + ex.getMessage());
+            }
+        }
+    }
+}
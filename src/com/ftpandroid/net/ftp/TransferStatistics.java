@@ -0,0 +1,209 @@
+package com.ftpandroid.net.ftp;
+
+import com.ftpandroid.connx.RateMeter;
+import com.ftpandroid.connx.StripedCounter;
+
+/**
+ *  Live statistics for a single {@link FTPClient}, obtained via 
+ *  {@link FTPClient#getTransferStatistics()}. Updates made by the
+ *  client on its transfer path are striped counter additions, so 
+ *  polling these statistics from a monitoring thread never
+ *  contends with a transfer. {@link FileStatistics} aggregates
+ *  them over several clients.
+ *
+ *  @author      Eric
+ */
+public class TransferStatistics {
+
+    /**
+     * Client these statistics belong to
+     */
+    private FTPClient client;
+    
+    /**
+     * Transfers and listings in progress
+     */
+    private StripedCounter activeTransfers = new StripedCounter();
+    
+    /**
+     * Bytes moved over data channels
+     */
+    private RateMeter bytes = new RateMeter();
+    
+    /**
+     * Commands sent on the control channel
+     */
+    private RateMeter commands = new RateMeter();
+    
+    /**
+     * Failed transfers
+     */
+    private StripedCounter errors = new StripedCounter();
+    
+    /**
+     * Transfers retried
+     */
+    private StripedCounter retries = new StripedCounter();
+    
+    /**
+     * Reconnections made when retrying
+     */
+    private StripedCounter reconnects = new StripedCounter();
+    
+    /**
+     * Constructor
+     * 
+     * @param client  owning client
+     */
+    TransferStatistics(FTPClient client) {
+        this.client = client;
+    }
+    
+    void transferStarted() {
+        activeTransfers.increment();
+    }
+    
+    void transferEnded() {
+        activeTransfers.decrement();
+    }
+    
+    void bytesTransferred(long count) {
+        bytes.mark(count);
+    }
+    
+    void commandSent() {
+        commands.mark(1);
+    }
+    
+    void transferFailed() {
+        errors.increment();
+    }
+    
+    void transferRetried() {
+        retries.increment();
+    }
+    
+    void reconnected() {
+        reconnects.increment();
+    }
+
+    /**
+     * @return number of transfers and listings in progress
+     */
+    public int getActiveTransfers() {
+        return (int)activeTransfers.sum();
+    }
+    
+    /**
+     * @return total bytes transferred over data channels
+     */
+    public long getBytesTransferred() {
+        return bytes.getCount();
+    }
+    
+    /**
+     * @return moving average of bytes transferred per second
+     */
+    public double getBytesPerSecond() {
+        return bytes.getRate();
+    }
+    
+    /**
+     * @return total commands sent
+     */
+    public long getCommandCount() {
+        return commands.getCount();
+    }
+    
+    /**
+     * @return moving average of commands sent per second
+     */
+    public double getCommandsPerSecond() {
+        return commands.getRate();
+    }
+    
+    /**
+     * @return number of failed transfers
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+    
+    /**
+     * @return number of transfer retries
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+    
+    /**
+     * @return number of reconnects
+     */
+    public long getReconnectCount() {
+        return reconnects.sum();
+    }
+    
+    /**
+     * @return size of the buffer used in transfers
+     */
+    public int getTransferBufferSize() {
+        return client.getTransferBufferSize();
+    }
+    
+    /**
+     * @return data socket receive buffer size, 0 if the system default
+     */
+    public int getDataReceiveBufferSize() {
+        return client.getDataReceiveBufferSize();
+    }
+    
+    /**
+     * @return data socket send buffer size, 0 if the system default
+     */
+    public int getDataSendBufferSize() {
+        return client.getDataSendBufferSize();
+    }
+    
+    /**
+     * @return bandwidth threshold in bytes/sec, or -1 if not throttled
+     */
+    public int getBandwidthThreshold() {
+        return client.getBandwidthThreshold();
+    }
+    
+    /**
+     * Change the bandwidth threshold, taking effect in transfers that
+     * are in progress
+     * 
+     * @param thresholdBytesPerSec   bytes/sec, or 0 or less to stop throttling
+     */
+    public void setBandwidthThreshold(int thresholdBytesPerSec) {
+        client.setBandwidthThreshold(thresholdBytesPerSec);
+    }
+    
+    /**
+     * Reset the counters back to zero. Active transfers are unaffected.
+     */
+    public void reset() {
+        bytes.reset();
+        commands.reset();
+        errors.reset();
+        retries.reset();
+        reconnects.reset();
+    }
+    
+    /**
+     * @return string representation
+     */
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("active=").append(getActiveTransfers()).
+            append(",bytes=").append(getBytesTransferred()).
+            append(",bytes/s=").append((long)getBytesPerSecond()).
+            append(",commands=").append(getCommandCount()).
+            append(",errors=").append(getErrorCount()).
+            append(",retries=").append(getRetryCount()).
+            append(",reconnects=").append(getReconnectCount());
+        return buf.toString();
+    }
+}
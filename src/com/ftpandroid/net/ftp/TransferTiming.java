@@ -0,0 +1,164 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Timestamps of the phases of a single transfer. Each call to
+ *  {@link #mark(TransferPhase)} closes the phase that has been running
+ *  since the previous mark, so recording is a System.nanoTime() and 
+ *  an array store.
+ *
+ *  @author      Eric
+ */
+public class TransferTiming {
+
+    /**
+     * Remote host
+     */
+    private String host;
+    
+    /**
+     * Command verb, e.g. RETR
+     */
+    private String command;
+    
+    /**
+     * Remote file, or directory for listings
+     */
+    private String remoteFile;
+    
+    /**
+     * Duration of each phase in nanoseconds, -1 if it didn't occur
+     */
+    private long[] phaseNanos = new long[TransferPhase.COUNT];
+    
+    /**
+     * Time of the transfer start
+     */
+    private long startNanos;
+    
+    /**
+     * Time of the last mark
+     */
+    private long lastNanos;
+    
+    /**
+     * Bytes transferred
+     */
+    private long bytes = 0;
+    
+    /**
+     * Constructor
+     * 
+     * @param host        remote host
+     * @param command     command verb
+     * @param remoteFile  remote file name
+     */
+    TransferTiming(String host, String command, String remoteFile) {
+        this.host = host;
+        this.command = command;
+        this.remoteFile = remoteFile;
+        for (int i = 0; i < phaseNanos.length; i++)
+            phaseNanos[i] = -1;
+        startNanos = lastNanos = System.nanoTime();
+    }
+    
+    /**
+     * Close the supplied phase now
+     * 
+     * @param phase  phase that has just finished
+     */
+    void mark(TransferPhase phase) {
+        mark(phase, System.nanoTime());
+    }
+    
+    /**
+     * Close the supplied phase at the supplied time
+     * 
+     * @param phase  phase that has finished
+     * @param now    System.nanoTime() at which it finished
+     */
+    void mark(TransferPhase phase, long now) {
+        phaseNanos[phase.getIndex()] = now - lastNanos;
+        lastNanos = now;
+    }
+    
+    /**
+     * Close the supplied phase now, unless it has already been marked
+     * 
+     * @param phase  phase that has just finished
+     */
+    void markIfUnset(TransferPhase phase) {
+        if (phaseNanos[phase.getIndex()] < 0)
+            mark(phase);
+    }
+    
+    /**
+     * Set the number of bytes transferred
+     * 
+     * @param bytes  byte count
+     */
+    void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return Returns the remote host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return Returns the command verb, e.g. RETR, STOR or LIST
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return Returns the remote file.
+     */
+    public String getRemoteFile() {
+        return remoteFile;
+    }
+    
+    /**
+     * Get the duration of a phase
+     * 
+     * @param phase  phase of interest
+     * @return duration in nanoseconds, or -1 if the phase wasn't timed
+     */
+    public long getPhaseNanos(TransferPhase phase) {
+        return phaseNanos[phase.getIndex()];
+    }
+    
+    /**
+     * Get the duration from start to the last phase marked
+     * 
+     * @return total duration in nanoseconds
+     */
+    public long getTotalNanos() {
+        return lastNanos - startNanos;
+    }
+
+    /**
+     * @return Returns the bytes transferred.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * @return string representation
+     */
+    public String toString() {
+        StringBuffer buf = new StringBuffer(command);
+        buf.append(" ").append(remoteFile).append(" @").append(host).append(":");
+        for (int i = 0; i < phaseNanos.length; i++) {
+            if (phaseNanos[i] >= 0)
+                buf.append(" ").append(TransferPhase.getPhase(i)).append("=").
+                    append(phaseNanos[i]/1000).append("us");
+        }
+        buf.append(" bytes=").append(bytes);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.ftpandroid.net.ftp;
+
+/**
+ *  Receives the per-phase timings of each completed transfer
+ *  or listing. Sits alongside {@link EventListener} and
+ *  {@link FTPProgressMonitorEx}.
+ *
+ *  @author      Eric
+ */
+public interface TransferTimingListener {
+
+    /**
+     * Notify that a transfer has completed and been timed
+     * 
+     * @param connId  identifier of FTP connection
+     * @param timing  phase timings of the transfer
+     */
+    public void transferTimed(String connId, TransferTiming timing);
+}
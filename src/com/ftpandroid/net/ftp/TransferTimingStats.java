@@ -0,0 +1,133 @@
+package com.ftpandroid.net.ftp;
+
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ftpandroid.connx.LatencyHistogram;
+
+/**
+ *  Aggregates {@link TransferTiming} records into a latency histogram
+ *  per host, command and phase. A single instance may be shared by
+ *  any number of clients, e.g. via {@link FTPClient#setTransferTimingStats(TransferTimingStats)}.
+ *
+ *  @author      Eric
+ */
+public class TransferTimingStats {
+    
+    /**
+     * Separates host and command in keys
+     */
+    private final static char KEY_SEPARATOR = ' ';
+    
+    /**
+     * Map of "host command" -> LatencyHistogram[] indexed by phase
+     */
+    private ConcurrentHashMap histograms = new ConcurrentHashMap();
+    
+    /**
+     * Record the phases of a completed transfer
+     * 
+     * @param timing   timing of transfer
+     */
+    public void record(TransferTiming timing) {
+        LatencyHistogram[] phases = getOrCreate(timing.getHost(), timing.getCommand());
+        for (int i = 0; i < TransferPhase.COUNT; i++) {
+            long nanos = timing.getPhaseNanos(TransferPhase.getPhase(i));
+            if (nanos >= 0)
+                phases[i].record(nanos);
+        }
+    }
+    
+    /**
+     * Get the histogram of a phase for a host and command
+     * 
+     * @param host      remote host
+     * @param command   command verb, e.g. RETR
+     * @param phase     phase of interest
+     * @return histogram, or null if nothing recorded
+     */
+    public LatencyHistogram getHistogram(String host, String command, TransferPhase phase) {
+        LatencyHistogram[] phases = (LatencyHistogram[])histograms.get(key(host, command));
+        return phases != null ? phases[phase.getIndex()] : null;
+    }
+    
+    /**
+     * Get a histogram of a phase merged over all hosts and commands
+     * matching the supplied values. Either may be null to match all.
+     * 
+     * @param host      remote host, or null for all
+     * @param command   command verb, or null for all
+     * @param phase     phase of interest
+     * @return merged histogram
+     */
+    public LatencyHistogram getMergedHistogram(String host, String command, TransferPhase phase) {
+        LatencyHistogram merged = new LatencyHistogram();
+        Enumeration keys = histograms.keys();
+        while (keys.hasMoreElements()) {
+            String key = (String)keys.nextElement();
+            int pos = key.indexOf(KEY_SEPARATOR);
+            if (host != null && !host.equals(key.substring(0, pos)))
+                continue;
+            if (command != null && !command.equals(key.substring(pos+1)))
+                continue;
+            LatencyHistogram[] phases = (LatencyHistogram[])histograms.get(key);
+            if (phases != null)
+                merged.merge(phases[phase.getIndex()]);
+        }
+        return merged;
+    }
+    
+    /**
+     * Get the "host command" keys for which timings have been recorded
+     * 
+     * @return array of keys
+     */
+    public String[] getKeys() {
+        return (String[])histograms.keySet().toArray(new String[0]);
+    }
+    
+    /**
+     * Clear all recorded timings
+     */
+    public void reset() {
+        histograms.clear();
+    }
+    
+    /**
+     * Get or create the histograms for a host and command
+     */
+    private LatencyHistogram[] getOrCreate(String host, String command) {
+        String key = key(host, command);
+        LatencyHistogram[] phases = (LatencyHistogram[])histograms.get(key);
+        if (phases == null) {
+            phases = new LatencyHistogram[TransferPhase.COUNT];
+            for (int i = 0; i < phases.length; i++)
+                phases[i] = new LatencyHistogram();
+            LatencyHistogram[] existing = (LatencyHistogram[])histograms.putIfAbsent(key, phases);
+            if (existing != null)
+                phases = existing;
+        }
+        return phases;
+    }
+    
+    private static String key(String host, String command) {
+        return new StringBuffer(host != null ? host : "").append(KEY_SEPARATOR).append(command).toString();
+    }
+    
+    /**
+     * @return string representation
+     */
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        String[] keys = getKeys();
+        for (int i = 0; i < keys.length; i++) {
+            LatencyHistogram[] phases = (LatencyHistogram[])histograms.get(keys[i]);
+            if (phases == null)
+                continue;
+            buf.append(keys[i]).append(":\n");
+            for (int j = 0; j < phases.length; j++) 
+                buf.append("  ").append(TransferPhase.getPhase(j)).append(" ").append(phases[j]).append("\n");
+        }
+        return buf.toString();
+    }
+}
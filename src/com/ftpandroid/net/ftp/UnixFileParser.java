@@ -9,7 +9,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
-import com.ftpandroid.connx.StringUtils;
+import com.ftpandroid.connx.FieldTokenizer;
 import com.ftpandroid.connx.debug.Logger;
 
 /**
@@ -28,6 +28,11 @@ public class UnixFileParser extends FTPFileParser {
      */
     private final static String SYMLINK_ARROW = "->";
     
+    /**
+     * Starts the line giving the total blocks
+     */
+    private final static String TOTAL = "total";
+    
     /**
      * Indicates symbolic link
      */
@@ -44,35 +49,32 @@ public class UnixFileParser extends FTPFileParser {
     private final static char DIRECTORY_CHAR = 'd';
     
     /**
-     * Date formatter 1 with no HH:mm
+     * Date formatters for the current locale. Replaced, not changed, 
+     * when the locale is set, so that lazily decoded files keep the 
+     * formatters of the locale they were listed in.
      */
-    private SimpleDateFormat noHHmmFormatter1;
-    
+    private volatile DateFormatters formatters;
+        
     /**
-     * Date formatter 2  with no HH:mm
+     * Minimum number of expected fields
      */
-    private SimpleDateFormat noHHmmFormatter2;
+    private final static int MIN_FIELD_COUNT = 7;
     
     /**
-     * Date formatter with no HH:mm
+     * Decode fields only when asked for?
      */
-    private SimpleDateFormat noHHmmFormatter;    
-    
+    private boolean lazy = false;
     
     /**
-     * Date formatter with HH:mm
+     * Has a date been parsed since the locale was set? In lazy mode the
+     * first date is parsed straight away so a wrong locale is still found.
      */
-    private SimpleDateFormat hhmmFormatter;
+    private boolean dateProbed = false;
     
     /**
-     * List of formatters
-     */
-    private List hhmmFormatters;
-        
-    /**
-     * Minimum number of expected fields
+     * Finds the fields of each line without copying them
      */
-    private final static int MIN_FIELD_COUNT = 7;
+    private FieldTokenizer tokenizer = new FieldTokenizer();
     
     /**
      * Constructor
@@ -87,23 +89,38 @@ public class UnixFileParser extends FTPFileParser {
      * @param locale    locale to set
      */
     public void setLocale(Locale locale) {
-        noHHmmFormatter1 = new SimpleDateFormat("MMM-dd-yyyy", locale);
-        noHHmmFormatter2 = new SimpleDateFormat("dd-MMM-yyyy", locale);
-        noHHmmFormatter = noHHmmFormatter1;
-        
-        hhmmFormatters = new ArrayList();
-        hhmmFormatters.add(new SimpleDateFormat("MMM-d-yyyy-HH:mm", locale));
-        hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-HH:mm", locale));
-        hhmmFormatters.add(new SimpleDateFormat("MMM-d-yyyy-H:mm", locale));
-        hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-H:mm", locale));
-        hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-H.mm", locale));
-        hhmmFormatters.add(new SimpleDateFormat("dd-MMM-yyyy-HH:mm", locale));
+        formatters = new DateFormatters(locale);
+        dateProbed = false;
     }  
     
     public String toString() {
         return "UNIX";
     }
     
+    /**
+     * Set lazy parsing. When lazy, parsing a line only finds where its
+     * fields are, and each field is decoded when first asked for and
+     * then kept. This is much faster when few of the fields are used, 
+     * e.g. only the name and size. Date errors in lazy files give a null 
+     * date rather than an exception, except for the first line parsed 
+     * after the locale is set, which is decoded straight away so that
+     * listings in another locale are still detected.
+     * 
+     * @param lazy  true to parse lazily
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+    
+    /**
+     * Is parsing lazy?
+     * 
+     * @return true if lazy
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+    
     
     /**
      * Valid format for this parser
@@ -120,22 +137,22 @@ public class UnixFileParser extends FTPFileParser {
         for (int i = 0; i < count; i++) {
             if (listing[i].trim().length() == 0)
                 continue;
-            String[] fields = split(listing[i]);
-            if (fields.length < MIN_FIELD_COUNT)
+            if (tokenizer.tokenize(listing[i]) < MIN_FIELD_COUNT)
                 continue;
             // check perms
-            char ch00 = fields[0].charAt(0);
+            String perms = tokenizer.getField(0);
+            char ch00 = perms.charAt(0);
             if (ch00 == '-' || ch00 == 'l' || ch00 == 'd')
                 perms1 = true;
             
-            if (fields[0].length() > 1) {
-                char ch01 = fields[0].charAt(1);
+            if (perms.length() > 1) {
+                char ch01 = perms.charAt(1);
                 if (ch01 == 'r' || ch01 == '-')
                     perms2 = true;   
             }
             
              // last chance - Connect:Enterprise has -ART------TCP
-            if (!perms2 && fields[0].length() > 2 && fields[0].indexOf('-', 2) > 0)
+            if (!perms2 && perms.length() > 2 && perms.indexOf('-', 2) > 0)
                 perms2 = true;
         }
         if (perms1 && perms2)
@@ -144,6 +161,37 @@ public class UnixFileParser extends FTPFileParser {
         return false;
     }
     
+    /**
+     * Score a sample of a listing by the number of lines that have
+     * enough fields and start with Unix permissions, or give the total
+     * 
+     * @param sample   first non-blank lines of a listing
+     * @return number of Unix lines
+     */
+    public int scoreFormat(String[] sample) {
+        int score = 0;
+        for (int i = 0; i < sample.length; i++) {
+            if (sample[i] == null)
+                continue;
+            int count = tokenizer.tokenize(sample[i]);
+            if (count == 2 && tokenizer.fieldEquals(0, TOTAL) && tokenizer.isNumeric(1)) {
+                score++;
+                continue;
+            }
+            if (count < MIN_FIELD_COUNT)
+                continue;
+            String perms = tokenizer.getField(0);
+            char ch00 = perms.charAt(0);
+            if (ch00 != '-' && ch00 != 'l' && ch00 != 'd' || perms.length() < 2)
+                continue;
+            char ch01 = perms.charAt(1);
+            // Connect:Enterprise has -ART------TCP
+            if (ch01 == 'r' || ch01 == '-' || perms.indexOf('-', 2) > 0)
+                score++;
+        }
+        return score;
+    }
+    
     /**
      * Is this a Unix format listing?
      * 
@@ -160,16 +208,6 @@ public class UnixFileParser extends FTPFileParser {
         return false;
     }
     
-    private boolean isNumeric(String field)
-    {
-        for (int i = 0; i < field.length(); i++)
-        {
-            if (!Character.isDigit(field.charAt(i)))
-                return false;
-        }
-        return true;
-    }
-    
     /**
      * Parse server supplied string, e.g.:
      * 
@@ -179,17 +217,39 @@ public class UnixFileParser extends FTPFileParser {
      * @param raw   raw string to parse
      */
     public FTPFile parse(String raw) throws ParseException {
+        return parse(raw, (ListingQuery)null);
+    }
+    
+    /**
+     * Parse server supplied string if it might satisfy a query. The
+     * type, size and name are checked before the date is parsed.
+     * 
+     * @param raw     raw string to parse
+     * @param query   query the entry should satisfy, or null
+     * @return  file, or null if rejected or not an entry
+     */
+    public FTPFile parse(String raw, ListingQuery query) throws ParseException {
         
         // test it is a valid line, e.g. "total 342522" is invalid
         if (!isUnix(raw))
             return null;
         
-        String[] fields = split(raw);
+        // the type is known from the first character
+        if (query != null) {
+            char type = raw.charAt(0);
+            if (!query.acceptsType(type == DIRECTORY_CHAR, type == SYMLINK_CHAR))
+                return null;
+        }
+        if (lazy)
+            return parseLazy(raw, query);
+        
+        FieldTokenizer fields = tokenizer;
+        int count = fields.tokenize(raw);
          
-        if (fields.length < MIN_FIELD_COUNT) {
+        if (count < MIN_FIELD_COUNT) {
             StringBuffer msg = new StringBuffer("Unexpected number of fields in listing '");
             msg.append(raw).append("' - expected minimum ").append(MIN_FIELD_COUNT). 
-                    append(" fields but found ").append(fields.length).append(" fields");
+                    append(" fields but found ").append(count).append(" fields");
             log.warn(msg.toString());
             return null;
         }
@@ -198,9 +258,8 @@ public class UnixFileParser extends FTPFileParser {
         int index = 0;
         
         // first field is perms
-        char ch = raw.charAt(0);
-        String permissions = fields[index++];
-        ch = permissions.charAt(0);
+        String permissions = fields.getField(index++);
+        char ch = permissions.charAt(0);
         boolean isDir = false;
         boolean isLink = false;
         if (ch == DIRECTORY_CHAR)
@@ -210,13 +269,13 @@ public class UnixFileParser extends FTPFileParser {
         
         // some servers don't supply the link count
         int linkCount = 0;
-        if (Character.isDigit(fields[index].charAt(0))) {
+        if (Character.isDigit(fields.getFirstChar(index))) {
             try {
-                linkCount = Integer.parseInt(fields[index++]);
+                linkCount = fields.parseInt(index++);
             }
             catch (NumberFormatException ignore) {}
         }
-        else if (fields[index].charAt(0) == '-') { // IPXOS Treck FTP server
+        else if (fields.getFirstChar(index) == '-') { // IPXOS Treck FTP server
             index++;
         }
         
@@ -225,24 +284,26 @@ public class UnixFileParser extends FTPFileParser {
         String group = "";
         // if 2 fields ahead is numeric and there's enough fields beyond (4) for
         // the date, then the next two fields should be the owner & group
-        if (isNumeric(fields[index+2]) &&  fields.length-(index+2) > 4) {
-            owner = fields[index++];
-            group = fields[index++];
+        if (fields.isNumeric(index+2) && count-(index+2) > 4) {
+            owner = fields.getField(index++);
+            group = fields.getField(index++);
         }
         // no owner
-        else if (isNumeric(fields[index + 1]) && fields.length - (index + 1) > 4) {
-            group = fields[index++];
+        else if (fields.isNumeric(index + 1) && count - (index + 1) > 4) {
+            group = fields.getField(index++);
         }
         
-        // size
+        // size, ignoring any .'s
         long size = 0L;
-        String sizeStr = StringUtils.replaceAll(fields[index++], ".", ""); // get rid of .'s in size    
         try {
-            size = Long.parseLong(sizeStr);
+            size = fields.parseLong(index, '.');
         }
         catch (NumberFormatException ex) {
-            log.warn("Failed to parse size: " + sizeStr);
+            log.warn("Failed to parse size: " + fields.getField(index));
         }
+        index++;
+        if (query != null && !query.acceptsSize(isDir, size))
+            return null;
         
         // next 3 are the date time
         
@@ -251,21 +312,18 @@ public class UnixFileParser extends FTPFileParser {
         // next field is numeric and if so, we skip it (except we check for a BSD variant
         // that means it is the day of the month)
         int dayOfMonth = -1;
-        if (isNumeric(fields[index])) {
+        if (fields.isNumeric(index)) {
             // this just might be the day of month - BSD variant
             // we check it is <= 31 AND that the next field starts
             // with a letter AND the next has a ':' within it
             try
             {
-                String str = fields[index];
-                while (str.startsWith("0"))
-                    str = str.substring(1);
-                dayOfMonth = Integer.parseInt(str);
+                dayOfMonth = fields.parseInt(index);
                 if (dayOfMonth > 31) // can't be day of month
                     dayOfMonth = -1;
-                if (!(Character.isLetter(fields[index + 1].charAt(0))))
+                if (index + 2 >= count || !(Character.isLetter(fields.getFirstChar(index + 1))))
                     dayOfMonth = -1;
-                if (fields[index + 2].indexOf(':') <= 0)
+                else if (fields.indexOf(index + 2, ':') <= fields.getStart(index + 2))
                     dayOfMonth = -1;
             }
             catch (NumberFormatException ex) {}
@@ -273,75 +331,22 @@ public class UnixFileParser extends FTPFileParser {
         }
         
         int dateTimePos = index;
-        Date lastModified = null;
-        StringBuffer stamp = new StringBuffer(fields[index++]);
-        stamp.append('-');
-        if (dayOfMonth > 0)
-            stamp.append(dayOfMonth);
-        else
-            stamp.append(fields[index++]);
-        stamp.append('-');
-        
-        String field = fields[index++];
-        if (field.indexOf(':') < 0 && field.indexOf('.') < 0) {
-            stamp.append(field); // year
-            try {
-                lastModified = noHHmmFormatter.parse(stamp.toString());
-            }
-            catch (ParseException ignore) {
-                noHHmmFormatter = (noHHmmFormatter == noHHmmFormatter1 ? noHHmmFormatter2 : noHHmmFormatter1);
-                try {
-                    lastModified = noHHmmFormatter.parse(stamp.toString());
-                }
-                catch (ParseException ex) {
-                    if (!ignoreDateParseErrors)
-                        throw new DateParseException(ex.getMessage());
-                }
-            }
-        }
-        else { // add the year ourselves as not present
-            Calendar cal = Calendar.getInstance();
-            int year = cal.get(Calendar.YEAR);
-            stamp.append(year).append('-').append(field);
-            lastModified = parseTimestamp(stamp.toString());
-            
-            // can't be in the future - must be the previous year
-            // add 2 days just to allow for different time zones
-            cal.add(Calendar.DATE, 2);
-            if (lastModified != null && lastModified.after(cal.getTime())) {
-                cal.setTime(lastModified);
-                cal.add(Calendar.YEAR, -1);
-                lastModified = cal.getTime();
-            }
-        }
-            
+        
         // name of file or dir. Extract symlink if possible
         String name = null;
         String linkedname = null;
         
-        // we've got to find the starting point of the name. We
-        // do this by finding the pos of all the date/time fields, then
-        // the name - to ensure we don't get tricked up by a userid the
-        // same as the filename,for example
-        int pos = 0;
-        boolean ok = true;
+        // the name starts after the date/time fields - found by position 
+        // so we don't get tricked up by a userid the same as the filename,
+        // for example
         int dateFieldCount = dayOfMonth > 0 ? 2 : 3; // only 2 fields left if we had a leading day of month
-        for (int i = dateTimePos; i < dateTimePos + dateFieldCount; i++) {
-            pos = raw.indexOf(fields[i], pos);
-            if (pos < 0) {
-                ok = false;
-                break;
-            }
-            else { // move on the length of the field
-                pos += fields[i].length();
-            }
-        }
-        if (ok) {
-            String remainder = trimStart(raw.substring(pos));
+        int lastDateField = dateTimePos + dateFieldCount - 1;
+        if (lastDateField < count) {
+            String remainder = trimStart(raw.substring(fields.getEnd(lastDateField)));
             if (!isLink) 
                 name = remainder;
             else { // symlink, try to extract it
-                pos = remainder.indexOf(SYMLINK_ARROW);
+                int pos = remainder.indexOf(SYMLINK_ARROW);
                 if (pos <= 0) { // couldn't find symlink, give up & just assign as name
                     name = remainder;
                 }
@@ -357,6 +362,14 @@ public class UnixFileParser extends FTPFileParser {
             log.warn("Failed to retrieve name: " + raw);  
         }
         
+        if (query != null && !query.acceptsName(name))
+            return null;
+        
+        // now the date, the costliest part
+        String month = fields.getField(index++);
+        String day = dayOfMonth > 0 ? String.valueOf(dayOfMonth) : fields.getField(index++);
+        Date lastModified = formatters.parseDate(month, day, fields.getField(index++), ignoreDateParseErrors);
+            
         FTPFile file = new FTPFile(raw, name, size, isDir, lastModified);
         file.setGroup(group);
         file.setOwner(owner);
@@ -368,33 +381,388 @@ public class UnixFileParser extends FTPFileParser {
     }
     
     
-    private Date parseTimestamp(String ts) throws DateParseException {
-        if (hhmmFormatter != null) {
-            try {
-                return hhmmFormatter.parse(ts);
-            } 
-            catch (ParseException ex) {
-                if (!ignoreDateParseErrors)
-                    throw new DateParseException(ex.getMessage());
-            }
+    public FTPFileParser newInstance() {
+        UnixFileParser parser = new UnixFileParser();
+        parser.setLazy(lazy);
+        return parser;
+    }
+    
+    /**
+     * Find where the fields of a line are, leaving them to be decoded 
+     * by the file when asked for. The fields are located just as in
+     * {@link #parse(String, ListingQuery)}.
+     */
+    private FTPFile parseLazy(String raw, ListingQuery query) throws ParseException {
+        FieldTokenizer fields = tokenizer;
+        int count = fields.tokenize(raw);
+        if (count < MIN_FIELD_COUNT) {
+            StringBuffer msg = new StringBuffer("Unexpected number of fields in listing '");
+            msg.append(raw).append("' - expected minimum ").append(MIN_FIELD_COUNT). 
+                    append(" fields but found ").append(count).append(" fields");
+            log.warn(msg.toString());
             return null;
         }
-        else {
-            Iterator i = hhmmFormatters.iterator();
-            ParseException ex = null;
-            while (i.hasNext()) {
+        LazyFile file = new LazyFile(formatters, ignoreDateParseErrors, raw, fields.getBounds());
+        int index = 1;
+        char ch = fields.getFirstChar(index);
+        if (Character.isDigit(ch))
+            file.linkIndex = index++;
+        else if (ch == '-') // IPXOS Treck FTP server
+            index++;
+        if (fields.isNumeric(index+2) && count-(index+2) > 4) {
+            file.ownerIndex = index++;
+            file.groupIndex = index++;
+        }
+        else if (fields.isNumeric(index+1) && count-(index+1) > 4) {
+            file.groupIndex = index++;
+        }
+        file.sizeIndex = index++;
+        if (fields.isNumeric(index)) { // BSD day of month first?
+            int day = fields.getLength(index) <= 9 ? fields.parseInt(index) : 0;
+            if (day > 0 && day <= 31 && index + 2 < count && 
+                    Character.isLetter(fields.getFirstChar(index+1)) &&
+                    fields.indexOf(index+2, ':') > fields.getStart(index+2))
+                file.dayIndex = index;
+            index++;
+        }
+        file.dateIndex = index;
+        int nameIndex = index + (file.dayIndex >= 0 ? 2 : 3);
+        file.nameStart = nameIndex < count ? fields.getStart(nameIndex) : raw.length();
+        
+        if (query != null && (!query.acceptsSize(file.isDir(), file.size()) || !query.acceptsName(file.getName())))
+            return null;
+        if (!dateProbed) {
+            file.setLastModified(file.parseDate());
+            dateProbed = true;
+        }
+        return file;
+    }
+    
+    /**
+     * The date formatters for one locale. SimpleDateFormat is not 
+     * thread-safe, so dates are only parsed while holding the lock of
+     * the set, whether by the parser or by a lazily decoded file.
+     */
+    private static class DateFormatters {
+        
+        /**
+         * Date formatter 1 with no HH:mm
+         */
+        private SimpleDateFormat noHHmmFormatter1;
+        
+        /**
+         * Date formatter 2  with no HH:mm
+         */
+        private SimpleDateFormat noHHmmFormatter2;
+        
+        /**
+         * Date formatter with no HH:mm
+         */
+        private SimpleDateFormat noHHmmFormatter;    
+        
+        /**
+         * Date formatter with HH:mm
+         */
+        private SimpleDateFormat hhmmFormatter;
+        
+        /**
+         * List of formatters
+         */
+        private List hhmmFormatters;
+        
+        DateFormatters(Locale locale) {
+            noHHmmFormatter1 = new SimpleDateFormat("MMM-dd-yyyy", locale);
+            noHHmmFormatter2 = new SimpleDateFormat("dd-MMM-yyyy", locale);
+            noHHmmFormatter = noHHmmFormatter1;
+            
+            hhmmFormatters = new ArrayList();
+            hhmmFormatters.add(new SimpleDateFormat("MMM-d-yyyy-HH:mm", locale));
+            hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-HH:mm", locale));
+            hhmmFormatters.add(new SimpleDateFormat("MMM-d-yyyy-H:mm", locale));
+            hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-H:mm", locale));
+            hhmmFormatters.add(new SimpleDateFormat("MMM-dd-yyyy-H.mm", locale));
+            hhmmFormatters.add(new SimpleDateFormat("dd-MMM-yyyy-HH:mm", locale));
+        }
+        
+        /**
+         * Parse the date fields of a listing line
+         * 
+         * @param month   month field
+         * @param day     day of month field
+         * @param field   year, or time of day in the last year
+         * @param ignoreDateParseErrors  true to return null for an invalid date
+         * @return date, or null if invalid and ignoring date errors
+         */
+        synchronized Date parseDate(String month, String day, String field, boolean ignoreDateParseErrors) 
+            throws ParseException {
+            Date lastModified = null;
+            StringBuffer stamp = new StringBuffer(month);
+            stamp.append('-').append(day).append('-');
+        
+            if (field.indexOf(':') < 0 && field.indexOf('.') < 0) {
+                stamp.append(field); // year
+                try {
+                    lastModified = noHHmmFormatter.parse(stamp.toString());
+                }
+                catch (ParseException ignore) {
+                    noHHmmFormatter = (noHHmmFormatter == noHHmmFormatter1 ? noHHmmFormatter2 : noHHmmFormatter1);
+                    try {
+                        lastModified = noHHmmFormatter.parse(stamp.toString());
+                    }
+                    catch (ParseException ex) {
+                        if (!ignoreDateParseErrors)
+                            throw new DateParseException(ex.getMessage());
+                    }
+                }
+            }
+            else { // add the year ourselves as not present
+                Calendar cal = Calendar.getInstance();
+                int year = cal.get(Calendar.YEAR);
+                stamp.append(year).append('-').append(field);
+                lastModified = parseTimestamp(stamp.toString(), ignoreDateParseErrors);
+            
+                // can't be in the future - must be the previous year
+                // add 2 days just to allow for different time zones
+                cal.add(Calendar.DATE, 2);
+                if (lastModified != null && lastModified.after(cal.getTime())) {
+                    cal.setTime(lastModified);
+                    cal.add(Calendar.YEAR, -1);
+                    lastModified = cal.getTime();
+                }
+            }
+            return lastModified;
+        }
+    
+        private Date parseTimestamp(String ts, boolean ignoreDateParseErrors) throws DateParseException {
+            if (hhmmFormatter != null) {
                 try {
-                    hhmmFormatter = (SimpleDateFormat)i.next();
                     return hhmmFormatter.parse(ts);
                 } 
-                catch (ParseException ignore) {
-                    ex = ignore; // record last one
+                catch (ParseException ex) {
+                    if (!ignoreDateParseErrors)
+                        throw new DateParseException(ex.getMessage());
                 }
+                return null;
             }
-            if (!ignoreDateParseErrors)
-                throw new DateParseException(ex.getMessage());
-            hhmmFormatter = null; // none of them worked
-            return null;
+            else {
+                Iterator i = hhmmFormatters.iterator();
+                ParseException ex = null;
+                while (i.hasNext()) {
+                    try {
+                        hhmmFormatter = (SimpleDateFormat)i.next();
+                        return hhmmFormatter.parse(ts);
+                    } 
+                    catch (ParseException ignore) {
+                        ex = ignore; // record last one
+                    }
+                }
+                if (!ignoreDateParseErrors)
+                    throw new DateParseException(ex.getMessage());
+                hhmmFormatter = null; // none of them worked
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * A file whose fields are decoded from the raw line on first use
+     */
+    private static class LazyFile extends FTPFile {
+        
+        /**
+         * Formatters of the locale the line was listed in
+         */
+        private DateFormatters formatters;
+        
+        private boolean ignoreDateParseErrors;
+        
+        /**
+         * Start and end offsets of each field
+         */
+        private int[] bounds;
+        
+        /**
+         * Field positions, -1 if absent
+         */
+        private int linkIndex = -1;
+        private int ownerIndex = -1;
+        private int groupIndex = -1;
+        private int sizeIndex;
+        private int dayIndex = -1;
+        private int dateIndex;
+        
+        /**
+         * Offset of the name in the raw line
+         */
+        private int nameStart;
+        
+        private boolean nameDecoded = false;
+        private boolean sizeDecoded = false;
+        private boolean dateDecoded = false;
+        private boolean detailsDecoded = false;
+        
+        LazyFile(DateFormatters formatters, boolean ignoreDateParseErrors, String raw, int[] bounds) {
+            super(raw);
+            this.formatters = formatters;
+            this.ignoreDateParseErrors = ignoreDateParseErrors;
+            this.bounds = bounds;
+            char ch = raw.charAt(0);
+            isDir = ch == DIRECTORY_CHAR;
+            isLink = ch == SYMLINK_CHAR;
+        }
+        
+        private String field(int index) {
+            return raw.substring(bounds[2*index], bounds[2*index+1]);
+        }
+        
+        public String getName() {
+            if (!nameDecoded) {
+                String remainder = raw.substring(nameStart);
+                int pos = isLink ? remainder.indexOf(SYMLINK_ARROW) : -1;
+                if (pos <= 0)
+                    name = remainder;
+                else {
+                    int len = SYMLINK_ARROW.length();
+                    name = remainder.substring(0, pos).trim();
+                    if (pos+len < remainder.length())
+                        linkedname = remainder.substring(pos+len);
+                }
+                nameDecoded = true;
+            }
+            return name;
+        }
+        
+        public void setName(String name) {
+            getName(); // decode the linked name first
+            super.setName(name);
+        }
+        
+        public String getLinkedName() {
+            getName();
+            return linkedname;
+        }
+        
+        public String getLinkedname() {
+            return getLinkedName();
+        }
+        
+        public void setLinkedName(String linkedname) {
+            getName();
+            super.setLinkedName(linkedname);
+        }
+        
+        public long size() {
+            if (!sizeDecoded) {
+                try { // ignoring any .'s
+                    size = FieldTokenizer.parseLong(raw, bounds[2*sizeIndex], bounds[2*sizeIndex+1], '.');
+                }
+                catch (NumberFormatException ex) {
+                    log.warn("Failed to parse size: " + field(sizeIndex));
+                }
+                sizeDecoded = true;
+            }
+            return size;
+        }
+        
+        public void setSize(long size) {
+            super.setSize(size);
+            sizeDecoded = true;
+        }
+        
+        public Date lastModified() {
+            if (!dateDecoded) {
+                try {
+                    lastModified = parseDate();
+                }
+                catch (ParseException ex) {
+                    log.debug("Failed to parse date of '" + raw + "': " + ex.getMessage());
+                }
+                dateDecoded = true;
+            }
+            return lastModified;
+        }
+        
+        public void setLastModified(Date date) {
+            super.setLastModified(date);
+            dateDecoded = true;
+        }
+        
+        /**
+         * Parse the date with the formatters current when the line was
+         * parsed
+         */
+        Date parseDate() throws ParseException {
+            String month = field(dateIndex);
+            String day = dayIndex >= 0 ? String.valueOf(FieldTokenizer.parseLong(raw, bounds[2*dayIndex], bounds[2*dayIndex+1], (char)0)) : field(dateIndex+1);
+            String last = field(dateIndex + (dayIndex >= 0 ? 1 : 2));
+            return formatters.parseDate(month, day, last, ignoreDateParseErrors);
+        }
+        
+        /**
+         * Decode the fields seldom used
+         */
+        private void decodeDetails() {
+            if (detailsDecoded)
+                return;
+            permissions = field(0);
+            owner = ownerIndex >= 0 ? field(ownerIndex) : "";
+            group = groupIndex >= 0 ? field(groupIndex) : "";
+            linkCount = 0;
+            if (linkIndex >= 0) {
+                try {
+                    linkCount = Integer.parseInt(field(linkIndex));
+                }
+                catch (NumberFormatException ignore) {}
+            }
+            detailsDecoded = true;
+        }
+        
+        public String getPermissions() {
+            decodeDetails();
+            return permissions;
+        }
+        
+        public void setPermissions(String permissions) {
+            decodeDetails();
+            super.setPermissions(permissions);
+        }
+        
+        public String getOwner() {
+            decodeDetails();
+            return owner;
+        }
+        
+        public void setOwner(String owner) {
+            decodeDetails();
+            super.setOwner(owner);
+        }
+        
+        public String getGroup() {
+            decodeDetails();
+            return group;
+        }
+        
+        public void setGroup(String group) {
+            decodeDetails();
+            super.setGroup(group);
+        }
+        
+        public int getLinkCount() {
+            decodeDetails();
+            return linkCount;
+        }
+        
+        public void setLinkCount(int linkCount) {
+            decodeDetails();
+            super.setLinkCount(linkCount);
+        }
+        
+        public String toString() {
+            getName();
+            size();
+            lastModified();
+            decodeDetails();
+            return super.toString();
         }
     }
 }
@@ -5,6 +5,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
+import com.ftpandroid.connx.FieldTokenizer;
 import com.ftpandroid.connx.debug.Logger;
 
 /**
@@ -58,6 +59,11 @@ public class VMSFileParser extends FTPFileParser {
      * Is the version returned with the name?
      */
     private boolean versionInName = false;
+    
+    /**
+     * Finds the fields of each line without copying them
+     */
+    private FieldTokenizer tokenizer = new FieldTokenizer();
 
     /**
      * Block size used to calculate size
@@ -180,23 +186,24 @@ public class VMSFileParser extends FTPFileParser {
      * @param raw   raw string to parse
      */
     public FTPFile parse(String raw) throws ParseException {
-        String[] fields = split(raw);
+        FieldTokenizer fields = tokenizer;
+        int count = fields.tokenize(raw);
         
         // skip blank lines
-        if(fields.length <= 0)
+        if(count <= 0)
         	return null;
         // skip line which lists Directory
-        if (fields.length >= 2 && fields[0].compareTo(HDR) == 0)
+        if (count >= 2 && fields.fieldEquals(0, HDR))
         	return null;
         // skip line which lists Total
-        if (fields.length > 0 && fields[0].compareTo(TOTAL) == 0)
+        if (count > 0 && fields.fieldEquals(0, TOTAL))
         	return null;
         // probably the remainder of a listing on 2nd line
-        if (fields.length < MIN_EXPECTED_FIELD_COUNT) 
+        if (count < MIN_EXPECTED_FIELD_COUNT) 
             return null; 
         
         // first field is name
-        String name = fields[0];
+        String name = fields.getField(0);
         
         // make sure it is the name (ends with ';<INT>')
         int semiPos = name.lastIndexOf(';');
@@ -233,20 +240,19 @@ public class VMSFileParser extends FTPFileParser {
         }
         
         // 2nd field is size USED/ALLOCATED format
-        int slashPos = fields[1].indexOf('/');
-        String sizeUsed = fields[1];
-        if (slashPos > 0)
-            sizeUsed = fields[1].substring(0, slashPos);
-        long size = Long.parseLong(sizeUsed) * blocksize;
+        int slashPos = fields.indexOf(1, '/');
+        int sizeEnd = slashPos > fields.getStart(1) ? slashPos : fields.getEnd(1);
+        long size = FieldTokenizer.parseLong(raw, fields.getStart(1), sizeEnd, (char)0) * blocksize;
         
         // 3 & 4 fields are date time
         Date lastModified = null;
+        String stamp = fields.getField(2) + " " + fields.getField(3);
         try {
-            lastModified = formatter1.parse(fields[2] + " " + fields[3]);
+            lastModified = formatter1.parse(stamp);
         }
         catch (ParseException ex) {
             try {
-                lastModified = formatter2.parse(fields[2] + " " + fields[3]);
+                lastModified = formatter2.parse(stamp);
             }
             catch (ParseException ex1) {
                 if (!ignoreDateParseErrors)
@@ -257,24 +263,24 @@ public class VMSFileParser extends FTPFileParser {
         // 5th field is [group,owner]
         String group = null;
         String owner = null;
-        if (fields.length >= 5) {     
-            if (fields[4].charAt(0) == '[' && fields[4].charAt(fields[4].length()-1) == ']') {
-                int commaPos = fields[4].indexOf(',');
+        if (count >= 5) {     
+            if (fields.getFirstChar(4) == '[' && fields.getLastChar(4) == ']') {
+                int commaPos = fields.indexOf(4, ',');
                 if (commaPos < 0) {
-                    group = owner = fields[4]; // just make them the same, e.g. SYSTEM
+                    group = owner = fields.getField(4); // just make them the same, e.g. SYSTEM
                 }
                 else {
-	                group = fields[4].substring(1, commaPos);
-	                owner = fields[4].substring(commaPos+1, fields[4].length()-1);
+	                group = raw.substring(fields.getStart(4)+1, commaPos);
+	                owner = raw.substring(commaPos+1, fields.getEnd(4)-1);
                 }
             }
         }
         
         // 6th field is permissions e.g. (RWED,RWED,RE,)
         String permissions = null;
-        if (fields.length >= 6) {     
-            if (fields[5].charAt(0) == '(' && fields[5].charAt(fields[5].length()-1) == ')') {
-                permissions = fields[5].substring(1, fields[5].length()-2);
+        if (count >= 6) {     
+            if (fields.getFirstChar(5) == '(' && fields.getLastChar(5) == ')') {
+                permissions = raw.substring(fields.getStart(5)+1, fields.getEnd(5)-2);
             }
         }
         
@@ -293,4 +299,11 @@ public class VMSFileParser extends FTPFileParser {
         formatter2 = new SimpleDateFormat("dd-MMM-yyyy HH:mm", locale);
     }
   
+
+    public FTPFileParser newInstance() {
+        VMSFileParser copy = new VMSFileParser();
+        copy.setBlocksize(blocksize);
+        copy.setVersionInName(versionInName);
+        return copy;
+    }
 }
@@ -6,6 +6,7 @@ import java.util.Locale;
 
 import android.net.ParseException;
 
+import com.ftpandroid.connx.FieldTokenizer;
 import com.ftpandroid.connx.debug.Logger;
 
 /**
@@ -34,6 +35,11 @@ public class WindowsFileParser extends FTPFileParser {
      * Number of expected fields
      */
     private final static int MIN_EXPECTED_FIELD_COUNT = 4;
+    
+    /**
+     * Finds the fields of each line without copying them
+     */
+    private FieldTokenizer fields = new FieldTokenizer();
 
     /**
      * Constructor
@@ -72,15 +78,14 @@ public class WindowsFileParser extends FTPFileParser {
         for (int i = 0; i < count; i++) {
             if (listing[i].trim().length() == 0)
                 continue;
-            String[] fields = split(listing[i]);
-            if (fields.length < MIN_EXPECTED_FIELD_COUNT)
+            if (fields.tokenize(listing[i]) < MIN_EXPECTED_FIELD_COUNT)
                 continue;
             // first & last chars are digits of first field
-            if (Character.isDigit(fields[0].charAt(0)) && Character.isDigit(fields[0].charAt(fields[0].length()-1)))
+            if (Character.isDigit(fields.getFirstChar(0)) && Character.isDigit(fields.getLastChar(0)))
                 dateStart = true;
-            if (fields[1].indexOf(':') > 0)
+            if (fields.indexOf(1, ':') > fields.getStart(1))
                 timeColon = true;
-            if (fields[2].equalsIgnoreCase(DIR) || Character.isDigit(fields[2].charAt(0)) )
+            if (fields.fieldEqualsIgnoreCase(2, DIR) || Character.isDigit(fields.getFirstChar(2)) )
                 dirOrFile = true;
         }
         if (dateStart && timeColon && dirOrFile)
@@ -88,6 +93,26 @@ public class WindowsFileParser extends FTPFileParser {
         log.debug("Not in Windows format");
         return false;
     }
+    
+    /**
+     * Score a sample of a listing by the number of lines starting with
+     * a date, a time and a size or &lt;DIR&gt;
+     * 
+     * @param sample   first non-blank lines of a listing
+     * @return number of Windows lines
+     */
+    public int scoreFormat(String[] sample) {
+        int score = 0;
+        for (int i = 0; i < sample.length; i++) {
+            if (sample[i] == null || fields.tokenize(sample[i]) < MIN_EXPECTED_FIELD_COUNT)
+                continue;
+            if (Character.isDigit(fields.getFirstChar(0)) && Character.isDigit(fields.getLastChar(0)) &&
+                    fields.indexOf(1, ':') > fields.getStart(1) &&
+                    (fields.fieldEqualsIgnoreCase(2, DIR) || Character.isDigit(fields.getFirstChar(2))))
+                score++;
+        }
+        return score;
+    }
 
 
     /**
@@ -100,60 +125,59 @@ public class WindowsFileParser extends FTPFileParser {
      * @param raw   raw string to parse
      */
     public FTPFile parse(String raw) throws ParseException {
-        String[] fields = split(raw);
-        
-        if (fields.length < MIN_EXPECTED_FIELD_COUNT)
+        return parse(raw, (ListingQuery)null);
+    }
+    
+    /**
+     * Parse server supplied string if it might satisfy a query. The
+     * type, size and name are checked before the date is parsed.
+     * 
+     * @param raw     raw string to parse
+     * @param query   query the entry should satisfy, or null
+     * @return  file, or null if rejected or not an entry
+     */
+    public FTPFile parse(String raw, ListingQuery query) throws ParseException {
+        if (fields.tokenize(raw) < MIN_EXPECTED_FIELD_COUNT)
             return null;
-         
-        // first two fields are date time
-        Date lastModified = null;
-        try {
-            lastModified = formatter.parse(fields[0] + " " + fields[1]);
-        }
-        catch (ParseException ex) {
-            if (!ignoreDateParseErrors) {
-                throw new DateParseException(ex.getMessage());
-            }
-        }
         
         // dir flag
         boolean isDir = false;
         long size = 0L;
-        if (fields[2].equalsIgnoreCase(DIR))
+        if (fields.fieldEqualsIgnoreCase(2, DIR))
             isDir = true;
         else {
             try {
-                size = Long.parseLong(fields[2]);
+                size = fields.parseLong(2);
             }
             catch (NumberFormatException ex) {
-                log.warn("Failed to parse size: " + fields[2]);
+                log.warn("Failed to parse size: " + fields.getField(2));
             }
         }
+        if (query != null && (!query.acceptsType(isDir, false) || !query.acceptsSize(isDir, size)))
+            return null;
         
-        // we've got to find the starting point of the name. We
-        // do this by finding the pos of all the date/time fields, then
-        // the name - to ensure we don't get tricked up by a date or dir the
-        // same as the filename, for example
-        int pos = 0;
-        boolean ok = true;
-        for (int i = 0; i < 3; i++) {
-            pos = raw.indexOf(fields[i], pos);
-            if (pos < 0) {
-                ok = false;
-                break;
-            }
-            else { // move on the length of the field
-                pos += fields[i].length();
-            }
-        }
-        String name = null;
-        if (ok) {
-            name = trimStart(raw.substring(pos));           
+        // the name starts after the date/time and dir or size fields - 
+        // found by position so we don't get tricked up by a date or dir 
+        // the same as the filename, for example
+        String name = trimStart(raw.substring(fields.getEnd(2)));
+        if (query != null && !query.acceptsName(name))
+            return null;
+         
+        // first two fields are date time
+        Date lastModified = null;
+        try {
+            lastModified = formatter.parse(fields.getField(0) + " " + fields.getField(1));
         }
-        else {
-            log.warn("Failed to retrieve name: " + raw);  
+        catch (ParseException ex) {
+            if (!ignoreDateParseErrors) {
+                throw new DateParseException(ex.getMessage());
+            }
         }
         return new FTPFile(raw, name, size, isDir, lastModified); 
     }
   
+
+    public FTPFileParser newInstance() {
+        return new WindowsFileParser();
+    }
 }